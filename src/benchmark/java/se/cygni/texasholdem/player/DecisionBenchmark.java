@@ -0,0 +1,46 @@
+package se.cygni.texasholdem.player;
+
+import org.openjdk.jmh.annotations.*;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * actionRequired end to end, from the action request to the chosen action,
+ * for a bot that has been told a synthetic hand up to the given street.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecisionBenchmark {
+
+    @Param({"PRE_FLOP", "FLOP", "TURN", "RIVER"})
+    public String street;
+
+    @Param({"2", "6", "10"})
+    public int players;
+
+    private FullyImplementedBot bot;
+    private ActionRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bot = new FullyImplementedBot();
+        for (TexasEvent event : SyntheticHands.deal(bot.getName(), players, PlayState.valueOf(street), new Random(42))) {
+            bot.dispatchEvent(event);
+        }
+        request = SyntheticHands.actionRequest(true);
+    }
+
+    @Benchmark
+    public Action actionRequired() {
+        return bot.actionRequired(request);
+    }
+}
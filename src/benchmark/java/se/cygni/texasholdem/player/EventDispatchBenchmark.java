@@ -0,0 +1,133 @@
+package se.cygni.texasholdem.player;
+
+import org.openjdk.jmh.annotations.*;
+import se.cygni.texasholdem.client.ClientEventDispatcher;
+import se.cygni.texasholdem.client.CurrentPlayState;
+import se.cygni.texasholdem.communication.message.event.*;
+import se.cygni.texasholdem.game.GamePlayer;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of one table event. Each invocation routes the next event of a
+ * fixed set of synthetic hands with blinds, calls, raises and folds.
+ * <p/>
+ * botDispatchEvent hands the event to a whole offline bot through its
+ * EventRouter. Our own hole cards are left out of its events, so it never
+ * speculates on equity and only its bookkeeping is measured.
+ * botDoubleDispatch hands the same events to another such bot the way the
+ * player client did before the EventRouter: through two
+ * ClientEventDispatchers, one into a CurrentPlayState and one into the
+ * bot's callbacks. The other benchmarks measure the parts: the dispatch
+ * to a CurrentPlayState the bot no longer does, the EventRouter to a
+ * TableState, and an event nobody listens to.
+ * <p/>
+ * Run with -prof gc for the allocation per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDispatchBenchmark {
+
+    private static final int HANDS = 64;
+    private static final String NAME = FullyImplementedBot.DEFAULT_NAME;
+
+    private TexasEvent[] events;
+    private TexasEvent[] botEvents;
+    private FullyImplementedBot bot;
+    private ClientEventDispatcher playStateDispatcher;
+    private ClientEventDispatcher botDispatcher;
+    private ClientEventDispatcher clientDispatcher;
+    private EventRouter tableStateRouter;
+    private EventRouter emptyRouter;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        List<TexasEvent> all = new ArrayList<TexasEvent>();
+        for (int i = 0; i < HANDS; i++) {
+            List<TexasEvent> hand = SyntheticHands.deal(NAME, 6, PlayState.RIVER, random);
+            List<GamePlayer> players = ((PlayIsStartedEvent) hand.get(0)).getPlayers();
+            // Some betting before the flop, after the blinds, hole cards and street change
+            List<TexasEvent> betting = new ArrayList<TexasEvent>();
+            betting.add(new PlayerCalledEvent(players.get(2), SyntheticHands.BIG_BLIND));
+            betting.add(new PlayerRaisedEvent(players.get(3), 3 * SyntheticHands.BIG_BLIND));
+            betting.add(new PlayerFoldedEvent(players.get(4), 0));
+            betting.add(new PlayerCalledEvent(players.get(5), 3 * SyntheticHands.BIG_BLIND));
+            hand.addAll(6, betting);
+            all.addAll(hand);
+        }
+        events = all.toArray(new TexasEvent[all.size()]);
+        List<TexasEvent> withoutMyCards = new ArrayList<TexasEvent>();
+        for (TexasEvent event : all) {
+            if (!(event instanceof YouHaveBeenDealtACardEvent)) {
+                withoutMyCards.add(event);
+            }
+        }
+        botEvents = withoutMyCards.toArray(new TexasEvent[withoutMyCards.size()]);
+
+        bot = new FullyImplementedBot();
+        playStateDispatcher = new ClientEventDispatcher(new CurrentPlayState(NAME).getPlayerImpl());
+        botDispatcher = new ClientEventDispatcher(new FullyImplementedBot());
+
+        clientDispatcher = new ClientEventDispatcher(new CurrentPlayState(NAME).getPlayerImpl());
+        tableStateRouter = new EventRouter();
+        tableStateRouter.register(TableState.EVENTS, new TableState(NAME));
+        emptyRouter = new EventRouter();
+    }
+
+    private TexasEvent nextEvent() {
+        if (++next == events.length) {
+            next = 0;
+        }
+        return events[next];
+    }
+
+    private TexasEvent nextBotEvent() {
+        if (++next == botEvents.length) {
+            next = 0;
+        }
+        return botEvents[next];
+    }
+
+    @Benchmark
+    public void botDispatchEvent() {
+        bot.dispatchEvent(nextBotEvent());
+    }
+
+    /**
+     * Every event dispatched twice, as before the EventRouter.
+     */
+    @Benchmark
+    public void botDoubleDispatch() {
+        TexasEvent event = nextBotEvent();
+        playStateDispatcher.onEvent(event);
+        botDispatcher.onEvent(event);
+    }
+
+    @Benchmark
+    public void clientDispatcherToCurrentPlayState() {
+        clientDispatcher.onEvent(nextEvent());
+    }
+
+    @Benchmark
+    public void routerToTableState() {
+        tableStateRouter.onEvent(nextEvent());
+    }
+
+    /**
+     * What an event nobody is interested in costs.
+     */
+    @Benchmark
+    public void routerWithoutListeners() {
+        emptyRouter.onEvent(nextEvent());
+    }
+}
@@ -0,0 +1,87 @@
+package se.cygni.texasholdem.player;
+
+import org.openjdk.jmh.annotations.*;
+import se.cygni.texasholdem.client.ClientEventDispatcher;
+import se.cygni.texasholdem.client.CurrentPlayState;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.game.Card;
+import se.cygni.texasholdem.game.Hand;
+import se.cygni.texasholdem.game.definitions.PlayState;
+import se.cygni.texasholdem.game.util.PokerHandUtil;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pieces a decision is made of. Each invocation moves on to the next
+ * of a fixed set of random hands so that nothing can be constant folded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+
+    private static final int HANDS = 64;
+
+    private FullyImplementedBot bot;
+    private PreflopTable preflopTable;
+    private Strategy strategy;
+    private final CurrentPlayState[] states = new CurrentPlayState[HANDS];
+    private final long[] riverMasks = new long[HANDS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bot = new FullyImplementedBot();
+        preflopTable = BotResources.shared().getPreflopTable();
+        strategy = BotResources.shared().getStrategySource().get();
+        Random random = new Random(42);
+        for (int i = 0; i < HANDS; i++) {
+            states[i] = new CurrentPlayState(bot.getName());
+            ClientEventDispatcher dispatcher = new ClientEventDispatcher(states[i].getPlayerImpl());
+            for (TexasEvent event : SyntheticHands.deal(bot.getName(), 6, PlayState.RIVER, random)) {
+                dispatcher.onEvent(event);
+            }
+            riverMasks[i] = CardMask.mask(states[i].getMyCards()) | CardMask.mask(states[i].getCommunityCards());
+        }
+    }
+
+    private CurrentPlayState nextState() {
+        next = (next + 1) & (HANDS - 1);
+        return states[next];
+    }
+
+    @Benchmark
+    public String translateFromShortString() {
+        return Translator.translateFromShortString(nextState().getMyCards());
+    }
+
+    @Benchmark
+    public float preflopTableLookup() {
+        List<Card> cards = nextState().getMyCards();
+        return preflopTable.winProbability(6, PreflopTable.handClass(cards.get(0), cards.get(1)));
+    }
+
+    @Benchmark
+    public long strategyPreflopLookup() {
+        List<Card> cards = nextState().getMyCards();
+        int cell = Strategy.preflopCell(6, (next & 1) == 0, PreflopTable.handClass(cards.get(0), cards.get(1)));
+        return strategy.isPremium(cell) ? Long.MAX_VALUE : strategy.getPreflopMaxCall(cell);
+    }
+
+    @Benchmark
+    public Hand pokerHandUtilGetBestHand() {
+        CurrentPlayState state = nextState();
+        return new PokerHandUtil(state.getCommunityCards(), state.getMyCards()).getBestHand();
+    }
+
+    @Benchmark
+    public int handEvaluatorEvaluate() {
+        next = (next + 1) & (HANDS - 1);
+        return HandEvaluator.evaluate(riverMasks[next]);
+    }
+}
@@ -0,0 +1,184 @@
+package se.cygni.texasholdem.player;
+
+/**
+ * Draws, outs and board texture of the hand in progress, worked out once
+ * from our cards and the community cards whenever a card is dealt.
+ * <p/>
+ * TableState creates one per card and keeps it in its snapshots, so the
+ * cards are only tracked there and a decision reads the draws of the same
+ * snapshot as the rest of the table. Everything the street logic asks for
+ * is worked out on creation, so the getters are plain field reads and an
+ * instance never changes. Straight outs come from a table of the ranks
+ * that complete a straight for each of the 8192 sets of ranks, built once.
+ * <p/>
+ * Only draws that use at least one of our hole cards count: a straight or
+ * flush the board makes by itself is shared with everyone.
+ */
+final class BoardAnalyzer {
+
+    static final int STRONG_DRAW_OUTS = 8;
+
+    /**
+     * No cards dealt
+     */
+    static final BoardAnalyzer NONE = new BoardAnalyzer(0, 0);
+
+    private static final int ACE = CardMask.RANKS - 1;
+    private static final int FLUSH = 5;
+
+    /**
+     * Ranks that would give a straight, indexed by the ranks already held
+     */
+    private static final short[] STRAIGHT_OUTS = new short[1 << CardMask.RANKS];
+
+    static {
+        for (int ranks = 0; ranks < STRAIGHT_OUTS.length; ranks++) {
+            if (hasStraight(ranks)) {
+                continue;
+            }
+            for (int rank = 0; rank < CardMask.RANKS; rank++) {
+                if ((ranks & (1 << rank)) == 0 && hasStraight(ranks | (1 << rank))) {
+                    STRAIGHT_OUTS[ranks] |= 1 << rank;
+                }
+            }
+        }
+    }
+
+    private final long outs;
+    private final boolean flushDraw;
+    private final boolean straightDraw;
+    private final boolean openEnded;
+    private final boolean boardPaired;
+    private final int boardSuitMax;
+    private final boolean boardStraightPossible;
+
+    /**
+     * @param myCards CardMask of our hole cards
+     * @param board CardMask of the community cards
+     */
+    BoardAnalyzer(long myCards, long board) {
+        long seen = myCards | board;
+        int ranks = 0;
+        int boardRanks = 0;
+        boolean paired = false;
+        int suitMax = 0;
+        long flushOuts = 0;
+        for (int suit = 0; suit < CardMask.SUITS; suit++) {
+            int suitRanks = CardMask.suitRanks(seen, suit);
+            int boardSuitRanks = CardMask.suitRanks(board, suit);
+            paired |= (boardRanks & boardSuitRanks) != 0;
+            ranks |= suitRanks;
+            boardRanks |= boardSuitRanks;
+            suitMax = Math.max(suitMax, Integer.bitCount(boardSuitRanks));
+            if (Integer.bitCount(suitRanks) == FLUSH - 1 && Integer.bitCount(boardSuitRanks) < FLUSH - 1) {
+                flushOuts |= ((long) CardMask.RANK_BITS << (suit * CardMask.RANKS)) & ~seen;
+            }
+        }
+        boardPaired = paired;
+        boardSuitMax = suitMax;
+        boardStraightPossible = isStraightPossible(boardRanks);
+
+        int boardCards = Long.bitCount(board);
+        if (Long.bitCount(myCards) != 2 || boardCards < 3 || boardCards > 4) {
+            // Draws only matter with cards to come
+            outs = 0;
+            flushDraw = false;
+            straightDraw = false;
+            openEnded = false;
+            return;
+        }
+
+        int straightRanks = hasStraight(ranks) ? 0 : STRAIGHT_OUTS[ranks] & ~STRAIGHT_OUTS[boardRanks];
+        long straightOuts = everySuit(straightRanks) & ~seen;
+
+        outs = flushOuts | straightOuts;
+        flushDraw = flushOuts != 0;
+        straightDraw = straightRanks != 0;
+        openEnded = Integer.bitCount(straightRanks) >= 2;
+    }
+
+    /**
+     * @return the number of unseen cards that complete a flush or straight draw of ours
+     */
+    int getOuts() {
+        return Long.bitCount(outs);
+    }
+
+    /**
+     * @return CardMask of the cards counted by getOuts
+     */
+    long getOutCards() {
+        return outs;
+    }
+
+    boolean hasFlushDraw() {
+        return flushDraw;
+    }
+
+    boolean hasStraightDraw() {
+        return straightDraw;
+    }
+
+    /**
+     * @return true for an open-ended straight draw or a double gutshot, two ranks complete it
+     */
+    boolean hasOpenEndedStraightDraw() {
+        return openEnded;
+    }
+
+    /**
+     * @return true with at least STRONG_DRAW_OUTS outs and a card still to come
+     */
+    boolean hasStrongDraw() {
+        return Long.bitCount(outs) >= STRONG_DRAW_OUTS;
+    }
+
+    boolean isBoardPaired() {
+        return boardPaired;
+    }
+
+    /**
+     * @return the most community cards of a single suit, 3 or more is a possible flush
+     */
+    int getBoardSuitMax() {
+        return boardSuitMax;
+    }
+
+    /**
+     * @return true if three community cards fit in a straight, so two hole cards can make one
+     */
+    boolean isBoardStraightPossible() {
+        return boardStraightPossible;
+    }
+
+    @Override
+    public String toString() {
+        return getOuts() + " outs" + (flushDraw ? ", flush draw" : "") + (openEnded ? ", open-ended straight draw"
+                : straightDraw ? ", gutshot" : "") + (boardPaired ? ", paired board" : "")
+                + (boardSuitMax >= 3 ? ", " + boardSuitMax + " suited on board" : "")
+                + (boardStraightPossible ? ", straight possible on board" : "");
+    }
+
+    /**
+     * @param ranks 13-bit set with ACE as the highest bit, the ace also plays low
+     */
+    static boolean hasStraight(int ranks) {
+        int withLowAce = ranks << 1 | ranks >>> ACE & 1;
+        return (withLowAce & withLowAce >>> 1 & withLowAce >>> 2 & withLowAce >>> 3 & withLowAce >>> 4) != 0;
+    }
+
+    static boolean isStraightPossible(int ranks) {
+        int withLowAce = ranks << 1 | ranks >>> ACE & 1;
+        for (int lowest = 0; lowest <= CardMask.RANKS - 4; lowest++) {
+            if (Integer.bitCount(withLowAce >>> lowest & 0x1F) >= 3) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long everySuit(int ranks) {
+        long mask = ranks;
+        return mask | mask << CardMask.RANKS | mask << (2 * CardMask.RANKS) | mask << (3 * CardMask.RANKS);
+    }
+}
@@ -0,0 +1,243 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.game.definitions.ActionType;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session performance and health of all bots in the JVM: decisions per
+ * street, the action mix, fallbacks and forced folds, chips won per hand,
+ * won amounts, events and decision latency.
+ * <p/>
+ * Every table updates the same counters, so they are StripedCounters and
+ * an update is one uncontended atomic add. The latency is the whole of
+ * actionRequired, recorded in a LatencyHistogram.
+ * <p/>
+ * Read over JMX, see BotMetricsMXBean, and as plain text from MetricsServer.
+ */
+final class BotMetrics implements BotMetricsMXBean {
+
+    private static Logger log = LoggerFactory
+            .getLogger(BotMetrics.class);
+
+    static final String OBJECT_NAME = "se.cygni.texasholdem.player:type=BotMetrics";
+
+    private static final int DECISIONS = 0; //One counter per street
+    private static final int ACTIONS = DECISIONS + PlayState.values().length; //One counter per action type
+    private static final int FALLBACKS = ACTIONS + ActionType.values().length;
+    private static final int FORCED_FOLDS = FALLBACKS + 1;
+    private static final int HANDS = FORCED_FOLDS + 1;
+    private static final int CHIPS_WON = HANDS + 1;
+    private static final int MILLI_BIG_BLINDS_WON = CHIPS_WON + 1;
+    private static final int WINS = MILLI_BIG_BLINDS_WON + 1;
+    private static final int WON_AMOUNT = WINS + 1;
+    private static final int EVENTS = WON_AMOUNT + 1;
+    private static final int COUNTERS = EVENTS + 1;
+
+    private final StripedCounters counters = new StripedCounters(COUNTERS);
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Makes the metrics visible over JMX, replacing whatever was registered
+     * under the same name.
+     */
+    void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            log.warn("Could not register the metrics over JMX", e);
+        }
+    }
+
+    void onDecision(PlayState street, ActionType action, long nanos) {
+        if (street != null) {
+            counters.increment(DECISIONS + street.ordinal());
+        }
+        if (action != null) {
+            counters.increment(ACTIONS + action.ordinal());
+        }
+        latency.record(nanos);
+    }
+
+    void onFallback() {
+        counters.increment(FALLBACKS);
+    }
+
+    void onForcedFold() {
+        counters.increment(FORCED_FOLDS);
+    }
+
+    /**
+     * @param chipsWon chips at the end of the hand minus at its start, negative when lost
+     * @param bigBlind the big blind of the hand
+     */
+    void onHandPlayed(long chipsWon, long bigBlind) {
+        counters.increment(HANDS);
+        counters.add(CHIPS_WON, chipsWon);
+        if (bigBlind > 0) {
+            counters.add(MILLI_BIG_BLINDS_WON, chipsWon * 1000 / bigBlind);
+        }
+    }
+
+    void onWon(long amount) {
+        counters.increment(WINS);
+        counters.add(WON_AMOUNT, amount);
+    }
+
+    void onEvent() {
+        counters.increment(EVENTS);
+    }
+
+    @Override
+    public long getPreFlopDecisions() {
+        return counters.sum(DECISIONS + PlayState.PRE_FLOP.ordinal());
+    }
+
+    @Override
+    public long getFlopDecisions() {
+        return counters.sum(DECISIONS + PlayState.FLOP.ordinal());
+    }
+
+    @Override
+    public long getTurnDecisions() {
+        return counters.sum(DECISIONS + PlayState.TURN.ordinal());
+    }
+
+    @Override
+    public long getRiverDecisions() {
+        return counters.sum(DECISIONS + PlayState.RIVER.ordinal());
+    }
+
+    @Override
+    public long getFolds() {
+        return counters.sum(ACTIONS + ActionType.FOLD.ordinal());
+    }
+
+    @Override
+    public long getChecks() {
+        return counters.sum(ACTIONS + ActionType.CHECK.ordinal());
+    }
+
+    @Override
+    public long getCalls() {
+        return counters.sum(ACTIONS + ActionType.CALL.ordinal());
+    }
+
+    @Override
+    public long getRaises() {
+        return counters.sum(ACTIONS + ActionType.RAISE.ordinal());
+    }
+
+    @Override
+    public long getAllIns() {
+        return counters.sum(ACTIONS + ActionType.ALL_IN.ordinal());
+    }
+
+    @Override
+    public long getFallbacks() {
+        return counters.sum(FALLBACKS);
+    }
+
+    @Override
+    public long getForcedFolds() {
+        return counters.sum(FORCED_FOLDS);
+    }
+
+    @Override
+    public long getHands() {
+        return counters.sum(HANDS);
+    }
+
+    @Override
+    public long getChipsWon() {
+        return counters.sum(CHIPS_WON);
+    }
+
+    @Override
+    public double getBigBlindsPer100Hands() {
+        long hands = getHands();
+        return hands == 0 ? 0 : counters.sum(MILLI_BIG_BLINDS_WON) / 1000.0 / hands * 100;
+    }
+
+    @Override
+    public long getWins() {
+        return counters.sum(WINS);
+    }
+
+    @Override
+    public long getWonAmount() {
+        return counters.sum(WON_AMOUNT);
+    }
+
+    @Override
+    public long getEvents() {
+        return counters.sum(EVENTS);
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        return seconds > 0 ? getEvents() / seconds : 0;
+    }
+
+    @Override
+    public double getDecisionLatencyMedianMillis() {
+        return millis(latency.percentile(50));
+    }
+
+    @Override
+    public double getDecisionLatency99Millis() {
+        return millis(latency.percentile(99));
+    }
+
+    @Override
+    public double getDecisionLatencyMaxMillis() {
+        return millis(latency.percentile(100));
+    }
+
+    /**
+     * One metric per line, name{labels} value, in the text format most
+     * monitoring tools scrape.
+     */
+    void appendText(StringBuilder sb) {
+        for (PlayState street : new PlayState[]{PlayState.PRE_FLOP, PlayState.FLOP, PlayState.TURN, PlayState.RIVER}) {
+            line(sb, "deepthought_decisions_total{street=\"" + street + "\"}", counters.sum(DECISIONS + street.ordinal()));
+        }
+        for (ActionType action : ActionType.values()) {
+            line(sb, "deepthought_actions_total{action=\"" + action + "\"}", counters.sum(ACTIONS + action.ordinal()));
+        }
+        line(sb, "deepthought_fallbacks_total", getFallbacks());
+        line(sb, "deepthought_forced_folds_total", getForcedFolds());
+        line(sb, "deepthought_hands_total", getHands());
+        line(sb, "deepthought_chips_won_total", getChipsWon());
+        line(sb, "deepthought_big_blinds_per_100_hands", getBigBlindsPer100Hands());
+        line(sb, "deepthought_wins_total", getWins());
+        line(sb, "deepthought_won_amount_total", getWonAmount());
+        line(sb, "deepthought_events_total", getEvents());
+        line(sb, "deepthought_events_per_second", getEventsPerSecond());
+        line(sb, "deepthought_decision_latency_millis{quantile=\"0.5\"}", getDecisionLatencyMedianMillis());
+        line(sb, "deepthought_decision_latency_millis{quantile=\"0.99\"}", getDecisionLatency99Millis());
+        line(sb, "deepthought_decision_latency_millis{quantile=\"1\"}", getDecisionLatencyMaxMillis());
+    }
+
+    private static void line(StringBuilder sb, String name, Object value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
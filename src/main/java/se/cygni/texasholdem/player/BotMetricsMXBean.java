@@ -0,0 +1,65 @@
+package se.cygni.texasholdem.player;
+
+/**
+ * How the bots of this JVM are doing, as seen in JConsole or any other JMX
+ * client under se.cygni.texasholdem.player:type=BotMetrics. All counts are
+ * totals since the JVM started, summed over every table.
+ *
+ * @see BotMetrics
+ */
+public interface BotMetricsMXBean {
+
+    long getPreFlopDecisions();
+
+    long getFlopDecisions();
+
+    long getTurnDecisions();
+
+    long getRiverDecisions();
+
+    long getFolds();
+
+    long getChecks();
+
+    long getCalls();
+
+    long getRaises();
+
+    long getAllIns();
+
+    /**
+     * @return decisions answered with check or fold for being too slow or failing
+     */
+    long getFallbacks();
+
+    /**
+     * @return times the server folded us for not answering in time
+     */
+    long getForcedFolds();
+
+    long getHands();
+
+    /**
+     * @return chips won minus chips lost over all finished hands
+     */
+    long getChipsWon();
+
+    double getBigBlindsPer100Hands();
+
+    /**
+     * @return number and sum of the amounts in onYouWonAmount
+     */
+    long getWins();
+
+    long getWonAmount();
+
+    long getEvents();
+
+    double getEventsPerSecond();
+
+    double getDecisionLatencyMedianMillis();
+
+    double getDecisionLatency99Millis();
+
+    double getDecisionLatencyMaxMillis();
+}
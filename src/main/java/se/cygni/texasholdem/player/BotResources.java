@@ -0,0 +1,147 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Everything a bot needs that does not depend on the table it plays at,
+ * shared by all bots in the JVM.
+ * <p/>
+ * The preflop and push/fold tables are loaded once from the classpath and
+ * only read afterwards, the hand evaluator tables are static already, and
+ * equities calculated at one table are remembered for all.
+ * <p/>
+ * The bots share three thread pools. The equity pool, with
+ * deepthought.equity.threads threads, is where every equity of the JVM is
+ * calculated: the Monte Carlo samples of EquityCalculator as well as the
+ * exact and range equities, see EquityCalculator.calculateOnPool. The
+ * speculation executor, with deepthought.speculation.threads threads,
+ * asks for hand strength ahead of the decisions. The decision executor
+ * runs the strategy of each guarded decision on a thread of its own, and a
+ * decision abandoned by its DecisionWatchdog keeps its thread until it
+ * notices the interrupt. Both of the latter mostly wait for the equity
+ * pool, so however many tables the JVM plays at, the heavy work is bounded
+ * by the equity threads, which default to the number of cores.
+ * <p/>
+ * The strategy is read from the file named by deepthought.strategy.file
+ * if it is set, see StrategySource.
+ * <p/>
+ * The metrics of the bots playing online are registered over JMX, and
+ * served as text on the port deepthought.metrics.port if it is set.
+ */
+final class BotResources {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final PreflopTable preflopTable;
+    private final PushFoldTable pushFoldTable;
+    private final StrategySource strategySource;
+    private final EquityCalculator equityCalculator;
+    private final ExactEquity exactEquity = new ExactEquity();
+    private final RangeEquity rangeEquity = new RangeEquity();
+    private final EquityCache equityCache = new EquityCache();
+    private final ExecutorService speculationExecutor;
+    private final ExecutorService decisionExecutor;
+    private final BotMetrics metrics = new BotMetrics();
+
+    BotResources(int equityThreads, int speculationThreads) {
+        ForkJoinPool equityPool = new ForkJoinPool(equityThreads);
+
+        // Both tables are read from the classpath at the same time
+        Future<PushFoldTable> pushFold = equityPool.submit(new Callable<PushFoldTable>() {
+            @Override
+            public PushFoldTable call() {
+                return PushFoldTable.loadResource();
+            }
+        });
+        preflopTable = PreflopTable.loadResources();
+        try {
+            pushFoldTable = pushFold.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the push/fold strategy", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        String strategyFile = System.getProperty("deepthought.strategy.file");
+        strategySource = StrategySource.open(preflopTable, strategyFile == null ? null : new File(strategyFile));
+
+        equityCalculator = new EquityCalculator(equityPool);
+        speculationExecutor = Executors.newFixedThreadPool(speculationThreads,
+                new ThreadFactoryBuilder().setNameFormat("speculation-%d").setDaemon(true).build());
+        // A thread per decision in progress, waiting for the equity pool most of the time
+        decisionExecutor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("decision-%d").setDaemon(true).build());
+
+        metrics.registerMBean();
+        Integer metricsPort = Integer.getInteger("deepthought.metrics.port");
+        if (metricsPort != null) {
+            MetricsServer.start(metricsPort, metrics);
+        }
+    }
+
+    /**
+     * @return the resources of this JVM, created by the first bot that asks
+     */
+    static BotResources shared() {
+        return Holder.SHARED;
+    }
+
+    PreflopTable getPreflopTable() {
+        return preflopTable;
+    }
+
+    PushFoldTable getPushFoldTable() {
+        return pushFoldTable;
+    }
+
+    StrategySource getStrategySource() {
+        return strategySource;
+    }
+
+    EquityCalculator getEquityCalculator() {
+        return equityCalculator;
+    }
+
+    ExactEquity getExactEquity() {
+        return exactEquity;
+    }
+
+    RangeEquity getRangeEquity() {
+        return rangeEquity;
+    }
+
+    EquityCache getEquityCache() {
+        return equityCache;
+    }
+
+    ExecutorService getSpeculationExecutor() {
+        return speculationExecutor;
+    }
+
+    /**
+     * @return the metrics shared by the bots playing online
+     */
+    BotMetrics getMetrics() {
+        return metrics;
+    }
+
+    ExecutorService getDecisionExecutor() {
+        return decisionExecutor;
+    }
+
+    private static final class Holder {
+
+        private static final BotResources SHARED = new BotResources(
+                Integer.getInteger("deepthought.equity.threads", CORES),
+                Integer.getInteger("deepthought.speculation.threads", CORES));
+    }
+}
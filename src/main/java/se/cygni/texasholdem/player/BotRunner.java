@@ -0,0 +1,77 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.game.Room;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts several bots in one JVM, each at its own table.
+ * <p/>
+ * The bots share the preflop table, the evaluator tables and the equity,
+ * speculation and decision thread pools through BotResources, so an extra
+ * bot only costs its own table state and its connection to the server.
+ * Each bot keeps its opponent statistics and hand history in files
+ * prefixed with its name.
+ * <p/>
+ * A bot that loses its connection closes its own files and the others
+ * play on. The JVM exits once every bot has lost its connection.
+ * <p/>
+ * Usage: BotRunner host port name[:room] ...
+ * <p/>
+ * The room is one of TRAINING, FREEPLAY or TOURNAMENT and defaults to
+ * TRAINING, e.g. BotRunner localhost 4711 Deep_Thought_1 Deep_Thought_2:FREEPLAY
+ */
+public class BotRunner {
+
+    private static Logger log = LoggerFactory
+            .getLogger(BotRunner.class);
+
+    public static void main(String... args) {
+        if (args.length < 3) {
+            System.err.println("Usage: BotRunner host port name[:room] ...");
+            System.exit(1);
+        }
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+
+        long start = System.nanoTime();
+        BotResources resources = BotResources.shared();
+        log.info("Shared tables and pools ready in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        List<FullyImplementedBot> bots = new ArrayList<FullyImplementedBot>();
+        for (int i = 2; i < args.length; i++) {
+            String[] nameAndRoom = args[i].split(":");
+            Room room = nameAndRoom.length > 1 ? Room.valueOf(nameAndRoom[1].toUpperCase()) : Room.TRAINING;
+
+            long botStart = System.nanoTime();
+            FullyImplementedBot bot = new FullyImplementedBot(nameAndRoom[0], host, port, resources);
+            try {
+                bot.playInRoom(room);
+                bots.add(bot);
+                log.info("{} joined {} in {} ms", nameAndRoom[0], room,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - botStart));
+            } catch (Exception e) {
+                log.warn("{} could not join {}", nameAndRoom[0], room, e);
+            }
+        }
+
+        if (bots.isEmpty()) {
+            System.exit(1);
+        }
+        log.info("{} bots playing at {}:{}", bots.size(), host, port);
+
+        try {
+            for (FullyImplementedBot bot : bots) {
+                bot.awaitDisconnect();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("All bots lost their connection, exiting");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,74 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.game.Card;
+import se.cygni.texasholdem.game.definitions.Rank;
+import se.cygni.texasholdem.game.definitions.Suit;
+
+import java.util.List;
+
+/**
+ * Encodes cards as an index 0..51 and sets of cards as the bits of a long.
+ * <p/>
+ * The index is suit * 13 + rank, with rank 0 for DEUCE and 12 for ACE, so
+ * the 13 bits of each suit can be shifted out of a mask in one operation.
+ */
+final class CardMask {
+
+    static final int CARDS = 52;
+    static final int RANKS = 13;
+    static final int SUITS = 4;
+    static final int RANK_BITS = (1 << RANKS) - 1;
+    static final long FULL_DECK = (1L << CARDS) - 1;
+
+    private static final Card[] CARDS_BY_INDEX = new Card[CARDS];
+
+    static {
+        for (Suit suit : Suit.values()) {
+            for (Rank rank : Rank.values()) {
+                CARDS_BY_INDEX[suit.ordinal() * RANKS + rank.ordinal()] = new Card(rank, suit);
+            }
+        }
+    }
+
+    private CardMask() {
+    }
+
+    static int index(Card card) {
+        return card.getSuit().ordinal() * RANKS + card.getRank().ordinal();
+    }
+
+    static int index(int rank, int suit) {
+        return suit * RANKS + rank;
+    }
+
+    static int rank(int index) {
+        return index % RANKS;
+    }
+
+    static int suit(int index) {
+        return index / RANKS;
+    }
+
+    static long mask(Card card) {
+        return 1L << index(card);
+    }
+
+    static long mask(List<Card> cards) {
+        long mask = 0L;
+        for (int i = 0; i < cards.size(); i++) {
+            mask |= mask(cards.get(i));
+        }
+        return mask;
+    }
+
+    /**
+     * @return the 13 rank bits of the given suit in the mask
+     */
+    static int suitRanks(long mask, int suit) {
+        return (int) (mask >>> (suit * RANKS)) & RANK_BITS;
+    }
+
+    static Card card(int index) {
+        return CARDS_BY_INDEX[index];
+    }
+}
@@ -0,0 +1,40 @@
+package se.cygni.texasholdem.player;
+
+/**
+ * The 1326 two-card combinations a player can be dealt, as parallel arrays
+ * indexed by combo so that loops over a whole range stay flat primitive
+ * loops.
+ * <p/>
+ * The combo of the card indexes a < b is b * (b - 1) / 2 + a.
+ */
+final class Combos {
+
+    static final int COUNT = CardMask.CARDS * (CardMask.CARDS - 1) / 2;
+
+    /**
+     * CardMask of both cards of each combo
+     */
+    static final long[] MASK = new long[COUNT];
+    static final int[] FIRST = new int[COUNT];
+    static final int[] SECOND = new int[COUNT];
+
+    static {
+        for (int second = 1; second < CardMask.CARDS; second++) {
+            for (int first = 0; first < second; first++) {
+                int combo = index(first, second);
+                MASK[combo] = (1L << first) | (1L << second);
+                FIRST[combo] = first;
+                SECOND[combo] = second;
+            }
+        }
+    }
+
+    private Combos() {
+    }
+
+    static int index(int firstCard, int secondCard) {
+        int low = Math.min(firstCard, secondCard);
+        int high = Math.max(firstCard, secondCard);
+        return high * (high - 1) / 2 + low;
+    }
+}
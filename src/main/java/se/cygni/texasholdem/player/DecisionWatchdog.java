@@ -0,0 +1,168 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.definitions.ActionType;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times every decision per street and makes sure one is always made in time.
+ * <p/>
+ * The strategy runs on a decision thread while the calling thread waits at
+ * most the budget for it. If the strategy has not answered by then, or fails,
+ * the safest action is returned instead: check if possible, otherwise fold.
+ * The strategy is interrupted and its answer ignored when it finally comes.
+ * A runaway strategy only ties up its own thread, the next decision gets a
+ * fresh one.
+ * <p/>
+ * The budget is set with the system property deepthought.decision.budgetMillis,
+ * 0 runs the strategy on the calling thread without any deadline.
+ */
+final class DecisionWatchdog {
+
+    private static Logger log = LoggerFactory
+            .getLogger(DecisionWatchdog.class);
+
+    private static final long DEFAULT_BUDGET_MILLIS = 500;
+
+    private final long budgetNanos;
+    private final ExecutorService executor;
+    private final BotMetrics metrics;
+    private final Map<PlayState, LatencyHistogram> latencyByStreet = new EnumMap<PlayState, LatencyHistogram>(PlayState.class);
+    private final AtomicLong breaches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param executor runs the strategy, may be shared with other bots
+     * @param metrics  counts the fallbacks
+     */
+    DecisionWatchdog(ExecutorService executor, BotMetrics metrics) {
+        this(TimeUnit.MILLISECONDS.toNanos(Long.getLong("deepthought.decision.budgetMillis", DEFAULT_BUDGET_MILLIS)),
+                executor, metrics);
+    }
+
+    DecisionWatchdog(long budgetNanos, ExecutorService executor, BotMetrics metrics) {
+        this.budgetNanos = budgetNanos;
+        this.executor = budgetNanos > 0 ? executor : null;
+        this.metrics = metrics;
+        // Filled once here, only the histograms themselves change afterwards
+        for (PlayState street : PlayState.values()) {
+            latencyByStreet.put(street, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @param street   the street the decision is made on, only used for the latency histograms
+     * @param request  the actions the fallback is chosen from
+     * @param strategy the decision to time and guard
+     * @return the strategy's action, or the fallback if it was too slow, failed or
+     * returned null, never null
+     */
+    Action decide(PlayState street, ActionRequest request, Callable<Action> strategy) {
+        long start = System.nanoTime();
+        Action action = executor == null ? callInline(strategy) : callWithDeadline(strategy, start + budgetNanos);
+        if (action == null) {
+            metrics.onFallback();
+            action = fallback(request);
+        }
+        if (street != null) {
+            latencyByStreet.get(street).record(System.nanoTime() - start);
+        }
+        return action;
+    }
+
+    private Action callInline(Callable<Action> strategy) {
+        try {
+            return strategy.call();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("Decision failed, falling back to check or fold", e);
+            return null;
+        }
+    }
+
+    private Action callWithDeadline(Callable<Action> strategy, long deadlineNanos) {
+        Future<Action> decision = executor.submit(strategy);
+        try {
+            return decision.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            decision.cancel(true);
+            breaches.incrementAndGet();
+            log.warn("Decision took longer than {} ms, falling back to check or fold",
+                    TimeUnit.NANOSECONDS.toMillis(budgetNanos));
+            return null;
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            log.warn("Decision failed, falling back to check or fold", e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            decision.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return check if it is among the possible actions, otherwise fold,
+     * otherwise the first action offered. Never null, a call of nothing if
+     * no action is offered at all.
+     */
+    static Action fallback(ActionRequest request) {
+        Action fold = null;
+        Action first = null;
+        for (Action action : request.getPossibleActions()) {
+            if (action.getActionType() == ActionType.CHECK) {
+                return action;
+            }
+            if (action.getActionType() == ActionType.FOLD) {
+                fold = action;
+            }
+            if (first == null) {
+                first = action;
+            }
+        }
+        if (fold != null) {
+            return fold;
+        }
+        return first != null ? first : new Action(ActionType.CALL, 0);
+    }
+
+    LatencyHistogram getLatency(PlayState street) {
+        return latencyByStreet.get(street);
+    }
+
+    /**
+     * @return the number of decisions replaced by the fallback for running out of time
+     */
+    long getBreaches() {
+        return breaches.get();
+    }
+
+    /**
+     * @return the number of decisions replaced by the fallback for throwing
+     */
+    long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("budget ").append(TimeUnit.NANOSECONDS.toMillis(budgetNanos)).append(" ms, ")
+                .append(breaches.get()).append(" breaches, ")
+                .append(failures.get()).append(" failures");
+        for (Map.Entry<PlayState, LatencyHistogram> entry : latencyByStreet.entrySet()) {
+            if (entry.getValue().count() > 0) {
+                sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+}
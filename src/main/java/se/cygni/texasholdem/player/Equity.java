@@ -0,0 +1,62 @@
+package se.cygni.texasholdem.player;
+
+/**
+ * The share of the pot a hand is expected to win, with a 95% confidence
+ * interval. An exact result has a standard error of zero.
+ */
+final class Equity {
+
+    private static final double Z_95 = 1.96;
+
+    private final double equity;
+    private final double standardError;
+    private final long samples;
+
+    Equity(double equity, double standardError, long samples) {
+        this.equity = equity;
+        this.standardError = standardError;
+        this.samples = samples;
+    }
+
+    /**
+     * @param sum        sum of the pot share won in each sample
+     * @param sumSquares sum of the squared pot shares
+     */
+    static Equity fromSamples(double sum, double sumSquares, long samples) {
+        if (samples == 0) {
+            return new Equity(0, 0.5, 0);
+        }
+        double mean = sum / samples;
+        double variance = Math.max(0, sumSquares / samples - mean * mean);
+        return new Equity(mean, Math.sqrt(variance / samples), samples);
+    }
+
+    /**
+     * @return expected share of the pot, 0.0 - 1.0
+     */
+    double getEquity() {
+        return equity;
+    }
+
+    double getStandardError() {
+        return standardError;
+    }
+
+    long getSamples() {
+        return samples;
+    }
+
+    double getLow() {
+        return Math.max(0, equity - Z_95 * standardError);
+    }
+
+    double getHigh() {
+        return Math.min(1, equity + Z_95 * standardError);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f%% [%.1f%%, %.1f%%] after %d samples",
+                100 * equity, 100 * getLow(), 100 * getHigh(), samples);
+    }
+}
@@ -0,0 +1,110 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Equity per situation, remembered up to a renaming of the suits, see
+ * SuitIsomorphism.
+ * <p/>
+ * Against opponents holding any cards the situation is our cards, the
+ * board and the number of opponents. Against narrowed ranges the key of
+ * the ranges is added, see OpponentRanges.Snapshot.getRangesKey. Ranges
+ * narrowed on the board depend on its exact cards, so those situations
+ * are only shared without renaming the suits.
+ * <p/>
+ * The cache is bounded, evicting the least recently used situations, and
+ * safe to share between the bots of a JVM. Values are only ever put by the
+ * thread that calculated them; two threads missing on the same situation
+ * both calculate it, which keeps the lookup free of any waiting that would
+ * ignore an interrupt from the decision watchdog.
+ * <p/>
+ * The size is set with the system property deepthought.equity.cacheSize,
+ * 0 turns the cache off.
+ */
+final class EquityCache {
+
+    static final int DEFAULT_SIZE = 100000;
+
+    // Longs for opponents holding any cards, RangeKeys for narrowed ranges
+    private final Cache<Object, Equity> cache;
+
+    EquityCache() {
+        this(Integer.getInteger("deepthought.equity.cacheSize", DEFAULT_SIZE));
+    }
+
+    EquityCache(int maximumSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the equity remembered for the situation, or null
+     */
+    Equity get(long myCards, long board, int opponents) {
+        return cache.getIfPresent(SuitIsomorphism.key(myCards, board, opponents));
+    }
+
+    void put(long myCards, long board, int opponents, Equity equity) {
+        cache.put(SuitIsomorphism.key(myCards, board, opponents), equity);
+    }
+
+    /**
+     * @return the equity remembered against these ranges, or null
+     */
+    Equity get(long myCards, long board, OpponentRanges.Snapshot ranges) {
+        return cache.getIfPresent(new RangeKey(myCards, board, ranges));
+    }
+
+    void put(long myCards, long board, OpponentRanges.Snapshot ranges, Equity equity) {
+        cache.put(new RangeKey(myCards, board, ranges), equity);
+    }
+
+    CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "equity cache " + cache.size() + " situations, " + stats.hitCount() + " hits, "
+                + stats.missCount() + " misses, " + stats.evictionCount() + " evictions";
+    }
+
+    private static final class RangeKey {
+
+        // The suit-renamed situation, or our cards and the board as they are
+        private final long situation;
+        private final long board;
+        private final long ranges;
+
+        RangeKey(long myCards, long board, OpponentRanges.Snapshot ranges) {
+            if (ranges.isSuitSymmetric()) {
+                this.situation = SuitIsomorphism.key(myCards, board, ranges.getOpponents());
+                this.board = 0L;
+            } else {
+                this.situation = myCards;
+                this.board = board;
+            }
+            this.ranges = ranges.getRangesKey();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RangeKey)) {
+                return false;
+            }
+            RangeKey other = (RangeKey) o;
+            return situation == other.situation && board == other.board && ranges == other.ranges;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (situation ^ situation >>> 32 ^ board * 31 ^ ranges ^ ranges >>> 32);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.base.Throwables;
+
+import java.util.concurrent.*;
+
+/**
+ * Monte Carlo equity of our hole cards against a number of opponents
+ * holding random cards.
+ * <p/>
+ * Each sample deals the opponents and the rest of the board from the
+ * unseen cards and scores our share of the pot. The samples are split
+ * into chunks that run on a fork-join pool, each worker drawing from its
+ * own ThreadLocalRandom, until either the sample limit is reached or the
+ * wall-clock budget has been used up. Interrupting the calling thread
+ * cancels the remaining chunks.
+ * <p/>
+ * The pool is the one place a JVM calculates equities in: calculations
+ * that do not split into chunks, ExactEquity and RangeEquity, are handed to
+ * it through calculateOnPool, so however many tables ask at once no more
+ * threads than the pool has are busy with equities.
+ * <p/>
+ * The budget is set with the system property deepthought.equity.budgetMillis
+ * and the sample limit with deepthought.equity.maxSamples.
+ */
+final class EquityCalculator {
+
+    private static final long DEFAULT_BUDGET_MILLIS = 100;
+    private static final int DEFAULT_MAX_SAMPLES = 200000;
+
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int SAMPLES_BETWEEN_CLOCK_CHECKS = 64;
+
+    private final ForkJoinPool pool;
+    private final long budgetNanos;
+    private final int maxSamples;
+
+    EquityCalculator(ForkJoinPool pool) {
+        this(pool,
+                TimeUnit.MILLISECONDS.toNanos(Long.getLong("deepthought.equity.budgetMillis", DEFAULT_BUDGET_MILLIS)),
+                Integer.getInteger("deepthought.equity.maxSamples", DEFAULT_MAX_SAMPLES));
+    }
+
+    EquityCalculator(ForkJoinPool pool, long budgetNanos, int maxSamples) {
+        this.pool = pool;
+        this.budgetNanos = budgetNanos;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * @param myCards   CardMask of our two hole cards
+     * @param board     CardMask of the community cards dealt so far
+     * @param opponents number of opponents still in the hand
+     */
+    Equity calculate(long myCards, long board, int opponents) {
+        return calculate(myCards, board, opponents, System.nanoTime() + budgetNanos);
+    }
+
+    /**
+     * @throws CancellationException if the calling thread is interrupted while waiting
+     */
+    Equity calculate(long myCards, long board, int opponents, long deadlineNanos) {
+        int[] deck = unseenCards(myCards | board);
+        int chunks = pool.getParallelism() * CHUNKS_PER_THREAD;
+        Simulation simulation = new Simulation(null, myCards, board, opponents, deck, deadlineNanos,
+                0, chunks, (maxSamples + chunks - 1) / chunks);
+        ForkJoinTask<Tally> task = pool.submit(simulation);
+        try {
+            return task.get().toEquity();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Equity calculation was interrupted");
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Runs a calculation on one thread of the pool and waits for it.
+     * Interrupting the calling thread interrupts the calculation, which
+     * stops at its next check of the interrupt flag.
+     *
+     * @throws CancellationException if the calling thread is interrupted while waiting
+     */
+    Equity calculateOnPool(Callable<Equity> calculation) {
+        PooledCalculation task = new PooledCalculation(calculation);
+        pool.execute(task);
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            task.stop();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Equity calculation was interrupted");
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    static int[] unseenCards(long dead) {
+        int[] deck = new int[CardMask.CARDS - Long.bitCount(dead)];
+        int size = 0;
+        for (int card = 0; card < CardMask.CARDS; card++) {
+            if ((dead & (1L << card)) == 0) {
+                deck[size++] = card;
+            }
+        }
+        return deck;
+    }
+
+    /**
+     * Pot shares won over a number of samples.
+     */
+    static final class Tally {
+        double sum;
+        double sumSquares;
+        long samples;
+
+        void add(double share) {
+            sum += share;
+            sumSquares += share * share;
+            samples++;
+        }
+
+        Tally merge(Tally other) {
+            sum += other.sum;
+            sumSquares += other.sumSquares;
+            samples += other.samples;
+            return this;
+        }
+
+        Equity toEquity() {
+            return Equity.fromSamples(sum, sumSquares, samples);
+        }
+    }
+
+    /**
+     * A calculation on a pool thread that is interrupted when stopped.
+     * Cancelling a ForkJoinTask does not interrupt the worker running it.
+     */
+    private static final class PooledCalculation extends RecursiveTask<Equity> {
+
+        private final Callable<Equity> calculation;
+
+        // Guarded by this
+        private Thread worker;
+        private boolean stopped;
+
+        PooledCalculation(Callable<Equity> calculation) {
+            this.calculation = calculation;
+        }
+
+        @Override
+        protected Equity compute() {
+            synchronized (this) {
+                if (stopped) {
+                    throw new CancellationException("Equity calculation was stopped before it started");
+                }
+                worker = Thread.currentThread();
+            }
+            try {
+                return calculation.call();
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            } finally {
+                synchronized (this) {
+                    worker = null;
+                    // An interrupt meant for this calculation must not reach the next task of the worker
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs the chunks [fromChunk, toChunk), splitting the range in halves
+     * until a single chunk remains.
+     */
+    private static final class Simulation extends RecursiveTask<Tally> {
+
+        // Cancelling the task at the top stops every chunk at its next clock check
+        private final Simulation root;
+        private final long myCards;
+        private final long board;
+        private final int opponents;
+        private final int[] deck;
+        private final long deadlineNanos;
+        private final int fromChunk;
+        private final int toChunk;
+        private final int samplesPerChunk;
+
+        Simulation(Simulation root, long myCards, long board, int opponents, int[] deck, long deadlineNanos,
+                   int fromChunk, int toChunk, int samplesPerChunk) {
+            this.root = root == null ? this : root;
+            this.myCards = myCards;
+            this.board = board;
+            this.opponents = opponents;
+            this.deck = deck;
+            this.deadlineNanos = deadlineNanos;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+            this.samplesPerChunk = samplesPerChunk;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (toChunk - fromChunk > 1) {
+                int middle = (fromChunk + toChunk) >>> 1;
+                Simulation left = new Simulation(root, myCards, board, opponents, deck, deadlineNanos, fromChunk, middle, samplesPerChunk);
+                Simulation right = new Simulation(root, myCards, board, opponents, deck, deadlineNanos, middle, toChunk, samplesPerChunk);
+                left.fork();
+                return right.compute().merge(left.join());
+            }
+            return sample();
+        }
+
+        private Tally sample() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int[] cards = deck.clone();
+            int missingBoard = 5 - Long.bitCount(board);
+            int dealt = missingBoard + 2 * opponents;
+            Tally tally = new Tally();
+
+            while (tally.samples < samplesPerChunk) {
+                if (tally.samples % SAMPLES_BETWEEN_CLOCK_CHECKS == 0
+                        && (System.nanoTime() - deadlineNanos > 0 || root.isCancelled())) {
+                    break;
+                }
+
+                // Partial Fisher-Yates, only the cards we need end up shuffled
+                for (int i = 0; i < dealt; i++) {
+                    int j = i + random.nextInt(cards.length - i);
+                    int card = cards[j];
+                    cards[j] = cards[i];
+                    cards[i] = card;
+                }
+
+                long fullBoard = board;
+                for (int i = 0; i < missingBoard; i++) {
+                    fullBoard |= 1L << cards[i];
+                }
+                tally.add(showdownShare(myCards, fullBoard, cards, missingBoard, opponents));
+            }
+            return tally;
+        }
+    }
+
+    /**
+     * @param holeCards cards where each opponent's two hole cards follow each other from offset
+     * @return our share of the pot at showdown
+     */
+    static double showdownShare(long myCards, long fullBoard, int[] holeCards, int offset, int opponents) {
+        int mine = HandEvaluator.evaluate(myCards | fullBoard);
+        int tied = 1;
+        for (int i = 0; i < opponents; i++) {
+            int first = holeCards[offset + 2 * i];
+            int second = holeCards[offset + 2 * i + 1];
+            int theirs = HandEvaluator.evaluate(fullBoard | (1L << first) | (1L << second));
+            if (theirs > mine) {
+                return 0;
+            }
+            if (theirs == mine) {
+                tied++;
+            }
+        }
+        return 1.0 / tied;
+    }
+}
@@ -0,0 +1,71 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Hands the table events of one bot to the listeners registered for their
+ * type, in the order they were registered.
+ * <p/>
+ * The listeners are kept in an array per EventType, so routing an event is
+ * an array lookup by ordinal and a call per interested listener: an event
+ * type nobody registered for costs nothing but the lookup. The player
+ * callbacks know the type of their event and call dispatch directly, an
+ * event of unknown type is first looked up through EventType.of.
+ * <p/>
+ * Listeners must all be registered before the first event, from the
+ * thread creating the bot. Events must come from a single thread.
+ */
+final class EventRouter {
+
+    private static Logger log = LoggerFactory
+            .getLogger(EventRouter.class);
+
+    /**
+     * Told about the events of the types it was registered for.
+     */
+    interface Listener {
+
+        /**
+         * @param event always of the class of the type
+         */
+        void onEvent(EventType type, TexasEvent event);
+    }
+
+    private static final Listener[] NONE = new Listener[0];
+
+    private final Listener[][] listeners = new Listener[EventType.values().length][];
+
+    EventRouter() {
+        Arrays.fill(listeners, NONE);
+    }
+
+    void register(Set<EventType> interest, Listener listener) {
+        for (EventType type : interest) {
+            Listener[] registered = listeners[type.ordinal()];
+            Listener[] extended = Arrays.copyOf(registered, registered.length + 1);
+            extended[registered.length] = listener;
+            listeners[type.ordinal()] = extended;
+        }
+    }
+
+    void onEvent(TexasEvent event) {
+        EventType type = EventType.of(event);
+        if (type == null) {
+            log.debug("Ignoring unknown event {}", event);
+            return;
+        }
+        dispatch(type, event);
+    }
+
+    void dispatch(EventType type, TexasEvent event) {
+        Listener[] registered = listeners[type.ordinal()];
+        for (int i = 0; i < registered.length; i++) {
+            registered[i].onEvent(type, event);
+        }
+    }
+}
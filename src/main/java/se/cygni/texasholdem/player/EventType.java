@@ -0,0 +1,57 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.communication.message.event.*;
+
+/**
+ * The table events the bot is told about, one constant per event class,
+ * so that listeners can switch on them and EventRouter can keep its
+ * listeners in an array indexed by ordinal.
+ */
+enum EventType {
+
+    PLAY_IS_STARTED(PlayIsStartedEvent.class),
+    TABLE_CHANGED_STATE(TableChangedStateEvent.class),
+    YOU_HAVE_BEEN_DEALT_A_CARD(YouHaveBeenDealtACardEvent.class),
+    COMMUNITY_HAS_BEEN_DEALT_A_CARD(CommunityHasBeenDealtACardEvent.class),
+    PLAYER_BET_SMALL_BLIND(PlayerBetSmallBlindEvent.class),
+    PLAYER_BET_BIG_BLIND(PlayerBetBigBlindEvent.class),
+    PLAYER_FOLDED(PlayerFoldedEvent.class),
+    PLAYER_FORCED_FOLDED(PlayerForcedFoldedEvent.class),
+    PLAYER_CALLED(PlayerCalledEvent.class),
+    PLAYER_RAISED(PlayerRaisedEvent.class),
+    PLAYER_WENT_ALL_IN(PlayerWentAllInEvent.class),
+    PLAYER_CHECKED(PlayerCheckedEvent.class),
+    PLAYER_QUIT(PlayerQuitEvent.class),
+    YOU_WON_AMOUNT(YouWonAmountEvent.class),
+    SHOW_DOWN(ShowDownEvent.class),
+    TABLE_IS_DONE(TableIsDoneEvent.class),
+    SERVER_IS_SHUTTING_DOWN(ServerIsShuttingDownEvent.class);
+
+    /**
+     * Worked out once per event class, later lookups are a field read
+     */
+    private static final ClassValue<EventType> TYPES = new ClassValue<EventType>() {
+        @Override
+        protected EventType computeValue(Class<?> type) {
+            for (EventType eventType : values()) {
+                if (eventType.eventClass.isAssignableFrom(type)) {
+                    return eventType;
+                }
+            }
+            return null;
+        }
+    };
+
+    private final Class<? extends TexasEvent> eventClass;
+
+    EventType(Class<? extends TexasEvent> eventClass) {
+        this.eventClass = eventClass;
+    }
+
+    /**
+     * @return the type of the event, null for events the bot does not know of
+     */
+    static EventType of(TexasEvent event) {
+        return TYPES.get(event.getClass());
+    }
+}
@@ -0,0 +1,181 @@
+package se.cygni.texasholdem.player;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Exact equity by enumerating every remaining board and every way of
+ * dealing the opponents' hole cards from the unseen cards.
+ * <p/>
+ * Only worth it when few cards are unknown, e.g. heads-up on the river
+ * there are C(45,2) = 990 opponent holdings. The board is evaluated once
+ * per completion: our hand value and the rank sets of each suit are kept
+ * and every opponent holding only adds its two cards to those rank sets.
+ * Enumeration is depth-first with one small frame per opponent, so
+ * memory does not grow with the number of combinations. Interrupting the
+ * calling thread stops it at the next board.
+ * <p/>
+ * The combination limit is set with the system property
+ * deepthought.equity.exactLimit.
+ */
+final class ExactEquity {
+
+    private static final long DEFAULT_LIMIT = 1000000;
+
+    private final long combinationLimit;
+
+    ExactEquity() {
+        this(Long.getLong("deepthought.equity.exactLimit", DEFAULT_LIMIT));
+    }
+
+    ExactEquity(long combinationLimit) {
+        this.combinationLimit = combinationLimit;
+    }
+
+    /**
+     * @return true if the situation has few enough combinations to enumerate
+     */
+    boolean isFeasible(long myCards, long board, int opponents) {
+        return combinations(CardMask.CARDS - Long.bitCount(myCards | board), 5 - Long.bitCount(board), opponents) <= combinationLimit;
+    }
+
+    /**
+     * @return the number of showdowns to enumerate, Long.MAX_VALUE on overflow
+     */
+    static long combinations(int unseen, int missingBoard, int opponents) {
+        return multiply(choose(unseen, missingBoard), holdings(unseen - missingBoard, opponents));
+    }
+
+    /**
+     * @param myCards   CardMask of our two hole cards
+     * @param board     CardMask of the community cards dealt so far
+     * @param opponents number of opponents still in the hand
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    Equity calculate(long myCards, long board, int opponents) {
+        int[] deck = EquityCalculator.unseenCards(myCards | board);
+        Enumeration enumeration = new Enumeration(myCards, deck, opponents);
+        enumeration.completeBoard(board, 5 - Long.bitCount(board), 0);
+        return new Equity(enumeration.shares / enumeration.showdowns, 0, enumeration.showdowns);
+    }
+
+    private static final class Enumeration {
+
+        private final long myCards;
+        private final int[] deck;
+        private final long deckMask;
+        private final int opponents;
+        private final int[] suitRanks = new int[CardMask.SUITS];
+
+        private int myValue;
+        private double shares;
+        private long showdowns;
+
+        Enumeration(long myCards, int[] deck, int opponents) {
+            this.myCards = myCards;
+            this.deck = deck;
+            this.opponents = opponents;
+            long mask = 0L;
+            for (int card : deck) {
+                mask |= 1L << card;
+            }
+            this.deckMask = mask;
+        }
+
+        void completeBoard(long board, int missing, int from) {
+            if (missing == 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Equity enumeration was interrupted");
+                }
+                myValue = HandEvaluator.evaluate(myCards | board);
+                for (int suit = 0; suit < CardMask.SUITS; suit++) {
+                    suitRanks[suit] = CardMask.suitRanks(board, suit);
+                }
+                dealOpponent(board, 0, 1);
+                return;
+            }
+            for (int i = from; i < deck.length; i++) {
+                long card = 1L << deck[i];
+                if ((board & card) == 0) {
+                    completeBoard(board | card, missing - 1, i + 1);
+                }
+            }
+        }
+
+        /**
+         * @param used  board plus the hole cards dealt to earlier opponents
+         * @param tied  players, us included, with a hand equal to ours so far
+         */
+        private void dealOpponent(long used, int opponent, int tied) {
+            if (opponent == opponents) {
+                shares += 1.0 / tied;
+                showdowns++;
+                return;
+            }
+            int free = deck.length - Long.bitCount(used & deckMask);
+            long remaining = holdings(free - 2, opponents - opponent - 1);
+
+            for (int i = 0; i < deck.length; i++) {
+                int first = deck[i];
+                if ((used & (1L << first)) != 0) {
+                    continue;
+                }
+                for (int j = i + 1; j < deck.length; j++) {
+                    int second = deck[j];
+                    if ((used & (1L << second)) != 0) {
+                        continue;
+                    }
+                    int theirs = evaluateWith(first, second);
+                    if (theirs > myValue) {
+                        // We lose every showdown below this holding, just count them
+                        showdowns += remaining;
+                    } else {
+                        dealOpponent(used | (1L << first) | (1L << second), opponent + 1,
+                                theirs == myValue ? tied + 1 : tied);
+                    }
+                }
+            }
+        }
+
+        private int evaluateWith(int first, int second) {
+            int[] ranks = suitRanks;
+            int firstSuit = CardMask.suit(first);
+            int secondSuit = CardMask.suit(second);
+            int firstBit = 1 << CardMask.rank(first);
+            int secondBit = 1 << CardMask.rank(second);
+            int suit0 = ranks[0] | (firstSuit == 0 ? firstBit : 0) | (secondSuit == 0 ? secondBit : 0);
+            int suit1 = ranks[1] | (firstSuit == 1 ? firstBit : 0) | (secondSuit == 1 ? secondBit : 0);
+            int suit2 = ranks[2] | (firstSuit == 2 ? firstBit : 0) | (secondSuit == 2 ? secondBit : 0);
+            int suit3 = ranks[3] | (firstSuit == 3 ? firstBit : 0) | (secondSuit == 3 ? secondBit : 0);
+            return HandEvaluator.evaluate(suit0, suit1, suit2, suit3, 7);
+        }
+    }
+
+    /**
+     * @return ordered ways to deal two hole cards to each opponent from the cards
+     */
+    private static long holdings(int cards, int opponents) {
+        long holdings = 1;
+        for (int i = 0; i < opponents; i++) {
+            holdings = multiply(holdings, choose(cards - 2 * i, 2));
+        }
+        return holdings;
+    }
+
+    private static long multiply(long a, long b) {
+        if (a != 0 && b > Long.MAX_VALUE / a) {
+            return Long.MAX_VALUE;
+        }
+        return a * b;
+    }
+
+    private static long choose(int n, int k) {
+        if (k < 0 || n < k) {
+            return 0;
+        }
+        long result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+}
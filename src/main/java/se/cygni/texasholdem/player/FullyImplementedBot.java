@@ -2,20 +2,18 @@ package se.cygni.texasholdem.player;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import se.cygni.texasholdem.client.ClientEventDispatcher;
-import se.cygni.texasholdem.client.CurrentPlayState;
 import se.cygni.texasholdem.client.PlayerClient;
 import se.cygni.texasholdem.communication.message.event.*;
 import se.cygni.texasholdem.communication.message.request.ActionRequest;
 import se.cygni.texasholdem.game.*;
 import se.cygni.texasholdem.game.definitions.PlayState;
-import se.cygni.texasholdem.game.definitions.PokerHand;
-import se.cygni.texasholdem.game.definitions.Rank;
-import se.cygni.texasholdem.game.util.PokerHandUtil;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * This is an example Poker bot player, you can use it as
@@ -38,16 +36,29 @@ public class FullyImplementedBot implements Player {
     private static Logger log = LoggerFactory
             .getLogger(FullyImplementedBot.class);
 
+    static final String DEFAULT_NAME = "Deep_Thought";
+
+    private final String name;
     private final String serverHost;
     private final int serverPort;
     private final PlayerClient playerClient;
-    private final HashMap[] startingHandsProp; //The number in the array symbolise the number of players around the table
-    private final int NUMBER_OF_PLAYERS_IN_STATISTICS = 11; //Statistics only holds for tables between 2-10 players so slot 0,1 is overhead.
-    private int raised;
-
-    ClientEventDispatcher eventDispatcher = new ClientEventDispatcher(this);
-    ClientEventDispatcher currentPlayStateDispatcher;
-    CurrentPlayState currentPlayState;
+    private final PreflopTable startingHandsProp; //Statistics only holds for tables between 2-10 players
+    private final PushFoldTable pushFold;
+    private final StrategySource strategy;
+    private final SpeculativeHandStrength handStrength;
+    private final OpponentStats opponentStats;
+    private final OpponentRanges opponentRanges;
+    private final HandHistoryRecorder handHistory; //null when not recording
+    private final DecisionWatchdog decisionWatchdog;
+    private final BotMetrics metrics;
+    private final IcmCalculator icm = new IcmCalculator();
+    private volatile Room room = Room.TRAINING;
+    private long handStartChips = -1; //Our chips when the hand in progress started, -1 between tables
+    private long handBigBlind;
+    private final TableState tableState; //Updated by the event thread, read by decisions as snapshots
+    private final CountDownLatch disconnected = new CountDownLatch(1);
+
+    private final EventRouter events;
 
     /**
      * Default constructor for a Java Poker Bot.
@@ -56,56 +67,134 @@ public class FullyImplementedBot implements Player {
      * @param serverPort port at which the poker server listens
      */
     public FullyImplementedBot(String serverHost, int serverPort) {
+        this(DEFAULT_NAME, serverHost, serverPort, BotResources.shared(), BotResources.shared().getStrategySource(), true);
+    }
+
+    /**
+     * A bot that is one of several in the same JVM, see BotRunner.
+     *
+     * @param name       the unique name of this bot
+     * @param serverHost IP or hostname to the poker server
+     * @param serverPort port at which the poker server listens
+     * @param resources  the tables and thread pools shared with the other bots
+     */
+    FullyImplementedBot(String name, String serverHost, int serverPort, BotResources resources) {
+        this(name, serverHost, serverPort, resources, resources.getStrategySource(), true);
+    }
+
+    /**
+     * A bot without any connection to a poker server. It only learns about
+     * the game through dispatchEvent, which makes it possible to drive it
+     * from benchmarks and offline tools.
+     */
+    FullyImplementedBot() {
+        this(DEFAULT_NAME, null, 0, BotResources.shared(), BotResources.shared().getStrategySource(), false);
+    }
+
+    /**
+     * An offline bot playing a strategy of its own, see StrategyTuner.
+     *
+     * @param name     unique at its table
+     * @param strategy the thresholds to play instead of those in the resources
+     */
+    FullyImplementedBot(String name, BotResources resources, StrategySource strategy) {
+        this(name, null, 0, resources, strategy, false);
+    }
+
+    private FullyImplementedBot(String name, String serverHost, int serverPort, BotResources resources,
+                                StrategySource strategy, boolean connected) {
+        this.name = name;
         this.serverHost = serverHost;
         this.serverPort = serverPort;
-        raised = 0;
-        currentPlayState = new CurrentPlayState(getName());
-        currentPlayStateDispatcher = new ClientEventDispatcher(currentPlayState.getPlayerImpl());
-
-        //Load in starting hand statistics
-        startingHandsProp = new HashMap[NUMBER_OF_PLAYERS_IN_STATISTICS];
-        try {
-            for (int i = 2; i < NUMBER_OF_PLAYERS_IN_STATISTICS; i++) {
-                startingHandsProp[i] = new HashMap<String, Double>();
-                Scanner scanner = new Scanner(new FileInputStream("src" + File.separator + "main" + File.separator + "resources" + File.separator + i + "players.stat"));
-                while (scanner.hasNextLine()) {
-                    String input = scanner.nextLine();
-                    String[] keyValue = input.split("\\s");
-                    startingHandsProp[i].put(keyValue[0], Float.valueOf(keyValue[1]));
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        tableState = new TableState(name);
+
+        //Starting hand statistics and equity pools are loaded once per JVM
+        startingHandsProp = resources.getPreflopTable();
+        pushFold = resources.getPushFoldTable();
+        this.strategy = strategy;
+        handStrength = new SpeculativeHandStrength(resources.getEquityCalculator(), resources.getExactEquity(),
+                resources.getRangeEquity(), resources.getEquityCache(), resources.getSpeculationExecutor());
+        //Offline play keeps its own metrics, out of sight of JMX
+        metrics = connected ? resources.getMetrics() : new BotMetrics();
+        decisionWatchdog = new DecisionWatchdog(resources.getDecisionExecutor(), metrics);
+
+        //What we know about the other players from earlier sessions, offline play is not remembered
+        opponentStats = connected
+                ? OpponentStats.open(fileOf("deepthought.opponents.file", OpponentStats.DEFAULT_FILE))
+                : OpponentStats.inMemory();
+        opponentRanges = new OpponentRanges(getName(), startingHandsProp, opponentStats);
+
+        //Everything we are told and answer, for HandHistoryReplayer. An empty file name turns it off
+        String historyFile = System.getProperty("deepthought.history.file", "hand-history.bin");
+        handHistory = connected && historyFile.length() > 0
+                ? HandHistoryRecorder.open(fileOf("deepthought.history.file", historyFile), name)
+                : null;
+        events = routeEvents();
 
         // Initialize the player client
-        playerClient = new PlayerClient(this, serverHost, serverPort);
+        playerClient = connected ? new PlayerClient(this, serverHost, serverPort) : null;
     }
 
-    public CurrentPlayState getCurrentPlayState() {
-        return currentPlayState;
+    /**
+     * Bots other than the default one prefix the file name with their own
+     * name, so bots sharing a JVM do not share files.
+     */
+    private File fileOf(String property, String defaultName) {
+        File file = new File(System.getProperty(property, defaultName));
+        return DEFAULT_NAME.equals(name) ? file : new File(file.getParentFile(), name + "-" + file.getName());
     }
 
+    /**
+     * Hands an event to the listeners for its type, as the player client
+     * does through the event callbacks.
+     */
     public void dispatchEvent(TexasEvent event) {
-        currentPlayStateDispatcher.onEvent(event);
-        eventDispatcher.onEvent(event);
+        events.onEvent(event);
     }
 
     public void playATrainingGame() throws Exception {
+        playInRoom(Room.TRAINING);
+    }
+
+    /**
+     * Warms the JIT compiler up before registering, so the first real
+     * decisions do not run in the interpreter.
+     */
+    public void playInRoom(Room room) throws Exception {
+        setRoom(room);
+        WarmUp.runOnce();
         playerClient.connect();
-        playerClient.registerForPlay(Room.TRAINING);
+        playerClient.registerForPlay(room);
+        log.info("{} registered for play in {} ms after the JVM started", getName(),
+                ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    /**
+     * Sets the room the decisions are made for and records it in the hand
+     * history. Offline bots, such as the one HandHistoryReplayer builds, are
+     * set without registering.
+     */
+    void setRoom(Room room) {
+        this.room = room;
+        if (handHistory != null) {
+            handHistory.record(room);
+        }
     }
 
     /**
      * The main method to start your bot.
      *
-     * @param args
+     * @param args optional host and port, e.g. localhost 4711 for a LocalPokerServer
      */
     public static void main(String... args) {
-        FullyImplementedBot bot = new FullyImplementedBot("poker.cygni.se", 4711); //poker.cygni.se
+        String host = args.length > 0 ? args[0] : "poker.cygni.se";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 4711;
+        FullyImplementedBot bot = new FullyImplementedBot(host, port); //poker.cygni.se
 
         try {
             bot.playATrainingGame();
+            bot.awaitDisconnect();
+            System.exit(0);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -121,7 +210,7 @@ public class FullyImplementedBot implements Player {
      */
     @Override
     public String getName() {
-        return "Deep_Thought";
+        return name;
     }
 
     /**
@@ -146,25 +235,56 @@ public class FullyImplementedBot implements Player {
      * @see Action
      */
     @Override
-    public Action actionRequired(ActionRequest request) {
+    public Action actionRequired(final ActionRequest request) {
+        long start = System.nanoTime();
+        if (handHistory != null) {
+            handHistory.record(request);
+        }
 
-        Action response = getBestAction(request);
-        log.info("I'm going to {} {}",
-                response.getActionType(),
-                response.getAmount() > 0 ? "with " + response.getAmount() : "");
+        PlayState street = tableState.get().getStreet();
+        Action response = decide(request);
+        metrics.onDecision(street, response.getActionType(), System.nanoTime() - start);
+        if (log.isInfoEnabled()) {
+            log.info("I'm going to {} with {}", response.getActionType(), response.getAmount());
+        }
+        if (handHistory != null) {
+            handHistory.record(response, System.nanoTime() - start);
+        }
 
         return response;
     }
 
+    /**
+     * The decision of actionRequired without logging or recording it, also
+     * used to warm the JIT compiler up, see WarmUp.
+     *
+     * @return never null, the watchdog falls back to an action offered
+     */
+    Action decide(final ActionRequest request) {
+        // The whole decision reads the table and the ranges as they were when asked,
+        // a decision abandoned by the watchdog never touches what the event thread changes
+        final TableState.Snapshot playState = tableState.get();
+        final OpponentRanges.Snapshot ranges = opponentRanges.snapshot(getNumberOfOpponents(playState));
+        // Answers with DecisionWatchdog.fallback instead if the decision fails or is about to be too late
+        return decisionWatchdog.decide(playState.getStreet(), request, new Callable<Action>() {
+            @Override
+            public Action call() {
+                return getBestAction(request, playState, ranges);
+            }
+        });
+    }
+
     /**
      * A helper method that returns this bots idea of the best action.
      * Note! This is just an example, you need to add your own smartness
      * to win.
      *
      * @param request
+     * @param playState the table when the action was requested
+     * @param ranges what the opponents may hold when the action was requested
      * @return
      */
-    private Action getBestAction(ActionRequest request) {
+    private Action getBestAction(ActionRequest request, TableState.Snapshot playState, OpponentRanges.Snapshot ranges) {
 
 
         Action callAction = null;
@@ -194,60 +314,51 @@ public class FullyImplementedBot implements Player {
             }
         }
 
-        // The current play state is accessible through this class. It
-        // keeps track of basic events and other players.
-        CurrentPlayState playState = playerClient.getCurrentPlayState();
-
-        // The current BigBlind
-        long currentBB = playState.getBigBlind();
-
-        // PokerHandUtil is a hand classifier that returns the best hand given
-        // the current community cards and your cards.
-        PokerHandUtil pokerHandUtil = new PokerHandUtil(playState.getCommunityCards(), playState.getMyCards());
-        Hand myBestHand = pokerHandUtil.getBestHand();
-        PokerHand myBestPokerHand = myBestHand.getPokerHand();
-
-        log.error(playState.getCurrentPlayState().toString());
-        if (playState.getCurrentPlayState() == PlayState.PRE_FLOP) {
+        log.debug("Deciding on {}", playState.getStreet());
+        if (playState.getStreet() == PlayState.PRE_FLOP) {
             return evaluatePreFlop(playState, callAction, checkAction, raiseAction, foldAction, allInAction);
         }
 
-        if (playState.getCurrentPlayState() == PlayState.FLOP) {
-            return evaluateFlop(playState, callAction, checkAction, raiseAction, foldAction, allInAction, myBestPokerHand);
+        if (playState.getStreet() == PlayState.FLOP) {
+            return evaluateFlop(playState, ranges, callAction, checkAction, raiseAction, foldAction, allInAction);
         }
 
-        if (playState.getCurrentPlayState() == PlayState.TURN) {
-            return evaluateTurn(playState, callAction, checkAction, raiseAction, foldAction, allInAction, myBestPokerHand);
+        if (playState.getStreet() == PlayState.TURN) {
+            return evaluateTurn(playState, ranges, callAction, checkAction, raiseAction, foldAction, allInAction);
         }
 
-        if (playState.getCurrentPlayState() == PlayState.RIVER) {
-            return evaluateRiver(playState, callAction, checkAction, raiseAction, foldAction, allInAction, myBestPokerHand);
+        if (playState.getStreet() == PlayState.RIVER) {
+            return evaluateRiver(playState, ranges, callAction, checkAction, raiseAction, foldAction, allInAction);
         }
 
         // failsafe
         return foldAction;
     }
 
-    public Action evaluatePreFlop(CurrentPlayState playState, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction) {
-        List<Card> cardsList = playState.getMyCards();
-        String hand = Translator.translateFromShortString(cardsList);
+    private Action evaluatePreFlop(TableState.Snapshot playState, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction) {
+        long myCards = playState.getMyCards();
+        int first = Long.numberOfTrailingZeros(myCards);
+        int second = 63 - Long.numberOfLeadingZeros(myCards);
+        int hand = PreflopTable.handClass(CardMask.rank(first), CardMask.rank(second),
+                CardMask.suit(first) == CardMask.suit(second));
 
+        Action shortStacked = pushOrFold(playState, hand, callAction, foldAction, allInAction);
+        if (shortStacked != null) {
+            return shortStacked;
+        }
 
+        // The thresholds of strategy.properties, looked up for this table size, position and hand
+        Strategy current = strategy.get();
         int potentialPlayers = playState.getNumberOfPlayers(); // - playState.getNumberOfFoldedPlayers();
-        Float winProb = (Float) startingHandsProp[potentialPlayers].get(hand);
-        //Better position if we are dealer
-        if (playState.getDealerPlayer().equals(this)) {
-            winProb += 5;
-        }
+        int cell = Strategy.preflopCell(potentialPlayers, playState.amIDealer(), hand);
 
         //If we have a good hand -> raise
-        if (winProb > 60 && raiseAction != null) {
-            raised = 0;
+        if (current.isPreflopRaise(cell) && raiseAction != null) {
             return raiseAction;
         }
 
-        if (getMyCardsTopTenRank(playState) > 0) {
-            log.error("do i ever get here?");
+        if (current.isPremium(cell)) {
+            log.debug("Premium starting hand");
             if(raiseAction != null ){
                 return raiseAction;
             }
@@ -257,82 +368,117 @@ public class FullyImplementedBot implements Player {
         }
         //Check if possible
         if (checkAction != null) {
-            raised = 0;
             return checkAction;
         }
 
-        if (winProb > 15 && callAction != null && (getCallAmount(callAction)<=100)) {
-            return callAction;
+        //In a tournament losing chips hurts more than winning them helps
+        float winProb = startingHandsProp.winProbability(potentialPlayers, hand);
+        if (room == Room.TOURNAMENT && callAction != null && winProb / 100 < getIcmRequiredEquity(playState, callAction)) {
+            return foldAction;
         }
 
-        if (winProb > 22 && callAction != null && (getCallAmount(callAction)<=300)) {
-            return callAction;
-        }
-        if (winProb > 30 && callAction != null && (getCallAmount(callAction)<=1000)) {
+        if (callAction != null && getCallAmount(callAction) <= current.getPreflopMaxCall(cell)) {
             return callAction;
         }
 
 
         //failsafe
-        raised = 0;
-        log.error("folding with " + winProb + "%");
+        if (log.isDebugEnabled()) {
+            log.debug("Folding with {}% win probability", winProb);
+        }
         return foldAction;
     }
 
-    private Action evaluateFlop(CurrentPlayState playState, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction, PokerHand myBestPokerHand) {
-        if (raiseAction != null && (
-                (myBestPokerHand.getOrderValue() >= 3) ||
-                        (getMyCardsTopTenRank(playState) > 5))) {
-            return raiseAction;
+    /**
+     * Heads-up with short stacks the small blind either goes all in or folds
+     * and the big blind calls or folds, mixed as solved by PushFoldSolver.
+     *
+     * @return the push/fold action, or null if the hand is not played as push/fold
+     */
+    private Action pushOrFold(TableState.Snapshot playState, int hand, Action callAction, Action foldAction, Action allInAction) {
+        if (playState.getNumberOfPlayers() != 2 || foldAction == null) {
+            return null;
         }
-
-        // Otherwise, be more careful CHECK if possible.
-        if (checkAction != null) {
-            raised = 0;
-            return checkAction;
+        int me = playState.getMySeat();
+        if (me < 0) {
+            return null;
         }
-
-        // Only call if ONE_PAIR or better
-        if (isHandBetterThan(myBestPokerHand, PokerHand.ONE_PAIR) && callAction != null) {
-            raised = 0;
-            return callAction;
+        int opponent = 1 - me;
+        double stack = (double) Math.min(playState.getChips(me), playState.getChips(opponent))
+                / playState.getBigBlind();
+        if (!PushFoldTable.isShortStacked(stack)) {
+            return null;
         }
 
-        // Do I have something better than TWO_PAIR and can RAISE?
-        if (isHandBetterThan(myBestPokerHand, PokerHand.TWO_PAIRS) && raiseAction != null) {
-            raised = 0;
-            return raiseAction;
+        long blinds = playState.getSmallBlind() + playState.getBigBlind();
+        double random = ThreadLocalRandom.current().nextDouble();
+        if (playState.amISmallBlind() && playState.getPotTotal() == blinds && allInAction != null) {
+            return random < pushFold.allInProbability(stack, hand) ? allInAction : foldAction;
         }
-
-        // I'm small blind and we're in PRE_FLOP, might just as well call
-        if (playState.amISmallBlindPlayer() &&
-                playState.getCurrentPlayState() == PlayState.PRE_FLOP &&
-                callAction != null) {
-            raised = 0;
-            return callAction;
+        if (playState.amIBigBlind() && playState.getMyInvestment() == playState.getBigBlind()
+                && playState.hasGoneAllIn(opponent)) {
+            Action call = callAction != null ? callAction : allInAction;
+            return random < pushFold.callProbability(stack, hand) && call != null ? call : foldAction;
         }
+        return null;
+    }
 
-        // failsafe
-        return foldAction;
+    private Action evaluateFlop(TableState.Snapshot playState, OpponentRanges.Snapshot ranges, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction) {
+        return evaluateTurn(playState, ranges, callAction, checkAction, raiseAction, foldAction, allInAction);
     }
 
-    private Action evaluateTurn(CurrentPlayState playState, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction, PokerHand myBestPokerHand) {
-        return evaluateFlop(playState,callAction,checkAction,raiseAction,foldAction,allInAction,myBestPokerHand);
+    private Action evaluateTurn(TableState.Snapshot playState, OpponentRanges.Snapshot ranges, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction) {
+        // What the opponents still in the hand may hold after their calls and raises
+        int opponents = ranges.getOpponents();
+
+        // Usually already calculated in the background when the last card was dealt
+        HandStrength strength = handStrength.get(
+                playState.getMyCards(), playState.getBoard(), ranges);
+
+        return evaluateEquity(playState, strength, opponents, callAction, checkAction, raiseAction, foldAction);
     }
 
-    private Action evaluateRiver(CurrentPlayState playState, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction, PokerHand myBestPokerHand) {
-        return evaluateFlop(playState,callAction,checkAction,raiseAction,foldAction,allInAction,myBestPokerHand);
+    private Action evaluateRiver(TableState.Snapshot playState, OpponentRanges.Snapshot ranges, Action callAction, Action checkAction, Action raiseAction, Action foldAction, Action allInAction) {
+        return evaluateTurn(playState, ranges, callAction, checkAction, raiseAction, foldAction, allInAction);
     }
 
     /**
-     * Compares two pokerhands.
-     *
-     * @param myPokerHand
-     * @param otherPokerHand
-     * @return TRUE if myPokerHand is valued higher than otherPokerHand
+     * Weighs our equity against the share of the field we would win by
+     * chance and against the pot odds of calling.
      */
-    private boolean isHandBetterThan(PokerHand myPokerHand, PokerHand otherPokerHand) {
-        return myPokerHand.getOrderValue() > otherPokerHand.getOrderValue();
+    private Action evaluateEquity(TableState.Snapshot playState, HandStrength strength, int opponents, Action callAction, Action checkAction, Action raiseAction, Action foldAction) {
+        if (log.isDebugEnabled()) {
+            log.debug("{} against {} opponents, {}", strength, opponents, playState.getDraws());
+        }
+        Strategy current = strategy.get();
+        PlayState street = playState.getStreet();
+        Equity equity = strength.getEquity();
+        double fairShare = 1.0 / (opponents + 1);
+
+        // Clearly ahead of the field -> raise
+        if (raiseAction != null && equity.getLow() > Math.min(current.getMaxRaiseEquity(street),
+                current.getRaiseFairShareMultiple(street) * fairShare)) {
+            return raiseAction;
+        }
+
+        // Otherwise, be more careful CHECK if possible.
+        if (checkAction != null) {
+            return checkAction;
+        }
+
+        // Only call if we win more often than the pot odds demand, a little less with a strong draw
+        if (callAction != null) {
+            double potOdds = getPotOdds(playState, callAction);
+            if (playState.getDraws().hasStrongDraw()) {
+                potOdds *= current.getDrawPotOdds(street);
+            }
+            if (equity.getEquity() >= potOdds) {
+                return callAction;
+            }
+        }
+
+        // failsafe
+        return foldAction;
     }
 
     /**
@@ -344,76 +490,89 @@ public class FullyImplementedBot implements Player {
     }
 
     /**
-     * @param raiseAction
-     * @return the amount that will be raised
+     * @param callAction
+     * @return the share of the pot after calling that the call costs
      */
-    private long getRaiseAmount(Action raiseAction) {
-        return raiseAction == null ? -1 : raiseAction.getAmount();
+    private double getPotOdds(TableState.Snapshot playState, Action callAction) {
+        long callAmount = getCallAmount(callAction);
+        return (double) callAmount / (playState.getPotTotal() + callAmount);
     }
 
-    private int getMyCardsTopTenRank(CurrentPlayState currentPlayState) {
-
-        // 10: A - A
-        if (doMyCardsContain(Rank.ACE, Rank.ACE, currentPlayState)) {
-            return 10;
-        }
-
-        //  9: K - K
-        if (doMyCardsContain(Rank.KING, Rank.KING, currentPlayState)) {
-            return 9;
+    /**
+     * Compares our tournament equity after folding, winning and losing the
+     * call against the player who has put the most into the pot.
+     *
+     * @return the share of showdowns the call must win to not lose tournament equity
+     */
+    private double getIcmRequiredEquity(TableState.Snapshot playState, Action callAction) {
+        int me = playState.getMySeat();
+        int aggressor = -1;
+        long largestInvestment = -1;
+        for (int seat = 0; seat < playState.getNumberOfPlayers(); seat++) {
+            long investment = playState.getInvestment(seat);
+            if (seat != me && investment > largestInvestment) {
+                aggressor = seat;
+                largestInvestment = investment;
+            }
         }
-
-        //  8: Q - Q
-        if (doMyCardsContain(Rank.QUEEN, Rank.QUEEN, currentPlayState)) {
-            return 8;
+        if (me < 0 || aggressor < 0) {
+            return 0;
         }
 
-        //  7: A - K
-        if (doMyCardsContain(Rank.ACE, Rank.KING,currentPlayState)) {
-            return 7;
-        }
+        long[] stacks = IcmCalculator.stacks(playState);
+        long call = Math.min(getCallAmount(callAction), stacks[me]);
+        long pot = playState.getPotTotal();
 
-        //  6: J - J
-        if (doMyCardsContain(Rank.JACK, Rank.JACK, currentPlayState)) {
-            return 6;
-        }
+        long[] folded = stacks.clone();
+        folded[aggressor] += pot;
+        long[] won = stacks.clone();
+        won[me] += pot;
+        long[] lost = stacks.clone();
+        lost[me] -= call;
+        lost[aggressor] += pot + call;
 
-        //  5: 10 - 10
-        if (doMyCardsContain(Rank.TEN, Rank.TEN, currentPlayState)) {
-            return 5;
-        }
+        double foldEquity = icm.equity(folded, me);
+        double winEquity = icm.equity(won, me);
+        double loseEquity = icm.equity(lost, me);
+        return winEquity > loseEquity ? (foldEquity - loseEquity) / (winEquity - loseEquity) : 1;
+    }
 
-        //  4: 9 - 9
-        if (doMyCardsContain(Rank.NINE, Rank.NINE, currentPlayState)) {
-            return 4;
-        }
+    /**
+     * @return the number of players still in the hand except me
+     */
+    private int getNumberOfOpponents(TableState.Snapshot playState) {
+        return Math.max(1, playState.getNumberOfPlayers() - playState.getNumberOfFoldedPlayers() - 1);
+    }
 
-        //  3: 8 - 8
-        if (doMyCardsContain(Rank.EIGHT, Rank.EIGHT, currentPlayState)) {
-            return 3;
-        }
+    /**
+     * Starts calculating the hand strength for the cards dealt so far.
+     */
+    private void speculate() {
+        TableState.Snapshot state = tableState.get();
+        handStrength.speculate(state.getMyCards(), state.getBoard(), opponentRanges.snapshot(getNumberOfOpponents(state)));
+    }
 
-        //  2: A - Q
-        if (doMyCardsContain(Rank.ACE, Rank.QUEEN, currentPlayState)) {
-            return 2;
+    /**
+     * Counts the chips won or lost in the hand in progress, if there is one.
+     */
+    private void endHand(long myChips) {
+        if (handStartChips >= 0) {
+            metrics.onHandPlayed(myChips - handStartChips, handBigBlind);
         }
+    }
 
-        //  1: 7 - 7
-        if (doMyCardsContain(Rank.SEVEN, Rank.SEVEN, currentPlayState)) {
-            return 1;
+    /**
+     * @return our chips among the players, 0 if we are not one of them
+     */
+    private long myChipsIn(List<GamePlayer> players) {
+        for (GamePlayer player : players) {
+            if (getName().equals(player.getName())) {
+                return player.getChipCount();
+            }
         }
-
         return 0;
     }
 
-    private boolean doMyCardsContain(Rank rank1, Rank rank2, CurrentPlayState currentPlayState) {
-        Card c1 = currentPlayState.getMyCards().get(0);
-        Card c2 = currentPlayState.getMyCards().get(1);
-
-        return (c1.getRank() == rank1 && c2.getRank() == rank2) ||
-                (c1.getRank() == rank2 && c2.getRank() == rank1);
-    }
-
     /**
      * **********************************************************************
      * <p/>
@@ -423,137 +582,127 @@ public class FullyImplementedBot implements Player {
      * The methods must be implemented but it is not mandatory to act on the
      * information provided.
      * <p/>
-     * The helper class CurrentPlayState provides most of the book keeping
-     * needed to keep track of the total picture around the table.
+     * Each event goes to the listeners registered for its type in the
+     * EventRouter, see routeEvents. The hand in progress is kept in
+     * TableState from these events, and decisions read it as an immutable
+     * snapshot.
      *
-     * @see CurrentPlayState
+     * @see EventRouter
+     * @see TableState
      * <p/>
      * ***********************************************************************
      */
 
     @Override
     public void onPlayIsStarted(final PlayIsStartedEvent event) {
-        log.debug("Play is started");
+        events.dispatch(EventType.PLAY_IS_STARTED, event);
     }
 
     @Override
     public void onTableChangedStateEvent(TableChangedStateEvent event) {
-
-        log.debug("Table changed state: {}", event.getState());
+        events.dispatch(EventType.TABLE_CHANGED_STATE, event);
     }
 
     @Override
     public void onYouHaveBeenDealtACard(final YouHaveBeenDealtACardEvent event) {
-
-        log.debug("I, {}, got a card: {}", getName(), event.getCard());
+        events.dispatch(EventType.YOU_HAVE_BEEN_DEALT_A_CARD, event);
     }
 
     @Override
     public void onCommunityHasBeenDealtACard(
             final CommunityHasBeenDealtACardEvent event) {
-
-        log.debug("Community got a card: {}", event.getCard());
+        events.dispatch(EventType.COMMUNITY_HAS_BEEN_DEALT_A_CARD, event);
     }
 
     @Override
     public void onPlayerBetBigBlind(PlayerBetBigBlindEvent event) {
-
-        log.debug("{} placed big blind with amount {}", event.getPlayer().getName(), event.getBigBlind());
+        events.dispatch(EventType.PLAYER_BET_BIG_BLIND, event);
     }
 
     @Override
     public void onPlayerBetSmallBlind(PlayerBetSmallBlindEvent event) {
-
-        log.debug("{} placed small blind with amount {}", event.getPlayer().getName(), event.getSmallBlind());
+        events.dispatch(EventType.PLAYER_BET_SMALL_BLIND, event);
     }
 
     @Override
     public void onPlayerFolded(final PlayerFoldedEvent event) {
-
-        log.debug("{} folded after putting {} in the pot", event.getPlayer().getName(), event.getInvestmentInPot());
+        events.dispatch(EventType.PLAYER_FOLDED, event);
     }
 
     @Override
     public void onPlayerForcedFolded(PlayerForcedFoldedEvent event) {
-
-        log.debug("NOT GOOD! {} was forced to fold after putting {} in the pot because exceeding the time limit", event.getPlayer().getName(), event.getInvestmentInPot());
+        events.dispatch(EventType.PLAYER_FORCED_FOLDED, event);
     }
 
     @Override
     public void onPlayerCalled(final PlayerCalledEvent event) {
-
-        log.debug("{} called with amount {}", event.getPlayer().getName(), event.getCallBet());
+        events.dispatch(EventType.PLAYER_CALLED, event);
     }
 
     @Override
     public void onPlayerRaised(final PlayerRaisedEvent event) {
-        raised++;
-        log.debug("{} raised with bet {}", event.getPlayer().getName(), event.getRaiseBet());
+        events.dispatch(EventType.PLAYER_RAISED, event);
     }
 
     @Override
     public void onTableIsDone(TableIsDoneEvent event) {
-
-        log.debug("Table is done, I'm leaving the table with ${}", playerClient.getCurrentPlayState().getMyCurrentChipAmount());
-        log.info("Ending poker session, the last game may be viewed at: http://{}/showgame/table/{}", serverHost, playerClient.getCurrentPlayState().getTableId());
+        events.dispatch(EventType.TABLE_IS_DONE, event);
     }
 
     @Override
     public void onPlayerWentAllIn(final PlayerWentAllInEvent event) {
-
-        log.debug("{} went all in with amount {}", event.getPlayer().getName(), event.getAllInAmount());
+        events.dispatch(EventType.PLAYER_WENT_ALL_IN, event);
     }
 
     @Override
     public void onPlayerChecked(final PlayerCheckedEvent event) {
-
-        log.debug("{} checked", event.getPlayer().getName());
+        events.dispatch(EventType.PLAYER_CHECKED, event);
     }
 
     @Override
     public void onYouWonAmount(final YouWonAmountEvent event) {
-
-        log.debug("I, {}, won: {}", getName(), event.getWonAmount());
+        events.dispatch(EventType.YOU_WON_AMOUNT, event);
     }
 
     @Override
     public void onShowDown(final ShowDownEvent event) {
-
-        if (!log.isInfoEnabled()) {
-            return;
-        }
-
-        final StringBuilder sb = new StringBuilder();
-        final Formatter formatter = new Formatter(sb);
-
-        sb.append("ShowDown:\n");
-
-        for (final PlayerShowDown psd : event.getPlayersShowDown()) {
-            formatter.format("%-13s won: %6s  hand: %-15s ",
-                    psd.getPlayer().getName(),
-                    psd.getHand().isFolded() ? "Fold" : psd.getWonAmount(),
-                    psd.getHand().getPokerHand().getName());
-
-            sb.append(" cards: | ");
-            for (final Card card : psd.getHand().getCards()) {
-                formatter.format("%-13s | ", card);
-            }
-            sb.append("\n");
-        }
-
-        log.info(sb.toString());
+        events.dispatch(EventType.SHOW_DOWN, event);
     }
 
     @Override
     public void onPlayerQuit(final PlayerQuitEvent event) {
-
-        log.debug("Player {} has quit", event.getPlayer());
+        events.dispatch(EventType.PLAYER_QUIT, event);
     }
 
+    /**
+     * Closes this bot only, the other bots of the JVM play on. Whoever
+     * started the bot decides when the JVM exits, see awaitDisconnect.
+     */
     @Override
     public void connectionToGameServerLost() {
-        log.debug("Lost connection to game server, exiting");
-        System.exit(0);
+        log.debug("{} lost connection to game server", getName());
+        close();
+        disconnected.countDown();
+    }
+
+    /**
+     * Waits until the connection to the game server is lost and the bot has
+     * closed its files.
+     */
+    void awaitDisconnect() throws InterruptedException {
+        disconnected.await();
+    }
+
+    /**
+     * Stops the speculation of this bot and writes its opponent statistics
+     * and hand history to disk.
+     */
+    private void close() {
+        handStrength.cancel();
+        opponentStats.flush();
+        if (handHistory != null) {
+            handHistory.close();
+        }
     }
 
     @Override
@@ -564,8 +713,264 @@ public class FullyImplementedBot implements Player {
 
     @Override
     public void serverIsShuttingDown(final ServerIsShuttingDownEvent event) {
-        log.debug("Server is shutting down");
+        events.dispatch(EventType.SERVER_IS_SHUTTING_DOWN, event);
     }
 
+    /**
+     * Registers everything that follows the game for the events it needs.
+     * The table state comes first, the listeners after it read it. The log
+     * listeners check their level on every event, so logging can be turned
+     * on and off while the bot plays, and an event is only rendered when
+     * its level is enabled.
+     */
+    private EventRouter routeEvents() {
+        EventRouter router = new EventRouter();
+        Set<EventType> all = EnumSet.allOf(EventType.class);
+        if (handHistory != null) {
+            router.register(all, handHistory);
+        }
+        router.register(all, new EventLog());
+        router.register(TableState.EVENTS, tableState);
+        router.register(EnumSet.of(EventType.PLAY_IS_STARTED, EventType.TABLE_CHANGED_STATE,
+                EventType.COMMUNITY_HAS_BEEN_DEALT_A_CARD, EventType.PLAYER_FOLDED, EventType.PLAYER_FORCED_FOLDED,
+                EventType.PLAYER_CALLED, EventType.PLAYER_RAISED, EventType.PLAYER_WENT_ALL_IN,
+                EventType.SHOW_DOWN, EventType.TABLE_IS_DONE), new OpponentTracker());
+        router.register(EnumSet.of(EventType.PLAY_IS_STARTED, EventType.YOU_HAVE_BEEN_DEALT_A_CARD,
+                EventType.COMMUNITY_HAS_BEEN_DEALT_A_CARD, EventType.PLAYER_FOLDED, EventType.PLAYER_FORCED_FOLDED,
+                EventType.PLAYER_CALLED, EventType.PLAYER_RAISED, EventType.PLAYER_WENT_ALL_IN,
+                EventType.SHOW_DOWN, EventType.TABLE_IS_DONE), new HandStrengthTracker());
+        router.register(all, new MetricsListener());
+        router.register(EnumSet.of(EventType.SHOW_DOWN), new ShowDownLog());
+        return router;
+    }
+
+    /**
+     * The statistics and hand ranges of the other players.
+     */
+    private final class OpponentTracker implements EventRouter.Listener {
+
+        @Override
+        public void onEvent(EventType type, TexasEvent event) {
+            switch (type) {
+                case PLAY_IS_STARTED:
+                    List<GamePlayer> players = ((PlayIsStartedEvent) event).getPlayers();
+                    opponentStats.onPlayIsStarted(players);
+                    opponentRanges.onPlayIsStarted(players);
+                    break;
+                case TABLE_CHANGED_STATE:
+                    opponentStats.onTableChangedState(((TableChangedStateEvent) event).getState());
+                    break;
+                case COMMUNITY_HAS_BEEN_DEALT_A_CARD:
+                    opponentRanges.onCommunityCards(tableState.get().getBoard());
+                    break;
+                case PLAYER_FOLDED:
+                    String folded = ((PlayerFoldedEvent) event).getPlayer().getName();
+                    opponentStats.onPlayerFolded(folded);
+                    opponentRanges.onPlayerFolded(folded);
+                    break;
+                case PLAYER_FORCED_FOLDED:
+                    opponentRanges.onPlayerFolded(((PlayerForcedFoldedEvent) event).getPlayer().getName());
+                    break;
+                case PLAYER_CALLED:
+                    String called = ((PlayerCalledEvent) event).getPlayer().getName();
+                    opponentStats.onPlayerCalled(called);
+                    opponentRanges.onPlayerCalled(called);
+                    break;
+                case PLAYER_RAISED:
+                    String raised = ((PlayerRaisedEvent) event).getPlayer().getName();
+                    opponentStats.onPlayerRaised(raised);
+                    opponentRanges.onPlayerRaised(raised);
+                    break;
+                case PLAYER_WENT_ALL_IN:
+                    String allIn = ((PlayerWentAllInEvent) event).getPlayer().getName();
+                    opponentStats.onPlayerRaised(allIn);
+                    opponentRanges.onPlayerRaised(allIn);
+                    break;
+                case SHOW_DOWN:
+                    opponentStats.onShowDown(((ShowDownEvent) event).getPlayersShowDown());
+                    break;
+                case TABLE_IS_DONE:
+                    opponentStats.flush();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
 
+    /**
+     * Calculates the hand strength in the background as the cards are
+     * dealt and as the opponents' ranges narrow, and stops when the hand or
+     * the table is over.
+     */
+    private final class HandStrengthTracker implements EventRouter.Listener {
+
+        @Override
+        public void onEvent(EventType type, TexasEvent event) {
+            switch (type) {
+                case YOU_HAVE_BEEN_DEALT_A_CARD:
+                case COMMUNITY_HAS_BEEN_DEALT_A_CARD:
+                case PLAYER_FOLDED:
+                case PLAYER_FORCED_FOLDED:
+                case PLAYER_CALLED:
+                case PLAYER_RAISED:
+                case PLAYER_WENT_ALL_IN:
+                    // Kept if the ranges did not change, such as when we acted ourselves
+                    speculate();
+                    break;
+                case TABLE_IS_DONE:
+                    log.info("Ending poker session, the last game may be viewed at: http://{}/showgame/table/{}", serverHost, tableState.get().getTableId());
+                    log.info("Decision latency, {}, {}", decisionWatchdog, handStrength);
+                    handStrength.cancel();
+                    break;
+                default:
+                    handStrength.cancel();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Events, forced folds, won amounts and the chips won per hand, see BotMetrics.
+     */
+    private final class MetricsListener implements EventRouter.Listener {
+
+        @Override
+        public void onEvent(EventType type, TexasEvent event) {
+            metrics.onEvent();
+            switch (type) {
+                case PLAY_IS_STARTED:
+                    TableState.Snapshot state = tableState.get();
+                    long myChips = state.getMySeat() >= 0 ? state.getChips(state.getMySeat()) : 0;
+                    endHand(myChips);
+                    handStartChips = myChips;
+                    handBigBlind = state.getBigBlind();
+                    break;
+                case PLAYER_FORCED_FOLDED:
+                    if (getName().equals(((PlayerForcedFoldedEvent) event).getPlayer().getName())) {
+                        metrics.onForcedFold();
+                    }
+                    break;
+                case YOU_WON_AMOUNT:
+                    metrics.onWon(((YouWonAmountEvent) event).getWonAmount());
+                    break;
+                case TABLE_IS_DONE:
+                    endHand(myChipsIn(((TableIsDoneEvent) event).getPlayers()));
+                    handStartChips = -1;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Every event at debug level.
+     */
+    private final class EventLog implements EventRouter.Listener {
+
+        @Override
+        public void onEvent(EventType type, TexasEvent event) {
+            if (!log.isDebugEnabled()) {
+                return;
+            }
+            switch (type) {
+                case PLAY_IS_STARTED:
+                    log.debug("Play is started");
+                    break;
+                case TABLE_CHANGED_STATE:
+                    log.debug("Table changed state: {}", ((TableChangedStateEvent) event).getState());
+                    break;
+                case YOU_HAVE_BEEN_DEALT_A_CARD:
+                    log.debug("I, {}, got a card: {}", getName(), ((YouHaveBeenDealtACardEvent) event).getCard());
+                    break;
+                case COMMUNITY_HAS_BEEN_DEALT_A_CARD:
+                    log.debug("Community got a card: {}", ((CommunityHasBeenDealtACardEvent) event).getCard());
+                    break;
+                case PLAYER_BET_BIG_BLIND:
+                    PlayerBetBigBlindEvent bigBlind = (PlayerBetBigBlindEvent) event;
+                    log.debug("{} placed big blind with amount {}", bigBlind.getPlayer().getName(), bigBlind.getBigBlind());
+                    break;
+                case PLAYER_BET_SMALL_BLIND:
+                    PlayerBetSmallBlindEvent smallBlind = (PlayerBetSmallBlindEvent) event;
+                    log.debug("{} placed small blind with amount {}", smallBlind.getPlayer().getName(), smallBlind.getSmallBlind());
+                    break;
+                case PLAYER_FOLDED:
+                    PlayerFoldedEvent folded = (PlayerFoldedEvent) event;
+                    log.debug("{} folded after putting {} in the pot", folded.getPlayer().getName(), folded.getInvestmentInPot());
+                    break;
+                case PLAYER_FORCED_FOLDED:
+                    PlayerForcedFoldedEvent forcedFolded = (PlayerForcedFoldedEvent) event;
+                    log.debug("NOT GOOD! {} was forced to fold after putting {} in the pot because exceeding the time limit", forcedFolded.getPlayer().getName(), forcedFolded.getInvestmentInPot());
+                    break;
+                case PLAYER_CALLED:
+                    PlayerCalledEvent called = (PlayerCalledEvent) event;
+                    log.debug("{} called with amount {}", called.getPlayer().getName(), called.getCallBet());
+                    break;
+                case PLAYER_RAISED:
+                    PlayerRaisedEvent raised = (PlayerRaisedEvent) event;
+                    log.debug("{} raised with bet {}", raised.getPlayer().getName(), raised.getRaiseBet());
+                    break;
+                case PLAYER_WENT_ALL_IN:
+                    PlayerWentAllInEvent allIn = (PlayerWentAllInEvent) event;
+                    log.debug("{} went all in with amount {}", allIn.getPlayer().getName(), allIn.getAllInAmount());
+                    break;
+                case PLAYER_CHECKED:
+                    log.debug("{} checked", ((PlayerCheckedEvent) event).getPlayer().getName());
+                    break;
+                case PLAYER_QUIT:
+                    log.debug("Player {} has quit", ((PlayerQuitEvent) event).getPlayer());
+                    break;
+                case YOU_WON_AMOUNT:
+                    log.debug("I, {}, won: {}", getName(), ((YouWonAmountEvent) event).getWonAmount());
+                    break;
+                case TABLE_IS_DONE:
+                    log.debug("Table is done, I'm leaving the table with ${}", myChipsIn(((TableIsDoneEvent) event).getPlayers()));
+                    break;
+                case SERVER_IS_SHUTTING_DOWN:
+                    log.debug("Server is shutting down");
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The hands shown at showdown at info level.
+     */
+    private final class ShowDownLog implements EventRouter.Listener {
+
+        // Created at the first showdown logged and reused, only the event thread gets here
+        private StringBuilder sb;
+        private Formatter formatter;
+
+        @Override
+        public void onEvent(EventType type, TexasEvent event) {
+            if (!log.isInfoEnabled()) {
+                return;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(1024);
+                formatter = new Formatter(sb);
+            }
+            sb.setLength(0);
+            sb.append("ShowDown:\n");
+
+            for (final PlayerShowDown psd : ((ShowDownEvent) event).getPlayersShowDown()) {
+                formatter.format("%-13s won: %6s  hand: %-15s ",
+                        psd.getPlayer().getName(),
+                        psd.getHand().isFolded() ? "Fold" : psd.getWonAmount(),
+                        psd.getHand().getPokerHand().getName());
+
+                sb.append(" cards: | ");
+                for (final Card card : psd.getHand().getCards()) {
+                    formatter.format("%-13s | ", card);
+                }
+                sb.append("\n");
+            }
+
+            log.info(sb.toString());
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.game.definitions.PokerHand;
+
+/**
+ * Evaluates the best poker hand among 0-7 cards given as a CardMask.
+ * <p/>
+ * The result is an int where a higher value is a better hand: the
+ * category (HIGH_HAND..ROYAL_FLUSH) in bits 20 and up, followed by the
+ * ranks that break ties in 4-bit nibbles. Straights, flushes and kickers
+ * are looked up in tables over the 8192 possible 13-bit rank sets, so an
+ * evaluation allocates nothing and never looks at card combinations.
+ * <p/>
+ * The categories are the same as the ones PokerHandUtil reports.
+ */
+final class HandEvaluator {
+
+    static final int HIGH_HAND = 0;
+    static final int ONE_PAIR = 1;
+    static final int TWO_PAIRS = 2;
+    static final int THREE_OF_A_KIND = 3;
+    static final int STRAIGHT = 4;
+    static final int FLUSH = 5;
+    static final int FULL_HOUSE = 6;
+    static final int FOUR_OF_A_KIND = 7;
+    static final int STRAIGHT_FLUSH = 8;
+    static final int ROYAL_FLUSH = 9;
+
+    private static final int CATEGORY_SHIFT = 20;
+    private static final int ACE = 12;
+    private static final int WHEEL = 0x100F; // A, 5, 4, 3, 2
+
+    private static final PokerHand[] POKER_HANDS = {
+            PokerHand.HIGH_HAND,
+            PokerHand.ONE_PAIR,
+            PokerHand.TWO_PAIRS,
+            PokerHand.THREE_OF_A_KIND,
+            PokerHand.STRAIGHT,
+            PokerHand.FLUSH,
+            PokerHand.FULL_HOUSE,
+            PokerHand.FOUR_OF_A_KIND,
+            PokerHand.STRAIGHT_FLUSH,
+            PokerHand.ROYAL_FLUSH
+    };
+
+    private static final int RANK_SETS = 1 << CardMask.RANKS;
+
+    // Highest rank of a straight in the rank set, 0 if there is none (a straight is at least five high)
+    private static final int[] STRAIGHT_HIGH = new int[RANK_SETS];
+    // The five highest ranks of the rank set packed in nibbles, highest first and left aligned
+    private static final int[] TOP_FIVE = new int[RANK_SETS];
+    // The highest rank of the rank set, 0 for the empty set
+    private static final int[] TOP_CARD = new int[RANK_SETS];
+
+    static {
+        for (int ranks = 0; ranks < RANK_SETS; ranks++) {
+            for (int high = ACE; high >= 4; high--) {
+                int run = 0x1F << (high - 4);
+                if ((ranks & run) == run) {
+                    STRAIGHT_HIGH[ranks] = high;
+                    break;
+                }
+            }
+            if (STRAIGHT_HIGH[ranks] == 0 && (ranks & WHEEL) == WHEEL) {
+                STRAIGHT_HIGH[ranks] = 3;
+            }
+
+            int packed = 0;
+            int count = 0;
+            for (int rank = ACE; rank >= 0 && count < 5; rank--) {
+                if ((ranks & (1 << rank)) != 0) {
+                    packed = (packed << 4) | rank;
+                    count++;
+                }
+            }
+            TOP_FIVE[ranks] = packed << (4 * (5 - count));
+            TOP_CARD[ranks] = ranks == 0 ? 0 : 31 - Integer.numberOfLeadingZeros(ranks);
+        }
+    }
+
+    private HandEvaluator() {
+    }
+
+    /**
+     * @param cards a CardMask of at most 7 cards
+     * @return the strength of the best hand, higher is better
+     */
+    static int evaluate(long cards) {
+        return evaluate(
+                CardMask.suitRanks(cards, 0),
+                CardMask.suitRanks(cards, 1),
+                CardMask.suitRanks(cards, 2),
+                CardMask.suitRanks(cards, 3),
+                Long.bitCount(cards));
+    }
+
+    /**
+     * Evaluates cards given as the rank sets of each suit.
+     *
+     * @param cardCount total number of cards in the four rank sets
+     */
+    static int evaluate(int suit0, int suit1, int suit2, int suit3, int cardCount) {
+        int ranks = suit0 | suit1 | suit2 | suit3;
+        int duplicates = cardCount - Integer.bitCount(ranks);
+        int straight = 0;
+
+        if (cardCount - duplicates >= 5) {
+            int flushRanks = flushRanks(suit0, suit1, suit2, suit3);
+            if (flushRanks != 0) {
+                // With seven cards or less a flush rules out a full house and four of a kind
+                int high = STRAIGHT_HIGH[flushRanks];
+                if (high != 0) {
+                    return value(high == ACE ? ROYAL_FLUSH : STRAIGHT_FLUSH, high << 16);
+                }
+                return value(FLUSH, TOP_FIVE[flushRanks]);
+            }
+            int high = STRAIGHT_HIGH[ranks];
+            if (high != 0) {
+                straight = value(STRAIGHT, high << 16);
+                if (duplicates < 3) {
+                    return straight;
+                }
+            }
+        }
+
+        // Ranks held an even number of times, i.e. pairs and fours
+        int pairs = ranks ^ (suit0 ^ suit1 ^ suit2 ^ suit3);
+
+        switch (duplicates) {
+            case 0:
+                return value(HIGH_HAND, TOP_FIVE[ranks]);
+
+            case 1:
+                return value(ONE_PAIR, (TOP_CARD[pairs] << 16) | ((TOP_FIVE[ranks ^ pairs] >> 4) & 0xFFF0));
+
+            case 2:
+                if (pairs != 0) {
+                    return value(TWO_PAIRS, (TOP_FIVE[pairs] & 0xFF000) | (TOP_CARD[ranks ^ pairs] << 8));
+                }
+                int three = threes(suit0, suit1, suit2, suit3);
+                return value(THREE_OF_A_KIND, (TOP_CARD[three] << 16) | ((TOP_FIVE[ranks ^ three] >> 4) & 0xFF00));
+
+            default:
+                int four = suit0 & suit1 & suit2 & suit3;
+                if (four != 0) {
+                    int rank = TOP_CARD[four];
+                    return value(FOUR_OF_A_KIND, (rank << 16) | (TOP_CARD[ranks ^ (1 << rank)] << 12));
+                }
+                if (Integer.bitCount(pairs) != duplicates) {
+                    int threes = threes(suit0, suit1, suit2, suit3);
+                    int rank = TOP_CARD[threes];
+                    return value(FULL_HOUSE, (rank << 16) | (TOP_CARD[(pairs | threes) ^ (1 << rank)] << 12));
+                }
+                if (straight != 0) {
+                    return straight;
+                }
+                int first = TOP_CARD[pairs];
+                int second = TOP_CARD[pairs ^ (1 << first)];
+                int kicker = TOP_CARD[ranks ^ (1 << first) ^ (1 << second)];
+                return value(TWO_PAIRS, (first << 16) | (second << 12) | (kicker << 8));
+        }
+    }
+
+    /**
+     * @return the category of a hand strength, one of HIGH_HAND..ROYAL_FLUSH
+     */
+    static int category(int value) {
+        return value >>> CATEGORY_SHIFT;
+    }
+
+    static PokerHand pokerHand(int value) {
+        return POKER_HANDS[category(value)];
+    }
+
+    private static int value(int category, int ranks) {
+        return (category << CATEGORY_SHIFT) | ranks;
+    }
+
+    private static int flushRanks(int suit0, int suit1, int suit2, int suit3) {
+        if (Integer.bitCount(suit0) >= 5) {
+            return suit0;
+        }
+        if (Integer.bitCount(suit1) >= 5) {
+            return suit1;
+        }
+        if (Integer.bitCount(suit2) >= 5) {
+            return suit2;
+        }
+        if (Integer.bitCount(suit3) >= 5) {
+            return suit3;
+        }
+        return 0;
+    }
+
+    /**
+     * @return ranks held at least three times
+     */
+    private static int threes(int suit0, int suit1, int suit2, int suit3) {
+        return ((suit0 & suit1) | (suit2 & suit3)) & ((suit0 & suit2) | (suit1 & suit3));
+    }
+}
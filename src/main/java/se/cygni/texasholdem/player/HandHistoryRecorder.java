@@ -0,0 +1,405 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.communication.message.event.*;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.Card;
+import se.cygni.texasholdem.game.GamePlayer;
+import se.cygni.texasholdem.game.PlayerShowDown;
+import se.cygni.texasholdem.game.Room;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends everything the bot is told and everything it answers to a
+ * compact binary hand history, for replaying offline with
+ * HandHistoryReplayer.
+ * <p/>
+ * The file starts with MAGIC, VERSION and the name of the bot recording
+ * it, so it can be replayed from the same seat. A ROOM record follows
+ * every time the bot registers for play, for the decisions that depend on
+ * the room. Version 1 files have neither.
+ * <p/>
+ * Every record is a type byte followed by fixed-width fields: a card is
+ * its CardMask index in one byte, a player a two byte id, chips and
+ * amounts eight bytes, enums their ordinal. A player's name is written
+ * once, in a NAME record before the first record referring to the id.
+ * Names are a two byte length followed by the chars. Lists are written as
+ * a count byte followed by the elements.
+ * <p/>
+ * Records are collected in a direct buffer and written to the file channel
+ * when it fills up, when the table is done and when the recorder is closed.
+ * An I/O error stops the recording, it never reaches the game.
+ * <p/>
+ * Events are recorded as an EventRouter listener for every EventType.
+ */
+final class HandHistoryRecorder implements EventRouter.Listener {
+
+    private static Logger log = LoggerFactory
+            .getLogger(HandHistoryRecorder.class);
+
+    static final int MAGIC = 0x44544848;
+    static final short VERSION = 2;
+    static final short VERSION_WITHOUT_BOT = 1;
+
+    static final byte NAME = 1;
+    static final byte PLAY_IS_STARTED = 2;
+    static final byte TABLE_CHANGED_STATE = 3;
+    static final byte YOU_HAVE_BEEN_DEALT_A_CARD = 4;
+    static final byte COMMUNITY_HAS_BEEN_DEALT_A_CARD = 5;
+    static final byte PLAYER_BET_SMALL_BLIND = 6;
+    static final byte PLAYER_BET_BIG_BLIND = 7;
+    static final byte PLAYER_FOLDED = 8;
+    static final byte PLAYER_FORCED_FOLDED = 9;
+    static final byte PLAYER_CALLED = 10;
+    static final byte PLAYER_RAISED = 11;
+    static final byte PLAYER_WENT_ALL_IN = 12;
+    static final byte PLAYER_CHECKED = 13;
+    static final byte PLAYER_QUIT = 14;
+    static final byte YOU_WON_AMOUNT = 15;
+    static final byte SHOW_DOWN = 16;
+    static final byte TABLE_IS_DONE = 17;
+    static final byte SERVER_IS_SHUTTING_DOWN = 18;
+    static final byte ACTION_REQUEST = 19;
+    static final byte ACTION = 20;
+    static final byte ROOM = 21;
+
+    static final short NO_PLAYER = -1;
+    static final byte NO_ACTION = -1;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_NAME_CHARS = 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final Map<String, Short> playerIds = new HashMap<String, Short>();
+    private boolean failed;
+
+    /**
+     * @param channel appended to, the header is written if it is empty
+     * @param botName the name of the bot recording, also in the header if the channel is not empty
+     */
+    HandHistoryRecorder(FileChannel channel, String botName) throws IOException {
+        this.channel = channel;
+        if (channel.size() == 0) {
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            putName(botName);
+        }
+    }
+
+    /**
+     * Appends to the file, creating it if needed. A file recorded by another
+     * bot or in another version is moved aside to a name ending in .old.
+     *
+     * @return the recorder, or null if the file can not be opened
+     */
+    static HandHistoryRecorder open(File file, String botName) {
+        try {
+            if (file.length() > 0 && !botName.equals(recordedBotName(file))) {
+                File old = new File(file.getPath() + ".old");
+                log.warn("{} is not a hand history of {} in version {}, moving it to {}", file, botName, VERSION, old);
+                if (!file.renameTo(old)) {
+                    throw new IOException("Could not move " + file + " to " + old);
+                }
+            }
+            HandHistoryRecorder recorder = new HandHistoryRecorder(new FileOutputStream(file, true).getChannel(), botName);
+            log.info("Recording hand history to {}", file);
+            return recorder;
+        } catch (IOException e) {
+            log.warn("Could not open {}, no hand history will be recorded", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the bot name in the header of the file, null if it is not of the current version
+     */
+    private static String recordedBotName(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.length() < 8 || input.readInt() != MAGIC || input.readShort() != VERSION) {
+                return null;
+            }
+            char[] name = new char[input.readShort()];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = input.readChar();
+            }
+            return new String(name);
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public synchronized void onEvent(EventType type, TexasEvent event) {
+        if (failed) {
+            return;
+        }
+        switch (type) {
+            case PLAY_IS_STARTED:
+                PlayIsStartedEvent started = (PlayIsStartedEvent) event;
+                List<GamePlayer> players = started.getPlayers();
+                short dealer = id(started.getDealer());
+                short smallBlind = id(started.getSmallBlindPlayer());
+                short bigBlind = id(started.getBigBlindPlayer());
+                short[] ids = ids(players);
+                ensure(1 + 8 + 8 + 8 + 2 + 2 + 2 + 1 + players.size() * 10);
+                buffer.put(PLAY_IS_STARTED);
+                buffer.putLong(started.getTableId());
+                buffer.putLong(started.getSmallBlind());
+                buffer.putLong(started.getBigBlind());
+                buffer.putShort(dealer);
+                buffer.putShort(smallBlind);
+                buffer.putShort(bigBlind);
+                putPlayers(players, ids);
+                break;
+            case TABLE_CHANGED_STATE:
+                ensure(2);
+                buffer.put(TABLE_CHANGED_STATE);
+                buffer.put((byte) ((TableChangedStateEvent) event).getState().ordinal());
+                break;
+            case YOU_HAVE_BEEN_DEALT_A_CARD:
+                putCard(YOU_HAVE_BEEN_DEALT_A_CARD, ((YouHaveBeenDealtACardEvent) event).getCard());
+                break;
+            case COMMUNITY_HAS_BEEN_DEALT_A_CARD:
+                putCard(COMMUNITY_HAS_BEEN_DEALT_A_CARD, ((CommunityHasBeenDealtACardEvent) event).getCard());
+                break;
+            case PLAYER_BET_SMALL_BLIND:
+                PlayerBetSmallBlindEvent smallBlindBet = (PlayerBetSmallBlindEvent) event;
+                putPlayerAmount(PLAYER_BET_SMALL_BLIND, smallBlindBet.getPlayer(), smallBlindBet.getSmallBlind());
+                break;
+            case PLAYER_BET_BIG_BLIND:
+                PlayerBetBigBlindEvent bigBlindBet = (PlayerBetBigBlindEvent) event;
+                putPlayerAmount(PLAYER_BET_BIG_BLIND, bigBlindBet.getPlayer(), bigBlindBet.getBigBlind());
+                break;
+            case PLAYER_FOLDED:
+                PlayerFoldedEvent folded = (PlayerFoldedEvent) event;
+                putPlayerAmount(PLAYER_FOLDED, folded.getPlayer(), folded.getInvestmentInPot());
+                break;
+            case PLAYER_FORCED_FOLDED:
+                PlayerForcedFoldedEvent forcedFolded = (PlayerForcedFoldedEvent) event;
+                putPlayerAmount(PLAYER_FORCED_FOLDED, forcedFolded.getPlayer(), forcedFolded.getInvestmentInPot());
+                break;
+            case PLAYER_CALLED:
+                PlayerCalledEvent called = (PlayerCalledEvent) event;
+                putPlayerAmount(PLAYER_CALLED, called.getPlayer(), called.getCallBet());
+                break;
+            case PLAYER_RAISED:
+                PlayerRaisedEvent raised = (PlayerRaisedEvent) event;
+                putPlayerAmount(PLAYER_RAISED, raised.getPlayer(), raised.getRaiseBet());
+                break;
+            case PLAYER_WENT_ALL_IN:
+                PlayerWentAllInEvent allIn = (PlayerWentAllInEvent) event;
+                putPlayerAmount(PLAYER_WENT_ALL_IN, allIn.getPlayer(), allIn.getAllInAmount());
+                break;
+            case PLAYER_CHECKED:
+                putPlayer(PLAYER_CHECKED, ((PlayerCheckedEvent) event).getPlayer());
+                break;
+            case PLAYER_QUIT:
+                putPlayer(PLAYER_QUIT, ((PlayerQuitEvent) event).getPlayer());
+                break;
+            case YOU_WON_AMOUNT:
+                YouWonAmountEvent won = (YouWonAmountEvent) event;
+                ensure(17);
+                buffer.put(YOU_WON_AMOUNT);
+                buffer.putLong(won.getWonAmount());
+                buffer.putLong(won.getYourChipAmount());
+                break;
+            case SHOW_DOWN:
+                putShowDown(((ShowDownEvent) event).getPlayersShowDown());
+                break;
+            case TABLE_IS_DONE:
+                List<GamePlayer> remaining = ((TableIsDoneEvent) event).getPlayers();
+                short[] remainingIds = ids(remaining);
+                ensure(2 + remaining.size() * 10);
+                buffer.put(TABLE_IS_DONE);
+                putPlayers(remaining, remainingIds);
+                flush();
+                break;
+            case SERVER_IS_SHUTTING_DOWN:
+                ensure(1);
+                buffer.put(SERVER_IS_SHUTTING_DOWN);
+                flush();
+                break;
+            default:
+                log.debug("Not recording unknown event {}", event);
+                break;
+        }
+    }
+
+    /**
+     * @param room the room the bot registers to play in
+     */
+    synchronized void record(Room room) {
+        if (failed) {
+            return;
+        }
+        ensure(2);
+        buffer.put(ROOM);
+        buffer.put((byte) room.ordinal());
+    }
+
+    synchronized void record(ActionRequest request) {
+        if (failed) {
+            return;
+        }
+        List<Action> actions = request.getPossibleActions();
+        ensure(2 + actions.size() * 9);
+        buffer.put(ACTION_REQUEST);
+        buffer.put((byte) actions.size());
+        for (Action action : actions) {
+            buffer.put((byte) action.getActionType().ordinal());
+            buffer.putLong(action.getAmount());
+        }
+    }
+
+    /**
+     * @param action        our answer to the last request, null if we had none
+     * @param decisionNanos how long the decision took
+     */
+    synchronized void record(Action action, long decisionNanos) {
+        if (failed) {
+            return;
+        }
+        ensure(18);
+        buffer.put(ACTION);
+        buffer.put(action == null ? NO_ACTION : (byte) action.getActionType().ordinal());
+        buffer.putLong(action == null ? 0 : action.getAmount());
+        buffer.putLong(decisionNanos);
+    }
+
+    synchronized void flush() {
+        if (failed) {
+            return;
+        }
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failed = true;
+            log.warn("Could not write hand history, stopping the recording", e);
+        }
+        buffer.clear();
+    }
+
+    synchronized void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close hand history", e);
+        }
+    }
+
+    private void putCard(byte type, Card card) {
+        ensure(2);
+        buffer.put(type);
+        buffer.put((byte) CardMask.index(card));
+    }
+
+    private void putPlayer(byte type, GamePlayer player) {
+        short id = id(player);
+        ensure(11);
+        buffer.put(type);
+        buffer.putShort(id);
+        buffer.putLong(player == null ? 0 : player.getChipCount());
+    }
+
+    private void putPlayerAmount(byte type, GamePlayer player, long amount) {
+        short id = id(player);
+        ensure(19);
+        buffer.put(type);
+        buffer.putShort(id);
+        buffer.putLong(player == null ? 0 : player.getChipCount());
+        buffer.putLong(amount);
+    }
+
+    private void putPlayers(List<GamePlayer> players, short[] ids) {
+        buffer.put((byte) players.size());
+        for (int i = 0; i < ids.length; i++) {
+            buffer.putShort(ids[i]);
+            buffer.putLong(players.get(i).getChipCount());
+        }
+    }
+
+    private void putShowDown(List<PlayerShowDown> playersShowDown) {
+        short[] ids = new short[playersShowDown.size()];
+        int bytes = 2;
+        for (int i = 0; i < ids.length; i++) {
+            PlayerShowDown psd = playersShowDown.get(i);
+            ids[i] = id(psd.getPlayer());
+            bytes += 2 + 8 + 8 + 1 + 1 + 1 + psd.getHand().getCards().size();
+        }
+        ensure(bytes);
+        buffer.put(SHOW_DOWN);
+        buffer.put((byte) ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            PlayerShowDown psd = playersShowDown.get(i);
+            buffer.putShort(ids[i]);
+            buffer.putLong(psd.getPlayer().getChipCount());
+            buffer.putLong(psd.getWonAmount());
+            buffer.put((byte) (psd.getHand().isFolded() ? 1 : 0));
+            buffer.put(psd.getHand().getPokerHand() == null ? -1 : (byte) psd.getHand().getPokerHand().ordinal());
+            List<Card> cards = psd.getHand().getCards();
+            buffer.put((byte) cards.size());
+            for (Card card : cards) {
+                buffer.put((byte) CardMask.index(card));
+            }
+        }
+    }
+
+    private short[] ids(List<GamePlayer> players) {
+        short[] ids = new short[players.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = id(players.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the id of the player, writing a NAME record the first time the player is seen
+     */
+    private short id(GamePlayer player) {
+        if (player == null) {
+            return NO_PLAYER;
+        }
+        Short id = playerIds.get(player.getName());
+        if (id != null) {
+            return id;
+        }
+        short newId = (short) playerIds.size();
+        playerIds.put(player.getName(), newId);
+        ensure(5 + 2 * Math.min(player.getName().length(), MAX_NAME_CHARS));
+        buffer.put(NAME);
+        buffer.putShort(newId);
+        putName(player.getName());
+        return newId;
+    }
+
+    private void putName(String name) {
+        int length = Math.min(name.length(), MAX_NAME_CHARS);
+        buffer.putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(name.charAt(i));
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
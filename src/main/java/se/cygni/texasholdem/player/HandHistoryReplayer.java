@@ -0,0 +1,330 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.communication.message.event.*;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.*;
+import se.cygni.texasholdem.game.definitions.ActionType;
+import se.cygni.texasholdem.game.definitions.PlayState;
+import se.cygni.texasholdem.game.definitions.PokerHand;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static se.cygni.texasholdem.player.HandHistoryRecorder.*;
+
+/**
+ * Plays a hand history recorded by HandHistoryRecorder back through a
+ * FullyImplementedBot without any server.
+ * <p/>
+ * The bot is built with the name in the header of the history, so it
+ * finds its own seat, and plays in the room of the latest ROOM record.
+ * Version 1 histories have neither and are replayed by a bot named
+ * DEFAULT_NAME in the TRAINING room.
+ * <p/>
+ * Every recorded event is dispatched to the bot. For every recorded
+ * action request the bot is asked again and its answer compared with the
+ * recorded one; differing decisions are logged and counted. Equity is
+ * estimated by sampling and short-stacked heads-up play is mixed, so some
+ * decisions may differ between runs.
+ * <p/>
+ * Folded hands in a recorded showdown are left out of the replayed
+ * ShowDownEvent.
+ * <p/>
+ * Usage: HandHistoryReplayer file [decisions|events|decode]
+ * <ul>
+ * <li>decisions: events and decisions, the default</li>
+ * <li>events: events only, for replaying the bookkeeping at full speed</li>
+ * <li>decode: reads the records without any bot, to measure the format</li>
+ * </ul>
+ */
+public class HandHistoryReplayer {
+
+    private static Logger log = LoggerFactory
+            .getLogger(HandHistoryReplayer.class);
+
+    enum Mode {DECISIONS, EVENTS, DECODE}
+
+    private static final ActionType[] ACTION_TYPES = ActionType.values();
+    private static final PlayState[] PLAY_STATES = PlayState.values();
+    private static final PokerHand[] POKER_HANDS = PokerHand.values();
+    private static final Room[] ROOMS = Room.values();
+
+    private final ByteBuffer data;
+    private final Mode mode;
+    private FullyImplementedBot bot; //Built from the header, null when decoding
+    private String[] names = new String[64];
+
+    private final LatencyHistogram decisionLatency = new LatencyHistogram();
+    private long events;
+    private long decisions;
+    private long differing;
+    private ActionRequest pendingRequest;
+
+    HandHistoryReplayer(ByteBuffer data, Mode mode) {
+        this.data = data;
+        this.mode = mode;
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: HandHistoryReplayer file [decisions|events|decode]");
+            System.exit(1);
+        }
+        Mode mode = args.length > 1 ? Mode.valueOf(args[1].toUpperCase()) : Mode.DECISIONS;
+
+        RandomAccessFile input = new RandomAccessFile(args[0], "r");
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            new HandHistoryReplayer(data, mode).replay();
+        } finally {
+            input.close();
+        }
+    }
+
+    void replay() {
+        String botName = readHeader();
+        if (mode != Mode.DECODE) {
+            BotResources resources = BotResources.shared();
+            bot = new FullyImplementedBot(botName, resources, resources.getStrategySource());
+        }
+        long start = System.nanoTime();
+        while (data.hasRemaining()) {
+            replayRecord();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.info("Replayed {} events and {} decisions in {} s, {} events/s",
+                events, decisions, String.format("%.2f", seconds), String.format("%.0f", events / seconds));
+        if (mode == Mode.DECISIONS) {
+            log.info("{} decisions differ from the recording, decision latency {}", differing, decisionLatency);
+        }
+    }
+
+    /**
+     * @return the name of the bot that recorded the history
+     */
+    private String readHeader() {
+        if (data.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a hand history");
+        }
+        short version = data.getShort();
+        if (version == VERSION_WITHOUT_BOT) {
+            log.warn("Version {} hand history without the name of the bot or its room, replaying as {} in {}",
+                    version, FullyImplementedBot.DEFAULT_NAME, Room.TRAINING);
+            return FullyImplementedBot.DEFAULT_NAME;
+        }
+        if (version != VERSION) {
+            throw new IllegalStateException("Hand history version " + version + " is not supported");
+        }
+        String botName = readString();
+        log.info("Replaying the hand history of {}", botName);
+        return botName;
+    }
+
+    private void replayRecord() {
+        byte type = data.get();
+        switch (type) {
+            case NAME:
+                readName();
+                return;
+            case ROOM:
+                Room room = ROOMS[data.get()];
+                if (bot != null) {
+                    bot.setRoom(room);
+                }
+                return;
+            case ACTION_REQUEST:
+                pendingRequest = readActionRequest();
+                return;
+            case ACTION:
+                replayDecision(readAction());
+                return;
+            default:
+                TexasEvent event = readEvent(type);
+                events++;
+                if (mode != Mode.DECODE) {
+                    bot.dispatchEvent(event);
+                }
+        }
+    }
+
+    private void replayDecision(Action recorded) {
+        data.getLong(); // recorded decision time
+        if (pendingRequest == null) {
+            return;
+        }
+        decisions++;
+        if (mode == Mode.DECISIONS) {
+            long start = System.nanoTime();
+            Action replayed = bot.actionRequired(pendingRequest);
+            decisionLatency.record(System.nanoTime() - start);
+            if (!sameAction(recorded, replayed)) {
+                differing++;
+                log.info("Decision {} differs, recorded {} now {}",
+                        decisions, describe(recorded), describe(replayed));
+            }
+        }
+        pendingRequest = null;
+    }
+
+    private TexasEvent readEvent(byte type) {
+        switch (type) {
+            case PLAY_IS_STARTED:
+                long tableId = data.getLong();
+                long smallBlind = data.getLong();
+                long bigBlind = data.getLong();
+                short dealer = data.getShort();
+                short smallBlindPlayer = data.getShort();
+                short bigBlindPlayer = data.getShort();
+                List<GamePlayer> players = readPlayers();
+                return new PlayIsStartedEvent(players, smallBlind, bigBlind,
+                        find(players, dealer), find(players, smallBlindPlayer), find(players, bigBlindPlayer), tableId);
+            case TABLE_CHANGED_STATE:
+                return new TableChangedStateEvent(PLAY_STATES[data.get()]);
+            case YOU_HAVE_BEEN_DEALT_A_CARD:
+                return new YouHaveBeenDealtACardEvent(CardMask.card(data.get()));
+            case COMMUNITY_HAS_BEEN_DEALT_A_CARD:
+                return new CommunityHasBeenDealtACardEvent(CardMask.card(data.get()));
+            case PLAYER_BET_SMALL_BLIND:
+                return new PlayerBetSmallBlindEvent(readPlayer(), data.getLong());
+            case PLAYER_BET_BIG_BLIND:
+                return new PlayerBetBigBlindEvent(readPlayer(), data.getLong());
+            case PLAYER_FOLDED:
+                return new PlayerFoldedEvent(readPlayer(), data.getLong());
+            case PLAYER_FORCED_FOLDED:
+                return new PlayerForcedFoldedEvent(readPlayer(), data.getLong());
+            case PLAYER_CALLED:
+                return new PlayerCalledEvent(readPlayer(), data.getLong());
+            case PLAYER_RAISED:
+                return new PlayerRaisedEvent(readPlayer(), data.getLong());
+            case PLAYER_WENT_ALL_IN:
+                return new PlayerWentAllInEvent(readPlayer(), data.getLong());
+            case PLAYER_CHECKED:
+                return new PlayerCheckedEvent(readPlayer());
+            case PLAYER_QUIT:
+                return new PlayerQuitEvent(readPlayer());
+            case YOU_WON_AMOUNT:
+                return new YouWonAmountEvent(data.getLong(), data.getLong());
+            case SHOW_DOWN:
+                return new ShowDownEvent(readShowDown());
+            case TABLE_IS_DONE:
+                return new TableIsDoneEvent(readPlayers());
+            case SERVER_IS_SHUTTING_DOWN:
+                return new ServerIsShuttingDownEvent("Replayed from hand history");
+            default:
+                throw new IllegalStateException("Unknown record type " + type + " at " + (data.position() - 1));
+        }
+    }
+
+    private void readName() {
+        int id = data.getShort();
+        String name = readString();
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, Math.max(id + 1, 2 * names.length));
+        }
+        names[id] = name;
+    }
+
+    private String readString() {
+        char[] chars = new char[data.getShort()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = data.getChar();
+        }
+        return new String(chars);
+    }
+
+    private GamePlayer readPlayer() {
+        short id = data.getShort();
+        long chips = data.getLong();
+        return id == NO_PLAYER ? null : new GamePlayer(names[id], chips);
+    }
+
+    private List<GamePlayer> readPlayers() {
+        int count = data.get();
+        List<GamePlayer> players = new ArrayList<GamePlayer>(count);
+        for (int i = 0; i < count; i++) {
+            players.add(readPlayer());
+        }
+        return players;
+    }
+
+    private GamePlayer find(List<GamePlayer> players, short id) {
+        if (id == NO_PLAYER) {
+            return null;
+        }
+        for (GamePlayer player : players) {
+            if (player.getName().equals(names[id])) {
+                return player;
+            }
+        }
+        return new GamePlayer(names[id], 0);
+    }
+
+    private List<PlayerShowDown> readShowDown() {
+        int count = data.get();
+        List<PlayerShowDown> showDowns = new ArrayList<PlayerShowDown>(count);
+        for (int i = 0; i < count; i++) {
+            GamePlayer player = readPlayer();
+            long won = data.getLong();
+            boolean folded = data.get() != 0;
+            byte pokerHand = data.get();
+            List<Card> cards = new ArrayList<Card>();
+            for (int cardCount = data.get(); cardCount > 0; cardCount--) {
+                cards.add(CardMask.card(data.get()));
+            }
+            if (!folded) {
+                showDowns.add(new PlayerShowDown(player,
+                        new Hand(cards, pokerHand < 0 ? null : POKER_HANDS[pokerHand]), won));
+            }
+        }
+        return showDowns;
+    }
+
+    private ActionRequest readActionRequest() {
+        int count = data.get();
+        List<Action> actions = new ArrayList<Action>(count);
+        for (int i = 0; i < count; i++) {
+            actions.add(new Action(ACTION_TYPES[data.get()], data.getLong()));
+        }
+        ActionRequest request = new ActionRequest();
+        request.setPossibleActions(actions);
+        return request;
+    }
+
+    private Action readAction() {
+        byte type = data.get();
+        long amount = data.getLong();
+        return type == NO_ACTION ? null : new Action(ACTION_TYPES[type], amount);
+    }
+
+    private static boolean sameAction(Action recorded, Action replayed) {
+        if (recorded == null || replayed == null) {
+            return recorded == replayed;
+        }
+        return recorded.getActionType() == replayed.getActionType() && recorded.getAmount() == replayed.getAmount();
+    }
+
+    private static String describe(Action action) {
+        return action == null ? "nothing" : action.getActionType() + " " + action.getAmount();
+    }
+
+    long getEvents() {
+        return events;
+    }
+
+    long getDecisions() {
+        return decisions;
+    }
+
+    long getDiffering() {
+        return differing;
+    }
+}
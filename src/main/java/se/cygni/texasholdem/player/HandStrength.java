@@ -0,0 +1,31 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.game.definitions.PokerHand;
+
+/**
+ * What our hole cards are worth on a given board against a number of
+ * opponents: the equity and the poker hand we hold right now.
+ */
+final class HandStrength {
+
+    private final Equity equity;
+    private final PokerHand pokerHand;
+
+    HandStrength(Equity equity, PokerHand pokerHand) {
+        this.equity = equity;
+        this.pokerHand = pokerHand;
+    }
+
+    Equity getEquity() {
+        return equity;
+    }
+
+    PokerHand getPokerHand() {
+        return pokerHand;
+    }
+
+    @Override
+    public String toString() {
+        return pokerHand + ", equity " + equity;
+    }
+}
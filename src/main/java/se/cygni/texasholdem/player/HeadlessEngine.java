@@ -0,0 +1,138 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays any number of independent HoldemTables in this JVM, as many at a
+ * time as there are threads, with the seats called directly instead of
+ * over sockets.
+ * <p/>
+ * The seats of a table are created by the Lineup when the table starts
+ * and dropped when it ends, so only the tables in play hold any state.
+ * Table n deals from a Random seeded with the seed and n alone, so the
+ * same seed deals the same cards at every table whatever the thread
+ * count, and two lineups played with the same seed meet the same cards.
+ */
+final class HeadlessEngine {
+
+    private static final long SEED_SPREAD = 0x9E3779B97F4A7C15L;
+
+    private final ExecutorService executor;
+    private final long startingChips;
+    private final long smallBlind;
+    private final long maxHands;
+
+    /**
+     * @param maxHands the hands a table plays unless a seat wins all the chips before
+     */
+    HeadlessEngine(int threads, long startingChips, long smallBlind, long maxHands) {
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("table-%d").setDaemon(true).build());
+        this.startingChips = startingChips;
+        this.smallBlind = smallBlind;
+        this.maxHands = maxHands;
+    }
+
+    /**
+     * Who sits where at a table.
+     */
+    interface Lineup {
+
+        /**
+         * @param table 0 for the first table played
+         * @return new seats, with names unique at the table
+         */
+        List<TableSeat> seats(int table);
+    }
+
+    /**
+     * How a table went for each of its seats.
+     */
+    static final class TableResult {
+
+        private final long[] chipsWon;
+        private final long hands;
+        private final long bigBlind;
+
+        TableResult(long[] chipsWon, long hands, long bigBlind) {
+            this.chipsWon = chipsWon;
+            this.hands = hands;
+            this.bigBlind = bigBlind;
+        }
+
+        /**
+         * @return chips at the end minus the starting chips, negative when lost
+         */
+        long getChipsWon(int seat) {
+            return chipsWon[seat];
+        }
+
+        double getBigBlindsWon(int seat) {
+            return (double) chipsWon[seat] / bigBlind;
+        }
+
+        long getHands() {
+            return hands;
+        }
+    }
+
+    /**
+     * Plays the tables and waits for all of them to finish.
+     *
+     * @return the result of every table, in table order
+     */
+    List<TableResult> play(int tables, final long seed, final Lineup lineup) {
+        List<Future<TableResult>> results = new ArrayList<Future<TableResult>>(tables);
+        for (int i = 0; i < tables; i++) {
+            final int table = i;
+            results.add(executor.submit(new Callable<TableResult>() {
+                @Override
+                public TableResult call() {
+                    return playTable(table, seed, lineup.seats(table));
+                }
+            }));
+        }
+
+        List<TableResult> played = new ArrayList<TableResult>(tables);
+        try {
+            for (Future<TableResult> result : results) {
+                played.add(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while playing", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (Future<TableResult> result : results) {
+                result.cancel(true);
+            }
+        }
+        return played;
+    }
+
+    private TableResult playTable(int table, long seed, List<TableSeat> seats) {
+        HoldemTable holdemTable = new HoldemTable(seats, startingChips, smallBlind, table,
+                new Random(seed + table * SEED_SPREAD));
+        holdemTable.play(maxHands);
+        long[] chipsWon = new long[seats.size()];
+        for (int seat = 0; seat < chipsWon.length; seat++) {
+            chipsWon[seat] = holdemTable.getChips(seat) - startingChips;
+        }
+        return new TableResult(chipsWon, holdemTable.getHandsPlayed(), holdemTable.getBigBlind());
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,460 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.communication.message.event.*;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.*;
+import se.cygni.texasholdem.game.definitions.ActionType;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deals Texas Hold'em to a number of seats until one of them holds all the
+ * chips, the way the poker server does.
+ * <p/>
+ * Blinds are fixed, a RAISE always adds one big blind on top of the call
+ * and there are at most four raises per betting round; ALL_IN is always
+ * possible. Side pots are split by HandEvaluator strength. All randomness
+ * comes from the Random given, so a seeded table replays identically.
+ */
+final class HoldemTable {
+
+    private static final int MAX_RAISES_PER_ROUND = 4;
+
+    private final TableSeat[] seats;
+    private final long[] chips;
+    private final long smallBlind;
+    private final long bigBlind;
+    private final long tableId;
+    private final Random random;
+
+    private final int[] deck = new int[CardMask.CARDS];
+    private int deckPosition;
+
+    // State of the current hand
+    private final boolean[] inHand;
+    private final boolean[] folded;
+    private final boolean[] allIn;
+    private final long[] invested;
+    private final long[] roundBet;
+    private final long[] holeCards;
+    private long board;
+    private final List<Card> boardCards = new ArrayList<Card>();
+
+    private int dealer = -1;
+    private long handsPlayed;
+    private long forcedFolds;
+
+    HoldemTable(List<? extends TableSeat> seats, long startingChips, long smallBlind, long tableId, Random random) {
+        int size = seats.size();
+        this.seats = seats.toArray(new TableSeat[size]);
+        this.chips = new long[size];
+        this.smallBlind = smallBlind;
+        this.bigBlind = 2 * smallBlind;
+        this.tableId = tableId;
+        this.random = random;
+        this.inHand = new boolean[size];
+        this.folded = new boolean[size];
+        this.allIn = new boolean[size];
+        this.invested = new long[size];
+        this.roundBet = new long[size];
+        this.holeCards = new long[size];
+        for (int i = 0; i < size; i++) {
+            chips[i] = startingChips;
+        }
+        for (int card = 0; card < CardMask.CARDS; card++) {
+            deck[card] = card;
+        }
+    }
+
+    /**
+     * Plays hands until a single seat holds all chips or maxHands have been played.
+     */
+    void play(long maxHands) {
+        while (handsPlayed < maxHands && playHand()) {
+            // keep dealing
+        }
+        finish();
+    }
+
+    /**
+     * Tells every seat that the table is done.
+     */
+    void finish() {
+        broadcast(new TableIsDoneEvent(players()));
+    }
+
+    /**
+     * @return false if fewer than two seats have chips left, i.e. the table is done
+     */
+    boolean playHand() {
+        if (seatsWithChips() < 2) {
+            return false;
+        }
+        startHand();
+
+        int smallBlindSeat = seatsWithChips() == 2 ? dealer : next(dealer);
+        int bigBlindSeat = next(smallBlindSeat);
+        broadcast(new PlayIsStartedEvent(players(), smallBlind, bigBlind,
+                player(dealer), player(smallBlindSeat), player(bigBlindSeat), tableId));
+        long postedSmallBlind = Math.min(smallBlind, chips[smallBlindSeat]);
+        bet(smallBlindSeat, postedSmallBlind);
+        broadcast(new PlayerBetSmallBlindEvent(player(smallBlindSeat), postedSmallBlind));
+        long postedBigBlind = Math.min(bigBlind, chips[bigBlindSeat]);
+        bet(bigBlindSeat, postedBigBlind);
+        broadcast(new PlayerBetBigBlindEvent(player(bigBlindSeat), postedBigBlind));
+
+        for (int round = 0; round < 2; round++) {
+            for (int seat = next(dealer), dealt = 0; dealt < countInHand(); seat = next(seat), dealt++) {
+                int card = deck[deckPosition++];
+                holeCards[seat] |= 1L << card;
+                seats[seat].onEvent(new YouHaveBeenDealtACardEvent(CardMask.card(card)));
+            }
+        }
+
+        broadcast(new TableChangedStateEvent(PlayState.PRE_FLOP));
+        bettingRound(next(bigBlindSeat));
+        dealStreet(PlayState.FLOP, 3);
+        dealStreet(PlayState.TURN, 1);
+        dealStreet(PlayState.RIVER, 1);
+        showDown();
+
+        handsPlayed++;
+        return seatsWithChips() >= 2;
+    }
+
+    long getChips(int seat) {
+        return chips[seat];
+    }
+
+    long getBigBlind() {
+        return bigBlind;
+    }
+
+    long getHandsPlayed() {
+        return handsPlayed;
+    }
+
+    /**
+     * @return number of times a seat failed to answer with one of the possible actions
+     */
+    long getForcedFolds() {
+        return forcedFolds;
+    }
+
+    private void startHand() {
+        for (int i = 0; i < seats.length; i++) {
+            inHand[i] = chips[i] > 0;
+            folded[i] = false;
+            allIn[i] = false;
+            invested[i] = 0;
+            roundBet[i] = 0;
+            holeCards[i] = 0;
+        }
+        board = 0;
+        boardCards.clear();
+        dealer = next(dealer < 0 ? seats.length - 1 : dealer);
+
+        // Partial Fisher-Yates, a hand never needs more than 23 cards
+        int needed = 2 * seats.length + 5;
+        for (int i = 0; i < needed && i < CardMask.CARDS - 1; i++) {
+            int j = i + random.nextInt(CardMask.CARDS - i);
+            int card = deck[j];
+            deck[j] = deck[i];
+            deck[i] = card;
+        }
+        deckPosition = 0;
+    }
+
+    private void dealStreet(PlayState street, int cards) {
+        if (countNotFolded() < 2) {
+            return;
+        }
+        broadcast(new TableChangedStateEvent(street));
+        for (int i = 0; i < cards; i++) {
+            int card = deck[deckPosition++];
+            board |= 1L << card;
+            boardCards.add(CardMask.card(card));
+            broadcast(new CommunityHasBeenDealtACardEvent(CardMask.card(card)));
+        }
+        for (int i = 0; i < seats.length; i++) {
+            roundBet[i] = 0;
+        }
+        bettingRound(next(dealer));
+    }
+
+    private void bettingRound(int firstSeat) {
+        long currentBet = 0;
+        for (long bet : roundBet) {
+            currentBet = Math.max(currentBet, bet);
+        }
+        int raises = 0;
+        int toAct = countActing();
+        int seat = firstSeat;
+
+        while (toAct > 0 && countNotFolded() > 1 && countActing() > 0) {
+            if (!inHand[seat] || folded[seat] || allIn[seat]) {
+                seat = next(seat);
+                continue;
+            }
+            if (countActing() == 1 && roundBet[seat] >= currentBet) {
+                // Everyone else is all in and there is nothing to call
+                break;
+            }
+
+            long toCall = currentBet - roundBet[seat];
+            List<Action> possibleActions = possibleActions(seat, toCall, raises < MAX_RAISES_PER_ROUND);
+            ActionRequest request = new ActionRequest();
+            request.setPossibleActions(possibleActions);
+            Action answer = seats[seat].actionRequired(request);
+            Action action = matching(possibleActions, answer);
+
+            toAct--;
+            if (action == null) {
+                forcedFolds++;
+                folded[seat] = true;
+                broadcast(new PlayerForcedFoldedEvent(player(seat), invested[seat]));
+            } else {
+                switch (action.getActionType()) {
+                    case FOLD:
+                        folded[seat] = true;
+                        broadcast(new PlayerFoldedEvent(player(seat), invested[seat]));
+                        break;
+                    case CHECK:
+                        broadcast(new PlayerCheckedEvent(player(seat)));
+                        break;
+                    case CALL:
+                        bet(seat, action.getAmount());
+                        broadcast(new PlayerCalledEvent(player(seat), action.getAmount()));
+                        break;
+                    case RAISE:
+                        bet(seat, action.getAmount());
+                        currentBet = roundBet[seat];
+                        raises++;
+                        toAct = countActing() - (allIn[seat] ? 0 : 1);
+                        broadcast(new PlayerRaisedEvent(player(seat), action.getAmount()));
+                        break;
+                    case ALL_IN:
+                        bet(seat, action.getAmount());
+                        if (roundBet[seat] > currentBet) {
+                            currentBet = roundBet[seat];
+                            toAct = countActing();
+                        }
+                        broadcast(new PlayerWentAllInEvent(player(seat), action.getAmount()));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            seat = next(seat);
+        }
+    }
+
+    private List<Action> possibleActions(int seat, long toCall, boolean mayRaise) {
+        List<Action> actions = new ArrayList<Action>();
+        actions.add(new Action(ActionType.FOLD, 0));
+        if (toCall == 0) {
+            actions.add(new Action(ActionType.CHECK, 0));
+        } else if (toCall < chips[seat]) {
+            actions.add(new Action(ActionType.CALL, toCall));
+        }
+        if (mayRaise && toCall + bigBlind < chips[seat]) {
+            actions.add(new Action(ActionType.RAISE, toCall + bigBlind));
+        }
+        actions.add(new Action(ActionType.ALL_IN, chips[seat]));
+        return actions;
+    }
+
+    /**
+     * @return the possible action of the same type as the answer, the server decides the amount
+     */
+    private static Action matching(List<Action> possibleActions, Action answer) {
+        if (answer == null) {
+            return null;
+        }
+        for (Action action : possibleActions) {
+            if (action.getActionType() == answer.getActionType()) {
+                return action;
+            }
+        }
+        return null;
+    }
+
+    private void bet(int seat, long amount) {
+        chips[seat] -= amount;
+        invested[seat] += amount;
+        roundBet[seat] += amount;
+        if (chips[seat] == 0) {
+            allIn[seat] = true;
+        }
+    }
+
+    /**
+     * Splits the main pot and every side pot among the best hands eligible for it.
+     */
+    private void showDown() {
+        long[] won = new long[seats.length];
+        int[] strength = new int[seats.length];
+        for (int i = 0; i < seats.length; i++) {
+            if (inHand[i] && !folded[i]) {
+                strength[i] = HandEvaluator.evaluate(holeCards[i] | board);
+            }
+        }
+
+        long previousLevel = 0;
+        while (true) {
+            long level = Long.MAX_VALUE;
+            for (int i = 0; i < seats.length; i++) {
+                if (inHand[i] && !folded[i] && invested[i] > previousLevel) {
+                    level = Math.min(level, invested[i]);
+                }
+            }
+            if (level == Long.MAX_VALUE) {
+                break;
+            }
+
+            long pot = 0;
+            int best = -1;
+            int winners = 0;
+            for (int i = 0; i < seats.length; i++) {
+                pot += Math.max(0, Math.min(invested[i], level) - previousLevel);
+                if (inHand[i] && !folded[i] && invested[i] >= level) {
+                    if (strength[i] > best) {
+                        best = strength[i];
+                        winners = 1;
+                    } else if (strength[i] == best) {
+                        winners++;
+                    }
+                }
+            }
+
+            // Odd chips go to the first winner after the dealer
+            long share = pot / winners;
+            long oddChips = pot - share * winners;
+            for (int seat = next(dealer), visited = 0; visited < seats.length; seat = (seat + 1) % seats.length, visited++) {
+                if (inHand[seat] && !folded[seat] && invested[seat] >= level && strength[seat] == best) {
+                    won[seat] += share + oddChips;
+                    oddChips = 0;
+                }
+            }
+            previousLevel = level;
+        }
+
+        // A seat that folded without facing a bet may have invested more than any
+        // remaining seat, those chips go to the winner of the top pot
+        long unclaimed = 0;
+        for (int i = 0; i < seats.length; i++) {
+            unclaimed += Math.max(0, invested[i] - previousLevel);
+        }
+        if (unclaimed > 0) {
+            for (int i = 0; i < seats.length; i++) {
+                if (won[i] > 0) {
+                    won[i] += unclaimed;
+                    break;
+                }
+            }
+        }
+
+        List<PlayerShowDown> showDowns = new ArrayList<PlayerShowDown>();
+        for (int i = 0; i < seats.length; i++) {
+            chips[i] += won[i];
+            if (inHand[i] && !folded[i] && countNotFolded() > 1) {
+                showDowns.add(new PlayerShowDown(player(i), hand(i, strength[i]), won[i]));
+            }
+        }
+        if (!showDowns.isEmpty()) {
+            broadcast(new ShowDownEvent(showDowns));
+        }
+        for (int i = 0; i < seats.length; i++) {
+            if (won[i] > 0) {
+                seats[i].onEvent(new YouWonAmountEvent(won[i], chips[i]));
+            }
+        }
+    }
+
+    private Hand hand(int seat, int strength) {
+        List<Card> cards = new ArrayList<Card>(boardCards);
+        for (int card = 0; card < CardMask.CARDS; card++) {
+            if ((holeCards[seat] & (1L << card)) != 0) {
+                cards.add(CardMask.card(card));
+            }
+        }
+        return new Hand(cards, HandEvaluator.pokerHand(strength));
+    }
+
+    private void broadcast(TexasEvent event) {
+        for (TableSeat seat : seats) {
+            seat.onEvent(event);
+        }
+    }
+
+    private GamePlayer player(int seat) {
+        return new GamePlayer(seats[seat].getName(), chips[seat]);
+    }
+
+    private List<GamePlayer> players() {
+        List<GamePlayer> players = new ArrayList<GamePlayer>();
+        for (int i = 0; i < seats.length; i++) {
+            if (chips[i] > 0 || inHand[i]) {
+                players.add(player(i));
+            }
+        }
+        return Collections.unmodifiableList(players);
+    }
+
+    /**
+     * @return the next seat after the given one that is dealt into the current hand
+     */
+    private int next(int seat) {
+        for (int i = 1; i <= seats.length; i++) {
+            int candidate = (seat + i) % seats.length;
+            if (inHand[candidate]) {
+                return candidate;
+            }
+        }
+        return seat;
+    }
+
+    private int seatsWithChips() {
+        int count = 0;
+        for (long stack : chips) {
+            if (stack > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int countInHand() {
+        int count = 0;
+        for (boolean seated : inHand) {
+            if (seated) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int countNotFolded() {
+        int count = 0;
+        for (int i = 0; i < seats.length; i++) {
+            if (inHand[i] && !folded[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int countActing() {
+        int count = 0;
+        for (int i = 0; i < seats.length; i++) {
+            if (inHand[i] && !folded[i] && !allIn[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,175 @@
+package se.cygni.texasholdem.player;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Tournament equity of the chip stacks by the Malmuth-Harville model: a
+ * player finishes first with the probability of their share of the chips,
+ * and each following place is shared out the same way among those left.
+ * <p/>
+ * Up to EXACT_PLAYERS players the model is evaluated exactly over the
+ * subsets of players still without a place. The probability of reaching
+ * each subset is kept in an array indexed by its bitmask, so every subset
+ * is visited once instead of once per finishing order, and subsets that
+ * can no longer reach a paid place are skipped. Larger fields are
+ * estimated by drawing the paid places of many finishing orders, each
+ * place among the players left in proportion to their chips.
+ * <p/>
+ * The payouts are set with the system property deepthought.icm.payouts as
+ * comma separated shares of the prize pool, first place first.
+ */
+final class IcmCalculator {
+
+    static final int EXACT_PLAYERS = 12;
+    static final String DEFAULT_PAYOUTS = "0.5,0.3,0.2";
+
+    private static final int DEFAULT_SAMPLES = 2000;
+
+    private final double[] payouts;
+    private final int samples;
+
+    IcmCalculator() {
+        this(parsePayouts(System.getProperty("deepthought.icm.payouts", DEFAULT_PAYOUTS)), DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param payouts share of the prize pool per place, first place first
+     * @param samples finishing orders drawn for fields larger than EXACT_PLAYERS
+     */
+    IcmCalculator(double[] payouts, int samples) {
+        this.payouts = payouts.clone();
+        this.samples = samples;
+    }
+
+    static double[] parsePayouts(String payouts) {
+        String[] shares = payouts.split(",");
+        double[] parsed = new double[shares.length];
+        for (int place = 0; place < shares.length; place++) {
+            parsed[place] = Double.parseDouble(shares[place].trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the chips of every player at the table that are not in the pot, by seat
+     */
+    static long[] stacks(TableState.Snapshot playState) {
+        long[] stacks = new long[playState.getNumberOfPlayers()];
+        for (int seat = 0; seat < stacks.length; seat++) {
+            stacks[seat] = playState.getStack(seat);
+        }
+        return stacks;
+    }
+
+    /**
+     * @param stacks the chips of each player, players without chips have finished already
+     * @return the share of the prize pool each player is expected to win
+     */
+    double[] equities(long[] stacks) {
+        int[] alive = new int[stacks.length];
+        int players = 0;
+        for (int i = 0; i < stacks.length; i++) {
+            if (stacks[i] > 0) {
+                alive[players++] = i;
+            }
+        }
+
+        double[] equities = new double[stacks.length];
+        if (players == 0) {
+            return equities;
+        }
+        double[] chips = new double[players];
+        for (int i = 0; i < players; i++) {
+            chips[i] = stacks[alive[i]];
+        }
+        double[] aliveEquities = players <= EXACT_PLAYERS ? exact(chips) : sampled(chips);
+        for (int i = 0; i < players; i++) {
+            equities[alive[i]] = aliveEquities[i];
+        }
+        return equities;
+    }
+
+    /**
+     * @return the prize pool share of the player at index if the stacks were as given
+     */
+    double equity(long[] stacks, int index) {
+        return equities(stacks)[index];
+    }
+
+    private double[] exact(double[] chips) {
+        int players = chips.length;
+        int full = (1 << players) - 1;
+        int paid = Math.min(payouts.length, players);
+
+        // Chips per subset, built from the subset without its lowest player
+        double[] chipsIn = new double[full + 1];
+        for (int mask = 1; mask <= full; mask++) {
+            chipsIn[mask] = chipsIn[mask & (mask - 1)] + chips[Integer.numberOfTrailingZeros(mask)];
+        }
+
+        // Probability that exactly these players are still without a place
+        double[] reach = new double[full + 1];
+        reach[full] = 1;
+        double[] equities = new double[players];
+        for (int mask = full; mask > 0; mask--) {
+            double probability = reach[mask];
+            if (probability == 0) {
+                continue;
+            }
+            int place = players - Integer.bitCount(mask);
+            if (place >= paid) {
+                continue;
+            }
+            double payout = payouts[place];
+            for (int remaining = mask; remaining != 0; remaining &= remaining - 1) {
+                int player = Integer.numberOfTrailingZeros(remaining);
+                double next = probability * chips[player] / chipsIn[mask];
+                equities[player] += next * payout;
+                reach[mask & ~(1 << player)] += next;
+            }
+        }
+        return equities;
+    }
+
+    private double[] sampled(double[] chips) {
+        int players = chips.length;
+        int paid = Math.min(payouts.length, players);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double total = 0;
+        for (double stack : chips) {
+            total += stack;
+        }
+        boolean[] placed = new boolean[players];
+        int[] winners = new int[paid];
+        double[] equities = new double[players];
+
+        for (int sample = 0; sample < samples; sample++) {
+            // Only the paid places are drawn, each among the players not yet placed
+            double remaining = total;
+            for (int place = 0; place < paid; place++) {
+                double target = random.nextDouble() * remaining;
+                int winner = -1;
+                for (int player = 0; player < players; player++) {
+                    if (!placed[player]) {
+                        winner = player;
+                        target -= chips[player];
+                        if (target < 0) {
+                            break;
+                        }
+                    }
+                }
+                placed[winner] = true;
+                winners[place] = winner;
+                remaining -= chips[winner];
+                equities[winner] += payouts[place];
+            }
+            for (int place = 0; place < paid; place++) {
+                placed[winners[place]] = false;
+            }
+        }
+        for (int player = 0; player < players; player++) {
+            equities[player] /= samples;
+        }
+        return equities;
+    }
+}
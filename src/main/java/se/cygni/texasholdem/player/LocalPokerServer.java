@@ -0,0 +1,326 @@
+package se.cygni.texasholdem.player;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.string.StringDecoder;
+import org.jboss.netty.handler.codec.string.StringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.communication.message.TexasMessage;
+import se.cygni.texasholdem.communication.message.TexasMessageParser;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.communication.message.request.RegisterForPlayRequest;
+import se.cygni.texasholdem.communication.message.response.ActionResponse;
+import se.cygni.texasholdem.communication.message.response.RegisterForPlayResponse;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.definitions.ActionType;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for poker.cygni.se on the loopback interface, for measuring a
+ * bot end to end and for soak testing it for hours.
+ * <p/>
+ * Bots connect and register exactly as with the real server. As soon as
+ * enough bots have registered a table is started, topped up with house
+ * players that always check or call, and new tables are dealt to the same
+ * bots until the time is up. Every action request is timed from the moment
+ * it is written to the socket until the answer has been decoded, and the
+ * latency percentiles, hands per second and forced folds are logged.
+ * <p/>
+ * Usage: LocalPokerServer [port] [botsPerTable] [seatsPerTable] [minutes] [actionTimeoutMillis]
+ * <p/>
+ * Start the bot against it with: FullyImplementedBot localhost [port]
+ */
+public class LocalPokerServer {
+
+    private static Logger log = LoggerFactory
+            .getLogger(LocalPokerServer.class);
+
+    // Frame delimiter used by the texas-holdem client between JSON messages
+    static final String MESSAGE_DELIMITER = "_-^emil^-_";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_FRAME_LENGTH = 256 * 1024;
+
+    private static final long STARTING_CHIPS = 10000;
+    private static final long SMALL_BLIND = 5;
+    private static final long REPORT_INTERVAL_SECONDS = 10;
+
+    private final int port;
+    private final int botsPerTable;
+    private final int seatsPerTable;
+    private final long endNanos;
+    private final long actionTimeoutMillis;
+
+    private final ConcurrentMap<Channel, NetworkSeat> seatsByChannel = new ConcurrentHashMap<Channel, NetworkSeat>();
+    private final List<NetworkSeat> lobby = new ArrayList<NetworkSeat>();
+    private final ExecutorService tables = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+
+    private final LatencyHistogram actionLatency = new LatencyHistogram();
+    private final AtomicLong hands = new AtomicLong();
+    private final AtomicLong forcedFolds = new AtomicLong();
+    private final AtomicLong tableIds = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    private ServerBootstrap bootstrap;
+
+    public LocalPokerServer(int port, int botsPerTable, int seatsPerTable, long minutes, long actionTimeoutMillis) {
+        this.port = port;
+        this.botsPerTable = botsPerTable;
+        this.seatsPerTable = Math.max(seatsPerTable, botsPerTable);
+        this.endNanos = startNanos + TimeUnit.MINUTES.toNanos(minutes);
+        this.actionTimeoutMillis = actionTimeoutMillis;
+    }
+
+    public static void main(String... args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4711;
+        int botsPerTable = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int seatsPerTable = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        long minutes = args.length > 3 ? Long.parseLong(args[3]) : 60;
+        long actionTimeoutMillis = args.length > 4 ? Long.parseLong(args[4]) : 5000;
+
+        new LocalPokerServer(port, botsPerTable, seatsPerTable, minutes, actionTimeoutMillis).start();
+    }
+
+    public void start() {
+        bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(
+                        new DelimiterBasedFrameDecoder(MAX_FRAME_LENGTH, ChannelBuffers.copiedBuffer(MESSAGE_DELIMITER, UTF_8)),
+                        new StringDecoder(UTF_8),
+                        new StringEncoder(UTF_8),
+                        new ServerHandler());
+            }
+        });
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.bind(new InetSocketAddress(port));
+
+        reporter.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+        log.info("Local poker server listening on port {}, {} bot(s) per table with {} seats",
+                port, botsPerTable, seatsPerTable);
+    }
+
+    public void stop() {
+        reporter.shutdownNow();
+        tables.shutdownNow();
+        for (Channel channel : seatsByChannel.keySet()) {
+            channel.close();
+        }
+        if (bootstrap != null) {
+            bootstrap.releaseExternalResources();
+        }
+        report();
+    }
+
+    void report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        log.info("{} hands, {} hands/s, {} forced folds, action latency {}",
+                hands.get(), String.format("%.1f", hands.get() / seconds), forcedFolds.get(), actionLatency);
+    }
+
+    private void register(NetworkSeat seat) {
+        List<TableSeat> seats = null;
+        synchronized (lobby) {
+            lobby.add(seat);
+            if (lobby.size() == botsPerTable) {
+                seats = new ArrayList<TableSeat>(lobby);
+                lobby.clear();
+            }
+        }
+        if (seats != null) {
+            for (int i = seats.size(); i < seatsPerTable; i++) {
+                seats.add(new HouseSeat("House_" + i));
+            }
+            startTables(seats);
+        }
+    }
+
+    /**
+     * Deals table after table to the seats until the time is up or a bot leaves.
+     */
+    private void startTables(final List<TableSeat> seats) {
+        tables.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (System.nanoTime() - endNanos < 0 && allConnected(seats)) {
+                    HoldemTable table = new HoldemTable(seats, STARTING_CHIPS, SMALL_BLIND,
+                            tableIds.incrementAndGet(), new Random());
+                    boolean tableIsPlaying = true;
+                    while (tableIsPlaying && System.nanoTime() - endNanos < 0 && allConnected(seats)) {
+                        tableIsPlaying = table.playHand();
+                        hands.incrementAndGet();
+                    }
+                    forcedFolds.addAndGet(table.getForcedFolds());
+                    table.finish();
+                }
+                report();
+            }
+        });
+    }
+
+    private static boolean allConnected(List<TableSeat> seats) {
+        for (TableSeat seat : seats) {
+            if (seat instanceof NetworkSeat && !((NetworkSeat) seat).channel.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void send(Channel channel, TexasMessage message) {
+        try {
+            channel.write(TexasMessageParser.encodeMessage(message) + MESSAGE_DELIMITER);
+        } catch (Exception e) {
+            log.error("Could not encode {}", message, e);
+        }
+    }
+
+    private final class ServerHandler extends SimpleChannelUpstreamHandler {
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            TexasMessage message = TexasMessageParser.decodeMessage((String) e.getMessage());
+
+            if (message instanceof RegisterForPlayRequest) {
+                RegisterForPlayRequest request = (RegisterForPlayRequest) message;
+                NetworkSeat seat = new NetworkSeat(e.getChannel(), request.getName());
+                seatsByChannel.put(e.getChannel(), seat);
+
+                RegisterForPlayResponse response = new RegisterForPlayResponse();
+                response.setRequestId(request.getRequestId());
+                response.setSessionId(UUID.randomUUID().toString());
+                send(e.getChannel(), response);
+
+                log.info("{} registered for play in {}", request.getName(), request.getRoom());
+                register(seat);
+            } else if (message instanceof ActionResponse) {
+                NetworkSeat seat = seatsByChannel.get(e.getChannel());
+                if (seat != null) {
+                    seat.responses.offer((ActionResponse) message);
+                }
+            }
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            NetworkSeat seat = seatsByChannel.remove(e.getChannel());
+            if (seat != null) {
+                log.info("{} disconnected", seat.name);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            log.warn("Closing connection after error", e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    /**
+     * A bot behind a socket, answers are handed over from the Netty I/O thread.
+     */
+    private final class NetworkSeat implements TableSeat {
+
+        private final Channel channel;
+        private final String name;
+        private final BlockingQueue<ActionResponse> responses = new LinkedBlockingQueue<ActionResponse>();
+        private long requestIds;
+
+        NetworkSeat(Channel channel, String name) {
+            this.channel = channel;
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onEvent(TexasEvent event) {
+            send(channel, event);
+        }
+
+        @Override
+        public Action actionRequired(ActionRequest request) {
+            String requestId = name + "-" + (++requestIds);
+            request.setRequestId(requestId);
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(actionTimeoutMillis);
+            send(channel, request);
+
+            try {
+                while (channel.isConnected()) {
+                    ActionResponse response = responses.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (response == null) {
+                        log.warn("{} did not answer {} within {} ms", name, requestId, actionTimeoutMillis);
+                        return null;
+                    }
+                    if (requestId.equals(response.getRequestId())) {
+                        actionLatency.record(System.nanoTime() - start);
+                        return response.getAction();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Fills empty seats, checks when it can and calls everything else.
+     */
+    private static final class HouseSeat implements TableSeat {
+
+        private final String name;
+
+        HouseSeat(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onEvent(TexasEvent event) {
+        }
+
+        @Override
+        public Action actionRequired(ActionRequest request) {
+            Action fallback = null;
+            for (Action action : request.getPossibleActions()) {
+                if (action.getActionType() == ActionType.CHECK || action.getActionType() == ActionType.CALL) {
+                    return action;
+                }
+                if (action.getActionType() == ActionType.ALL_IN) {
+                    fallback = action;
+                }
+            }
+            return fallback;
+        }
+    }
+}
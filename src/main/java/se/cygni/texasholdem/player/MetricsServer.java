@@ -0,0 +1,67 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves BotMetrics as plain text at http://localhost:port/metrics, for
+ * curl and for monitoring tools that scrape.
+ * <p/>
+ * Only listens on the loopback interface. Started by BotResources when the
+ * system property deepthought.metrics.port is set.
+ */
+final class MetricsServer {
+
+    private static Logger log = LoggerFactory
+            .getLogger(MetricsServer.class);
+
+    static final String PATH = "/metrics";
+
+    private MetricsServer() {
+    }
+
+    /**
+     * @return the running server, or null if the port could not be bound
+     */
+    static HttpServer start(int port, final BotMetrics metrics) {
+        HttpServer server;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch (IOException e) {
+            log.warn("Could not serve metrics on port {}", port, e);
+            return null;
+        }
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StringBuilder sb = new StringBuilder(2048);
+                metrics.appendText(sb);
+                byte[] body = sb.toString().getBytes(Charsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("metrics-http").setDaemon(true).build()));
+        server.start();
+        log.info("Serving metrics at http://localhost:{}{}", server.getAddress().getPort(), PATH);
+        return server;
+    }
+}
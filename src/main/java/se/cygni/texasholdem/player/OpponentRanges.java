@@ -0,0 +1,334 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.game.GamePlayer;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The hole cards each opponent still in the hand may hold, as a weight per
+ * combo, narrowed with Bayes' rule by every call and raise.
+ * <p/>
+ * A player is assumed to raise with about the share of their combos they
+ * raise with in our statistics of them, and to call with the share they
+ * play. Every combo is ranked by strength, before the flop by its heads-up
+ * win probability and after it by its hand on the board, and an action
+ * multiplies each combo's weight by a smooth step around the matching
+ * percentile. Weak combos keep a floor so bluffs and slow plays are never
+ * ruled out completely.
+ * <p/>
+ * Board cards and our own cards are not removed here, the equity engine
+ * drops every combo that collides with them.
+ * <p/>
+ * The frequencies are rounded to FREQUENCY_STEPS steps, so a range is
+ * fully determined by the boards and rounded frequencies it was narrowed
+ * with. Each range carries an identity hashed from those, and a snapshot
+ * combines the identities of its ranges into a key the EquityCache can
+ * remember its equities by.
+ * <p/>
+ * Events come from the event thread, snapshots may be taken from any thread.
+ * A range is never changed once it is in a snapshot: narrowing replaces it
+ * with a new array, so a snapshot shares the arrays instead of copying
+ * them, and the same snapshot is handed out until the ranges change.
+ */
+final class OpponentRanges {
+
+    // Observed frequencies are trusted after this many hands
+    private static final int MIN_HANDS = 30;
+    private static final double DEFAULT_RAISE_FREQUENCY = 0.15;
+    private static final double DEFAULT_CALL_FREQUENCY = 0.35;
+    private static final double DEFAULT_POSTFLOP_RAISE_FREQUENCY = 0.3;
+    private static final double DEFAULT_POSTFLOP_CALL_FREQUENCY = 0.6;
+
+    private static final double STEP_WIDTH = 0.05;
+    private static final int FREQUENCY_STEPS = 40;
+    private static final float FLOOR = 0.05f;
+
+    private static final float[] ANY_COMBO = new float[Combos.COUNT]; //Shared by every opponent until narrowed, never written
+
+    static {
+        Arrays.fill(ANY_COMBO, 1f);
+    }
+
+    private final String myName;
+    private final OpponentStats opponentStats;
+    private final float[] preflopPercentile;
+
+    // Guarded by this, the arrays are copied on write
+    private final Map<String, float[]> rangesByName = new LinkedHashMap<String, float[]>();
+    private final Map<String, Long> identityByName = new LinkedHashMap<String, Long>();
+    private boolean narrowed;
+    private boolean narrowedOnBoard;
+    private long version;
+    private Snapshot latest; //null when the ranges changed since the last snapshot
+
+    private long board;
+    private float[] boardPercentile;
+
+    OpponentRanges(String myName, PreflopTable preflopTable, OpponentStats opponentStats) {
+        this.myName = myName;
+        this.opponentStats = opponentStats;
+        this.preflopPercentile = preflopPercentiles(preflopTable);
+    }
+
+    synchronized void onPlayIsStarted(List<GamePlayer> players) {
+        rangesByName.clear();
+        identityByName.clear();
+        for (GamePlayer player : players) {
+            if (!myName.equals(player.getName())) {
+                rangesByName.put(player.getName(), ANY_COMBO);
+                identityByName.put(player.getName(), 0L);
+            }
+        }
+        narrowed = false;
+        narrowedOnBoard = false;
+        board = 0L;
+        boardPercentile = null;
+        changed();
+    }
+
+    /**
+     * @param board CardMask of all community cards dealt so far
+     */
+    synchronized void onCommunityCards(long board) {
+        this.board = board;
+        boardPercentile = null;
+    }
+
+    synchronized void onPlayerFolded(String name) {
+        if (rangesByName.remove(name) != null) {
+            identityByName.remove(name);
+            changed();
+        }
+    }
+
+    synchronized void onPlayerCalled(String name) {
+        boolean preflop = Long.bitCount(board) < 3;
+        double frequency = preflop
+                ? frequency(opponentStats.getVpip(name), name, DEFAULT_CALL_FREQUENCY)
+                : DEFAULT_POSTFLOP_CALL_FREQUENCY;
+        narrow(name, frequency);
+    }
+
+    /**
+     * Raises and all-ins narrow the range alike.
+     */
+    synchronized void onPlayerRaised(String name) {
+        double frequency;
+        if (Long.bitCount(board) < 3) {
+            frequency = frequency(opponentStats.getPfr(name), name, DEFAULT_RAISE_FREQUENCY);
+        } else {
+            // Share of aggressive actions among raises and calls
+            double aggression = opponentStats.getAggressionFactor(name);
+            frequency = frequency(aggression / (1 + aggression), name, DEFAULT_POSTFLOP_RAISE_FREQUENCY);
+        }
+        narrow(name, frequency);
+    }
+
+    /**
+     * @param opponents the number of opponents to assume with random hands if no hand has been started
+     */
+    synchronized Snapshot snapshot(int opponents) {
+        if (rangesByName.isEmpty()) {
+            return new Snapshot(-1, opponents, null, 0L, true);
+        }
+        if (latest == null) {
+            latest = narrowed
+                    ? new Snapshot(version, rangesByName.size(),
+                    rangesByName.values().toArray(new float[rangesByName.size()][]), rangesKey(), !narrowedOnBoard)
+                    : new Snapshot(version, rangesByName.size(), null, 0L, true);
+        }
+        return latest;
+    }
+
+    /**
+     * @return the identities of the ranges combined regardless of the order of the players
+     */
+    private long rangesKey() {
+        long[] identities = new long[identityByName.size()];
+        int i = 0;
+        for (Long identity : identityByName.values()) {
+            identities[i++] = identity;
+        }
+        Arrays.sort(identities);
+        long key = identities.length;
+        for (long identity : identities) {
+            key = mix(key * 31 + identity);
+        }
+        return key;
+    }
+
+    /**
+     * The finalizer of SplitMix64, spreads every input bit over the output.
+     */
+    private static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private void changed() {
+        version++;
+        latest = null;
+    }
+
+    private double frequency(double observed, String name, double defaultFrequency) {
+        if (Double.isNaN(observed) || opponentStats.getHands(name) < MIN_HANDS) {
+            return defaultFrequency;
+        }
+        return Math.max(0.02, Math.min(1.0, observed));
+    }
+
+    /**
+     * Multiplies every combo with the likelihood of the action, the top
+     * frequency share of combos are likely to take it.
+     */
+    private void narrow(String name, double frequency) {
+        float[] previous = rangesByName.get(name);
+        if (previous == null) {
+            return;
+        }
+        boolean preflop = Long.bitCount(board) < 3;
+        float[] percentile = preflop ? preflopPercentile : boardPercentile();
+        int steps = Math.max(1, (int) Math.round(frequency * FREQUENCY_STEPS));
+        double threshold = 1 - (double) steps / FREQUENCY_STEPS;
+        float[] range = new float[Combos.COUNT];
+        float max = 0f;
+        for (int combo = 0; combo < Combos.COUNT; combo++) {
+            double step = 1 / (1 + Math.exp((threshold - percentile[combo]) / STEP_WIDTH));
+            range[combo] = previous[combo] * (FLOOR + (1 - FLOOR) * (float) step);
+            max = Math.max(max, range[combo]);
+        }
+        // Keep the largest weight at 1 so repeated narrowing never underflows
+        if (max > 0) {
+            float scale = 1 / max;
+            for (int combo = 0; combo < Combos.COUNT; combo++) {
+                range[combo] *= scale;
+            }
+        }
+        rangesByName.put(name, range);
+        // Preflop every suit is alike, on the board the range depends on the exact cards
+        identityByName.put(name, mix(identityByName.get(name) * 31 + (preflop ? 0L : board) * FREQUENCY_STEPS + steps));
+        narrowed = true;
+        narrowedOnBoard |= !preflop;
+        changed();
+    }
+
+    /**
+     * Percentile of every combo's hand on the current board, calculated
+     * once per board.
+     */
+    private float[] boardPercentile() {
+        if (boardPercentile == null) {
+            int[] values = new int[Combos.COUNT];
+            for (int combo = 0; combo < Combos.COUNT; combo++) {
+                values[combo] = (Combos.MASK[combo] & board) == 0 ? HandEvaluator.evaluate(Combos.MASK[combo] | board) : -1;
+            }
+            boardPercentile = percentiles(values);
+        }
+        return boardPercentile;
+    }
+
+    private static float[] preflopPercentiles(PreflopTable preflopTable) {
+        int[] values = new int[Combos.COUNT];
+        for (int combo = 0; combo < Combos.COUNT; combo++) {
+            int handClass = PreflopTable.handClass(CardMask.card(Combos.FIRST[combo]), CardMask.card(Combos.SECOND[combo]));
+            // Percent with two decimals is more than the statistics hold
+            values[combo] = Math.round(100 * preflopTable.winProbability(PreflopTable.MIN_PLAYERS, handClass));
+        }
+        return percentiles(values);
+    }
+
+    /**
+     * @param values strength of each combo, negative for combos that can not be held
+     * @return the share of possible combos weaker than each combo, ties counting half
+     */
+    static float[] percentiles(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int impossible = 0;
+        while (impossible < sorted.length && sorted[impossible] < 0) {
+            impossible++;
+        }
+        int possible = sorted.length - impossible;
+
+        float[] percentiles = new float[values.length];
+        for (int combo = 0; combo < values.length; combo++) {
+            if (values[combo] < 0) {
+                continue;
+            }
+            int below = lowerBound(sorted, values[combo]) - impossible;
+            int equal = lowerBound(sorted, values[combo] + 1) - impossible - below;
+            percentiles[combo] = (below + 0.5f * equal) / possible;
+        }
+        return percentiles;
+    }
+
+    private static int lowerBound(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The ranges at one moment, safe to hand to another thread.
+     */
+    static final class Snapshot {
+
+        private final long version;
+        private final int opponents;
+        private final float[][] ranges;
+        private final long rangesKey;
+        private final boolean suitSymmetric;
+
+        Snapshot(long version, int opponents, float[][] ranges, long rangesKey, boolean suitSymmetric) {
+            this.version = version;
+            this.opponents = opponents;
+            this.ranges = ranges;
+            this.rangesKey = rangesKey;
+            this.suitSymmetric = suitSymmetric;
+        }
+
+        int getOpponents() {
+            return opponents;
+        }
+
+        /**
+         * @return the weight per combo of each opponent, null while all opponents may hold anything.
+         * Shared with other snapshots, never to be written
+         */
+        float[][] getRanges() {
+            return ranges;
+        }
+
+        /**
+         * @return the same key for every snapshot with the same ranges, in whatever hand or seat order
+         */
+        long getRangesKey() {
+            return rangesKey;
+        }
+
+        /**
+         * @return true if the ranges were only narrowed before the flop, so
+         * renaming the suits of a situation leaves them as they are
+         */
+        boolean isSuitSymmetric() {
+            return suitSymmetric;
+        }
+
+        boolean isSameAs(Snapshot other) {
+            return version == other.version && opponents == other.opponents;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.game.GamePlayer;
+import se.cygni.texasholdem.game.PlayerShowDown;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Long-running statistics about every player we have met, kept across
+ * sessions in a memory-mapped file.
+ * <p/>
+ * Each player has a fixed-size record of counters in the file, found by
+ * name through an index built when the file is opened. The table events
+ * update the counters in place, an int or two per event, and the file is
+ * forced to disk when the table is done. When all records are taken the
+ * player seen in the fewest hands gives up their record, found through a
+ * heap of the records by hands seen, so a new player costs O(log n) and
+ * not a scan of the file.
+ * <p/>
+ * The events must come from a single thread, the event thread, and the
+ * ratios must be read from it too, as OpponentRanges does when it narrows
+ * a range. Nothing is synchronized: a record may be given up and reset by
+ * the next event, so a read from another thread could mix the counters of
+ * two players.
+ * <p/>
+ * File layout, big-endian: magic 'DTOS', version, counters per record,
+ * capacity and records used, followed by the records. A record is the
+ * name (length and up to 24 UTF-16 chars) and the counters.
+ */
+final class OpponentStats {
+
+    private static Logger log = LoggerFactory
+            .getLogger(OpponentStats.class);
+
+    static final String DEFAULT_FILE = "opponent-stats.bin";
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAGIC = 0x44544F53;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int USED_OFFSET = 12;
+    private static final int NAME_CHARS = 24;
+    private static final int NAME_BYTES = 2 + NAME_CHARS * 2;
+
+    // Counters of a record
+    private static final int HANDS = 0;
+    private static final int VOLUNTARY_PREFLOP = 1;
+    private static final int RAISED_PREFLOP = 2;
+    private static final int AGGRESSIVE_POSTFLOP = 3;
+    private static final int CALLED_POSTFLOP = 4;
+    private static final int SAW_FLOP = 5;
+    private static final int SHOWDOWNS = 6;
+    private static final int FACED_RAISE = 7;
+    private static final int FOLDED_TO_RAISE = 8;
+    private static final int COUNTERS = 9;
+
+    private static final int RECORD_BYTES = NAME_BYTES + COUNTERS * 4;
+
+    // What a player has done so far this hand
+    private static final byte IN_HAND = 1;
+    private static final byte FOLDED = 2;
+    private static final byte COUNTED_VOLUNTARY = 4;
+    private static final byte COUNTED_RAISE = 8;
+
+    private final ByteBuffer data;
+    private final int capacity;
+    private final Map<String, Integer> recordsByName = new HashMap<String, Integer>();
+    private int used;
+
+    // Min-heap by hands of the records not in the hand in progress. Hands are only
+    // counted while a record is in the hand and out of the heap, so keys never change in it
+    private final int[] evictable;
+    private final int[] heapIndex; //Position of each record in evictable, -1 if not in it
+    private int evictableSize;
+
+    private final byte[] handFlags;
+    private int[] handRecords = new int[0];
+    private PlayState street = PlayState.PRE_FLOP;
+    private boolean raisedOnStreet;
+
+    /**
+     * @param data HEADER_BYTES + capacity records, either empty or holding earlier statistics
+     */
+    OpponentStats(ByteBuffer data, int capacity) {
+        this.data = data;
+        this.capacity = capacity;
+        this.handFlags = new byte[capacity];
+        this.evictable = new int[capacity];
+        this.heapIndex = new int[capacity];
+        Arrays.fill(heapIndex, -1);
+
+        if (data.getInt(0) == MAGIC && data.getShort(4) == VERSION
+                && data.getShort(6) == COUNTERS && data.getInt(8) == capacity) {
+            used = data.getInt(USED_OFFSET);
+            for (int record = 0; record < used; record++) {
+                recordsByName.put(readName(record), record);
+                offer(record);
+            }
+        } else {
+            if (data.getInt(0) != 0) {
+                log.warn("Discarding opponent statistics with an unsupported layout");
+            }
+            for (int i = 0; i < data.capacity(); i++) {
+                data.put(i, (byte) 0);
+            }
+            data.putInt(0, MAGIC);
+            data.putShort(4, VERSION);
+            data.putShort(6, (short) COUNTERS);
+            data.putInt(8, capacity);
+            data.putInt(USED_OFFSET, 0);
+        }
+    }
+
+    /**
+     * Memory maps the statistics file, creating it if needed. Falls back to
+     * statistics kept only in memory if the file can not be used.
+     */
+    static OpponentStats open(File file) {
+        int size = HEADER_BYTES + DEFAULT_CAPACITY * RECORD_BYTES;
+        try {
+            RandomAccessFile output = new RandomAccessFile(file, "rw");
+            try {
+                // The mapping stays valid after the file is closed
+                MappedByteBuffer data = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                OpponentStats stats = new OpponentStats(data, DEFAULT_CAPACITY);
+                log.info("Opponent statistics for {} players in {}", stats.used, file);
+                return stats;
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            log.warn("Could not map {}, opponent statistics will not be kept", file, e);
+            return inMemory();
+        }
+    }
+
+    static OpponentStats inMemory() {
+        return new OpponentStats(ByteBuffer.allocate(HEADER_BYTES + DEFAULT_CAPACITY * RECORD_BYTES), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Writes the changed counters to disk.
+     */
+    void flush() {
+        if (data instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) data).force();
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Table events
+     * ***********************************************************************
+     */
+
+    void onPlayIsStarted(List<GamePlayer> players) {
+        for (int record : handRecords) {
+            handFlags[record] = 0;
+            offer(record);
+        }
+        int[] records = new int[players.size()];
+        int size = 0;
+        for (GamePlayer player : players) {
+            int record = recordFor(player.getName());
+            handFlags[record] = IN_HAND;
+            remove(record);
+            increment(record, HANDS);
+            records[size++] = record;
+        }
+        handRecords = records;
+        street = PlayState.PRE_FLOP;
+        raisedOnStreet = false;
+    }
+
+    void onTableChangedState(PlayState state) {
+        street = state;
+        raisedOnStreet = false;
+        if (state == PlayState.FLOP) {
+            for (int record : handRecords) {
+                if ((handFlags[record] & (IN_HAND | FOLDED)) == IN_HAND) {
+                    increment(record, SAW_FLOP);
+                }
+            }
+        }
+    }
+
+    void onPlayerCalled(String name) {
+        int record = actingRecord(name);
+        if (street == PlayState.PRE_FLOP) {
+            countVoluntary(record);
+        } else {
+            increment(record, CALLED_POSTFLOP);
+        }
+    }
+
+    /**
+     * Raises and all-ins both count as aggression.
+     */
+    void onPlayerRaised(String name) {
+        int record = actingRecord(name);
+        if (street == PlayState.PRE_FLOP) {
+            countVoluntary(record);
+            if ((handFlags[record] & COUNTED_RAISE) == 0) {
+                handFlags[record] |= COUNTED_RAISE;
+                increment(record, RAISED_PREFLOP);
+            }
+        } else {
+            increment(record, AGGRESSIVE_POSTFLOP);
+        }
+        raisedOnStreet = true;
+    }
+
+    void onPlayerFolded(String name) {
+        boolean facingRaise = raisedOnStreet;
+        int record = actingRecord(name);
+        handFlags[record] |= FOLDED;
+        if (facingRaise) {
+            increment(record, FOLDED_TO_RAISE);
+        }
+    }
+
+    /**
+     * Only counts when two or more hands were shown, a hand everybody
+     * else folded to is no showdown.
+     */
+    void onShowDown(List<PlayerShowDown> playersShowDown) {
+        int shown = 0;
+        for (PlayerShowDown psd : playersShowDown) {
+            if (!psd.getHand().isFolded()) {
+                shown++;
+            }
+        }
+        if (shown < 2) {
+            return;
+        }
+        for (PlayerShowDown psd : playersShowDown) {
+            if (!psd.getHand().isFolded()) {
+                increment(recordFor(psd.getPlayer().getName()), SHOWDOWNS);
+            }
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Queries, NaN for players never seen in the situation
+     * ***********************************************************************
+     */
+
+    int getHands(String name) {
+        Integer record = recordsByName.get(key(name));
+        return record == null ? 0 : counter(record, HANDS);
+    }
+
+    /**
+     * @return share of hands with money put in voluntarily preflop
+     */
+    double getVpip(String name) {
+        return ratio(name, VOLUNTARY_PREFLOP, HANDS);
+    }
+
+    /**
+     * @return share of hands raised preflop
+     */
+    double getPfr(String name) {
+        return ratio(name, RAISED_PREFLOP, HANDS);
+    }
+
+    /**
+     * @return raises and all-ins per call after the flop
+     */
+    double getAggressionFactor(String name) {
+        return ratio(name, AGGRESSIVE_POSTFLOP, CALLED_POSTFLOP);
+    }
+
+    /**
+     * @return share of the flops seen that went to showdown
+     */
+    double getShowdownFrequency(String name) {
+        return ratio(name, SHOWDOWNS, SAW_FLOP);
+    }
+
+    /**
+     * @return share of the actions facing a raise that were folds
+     */
+    double getFoldToRaise(String name) {
+        return ratio(name, FOLDED_TO_RAISE, FACED_RAISE);
+    }
+
+    int size() {
+        return used;
+    }
+
+    private double ratio(String name, int counter, int total) {
+        Integer record = recordsByName.get(key(name));
+        if (record == null) {
+            return Double.NaN;
+        }
+        int denominator = counter(record, total);
+        return denominator == 0 ? Double.NaN : (double) counter(record, counter) / denominator;
+    }
+
+    private int actingRecord(String name) {
+        int record = recordFor(name);
+        if (raisedOnStreet) {
+            increment(record, FACED_RAISE);
+        }
+        return record;
+    }
+
+    private void countVoluntary(int record) {
+        if ((handFlags[record] & COUNTED_VOLUNTARY) == 0) {
+            handFlags[record] |= COUNTED_VOLUNTARY;
+            increment(record, VOLUNTARY_PREFLOP);
+        }
+    }
+
+    private int recordFor(String playerName) {
+        String name = key(playerName);
+        Integer record = recordsByName.get(name);
+        if (record != null) {
+            return record;
+        }
+        int free;
+        if (used < capacity) {
+            free = used++;
+            data.putInt(USED_OFFSET, used);
+            offer(free);
+        } else {
+            // Reset to no hands it stays first in the heap
+            free = evictable[0];
+            recordsByName.remove(readName(free));
+            for (int counter = 0; counter < COUNTERS; counter++) {
+                data.putInt(offset(free, counter), 0);
+            }
+            handFlags[free] = 0;
+        }
+        writeName(free, name);
+        recordsByName.put(name, free);
+        return free;
+    }
+
+    /**
+     * Makes the record one that can be given up, if it is not already.
+     */
+    private void offer(int record) {
+        if (heapIndex[record] >= 0) {
+            return;
+        }
+        int i = evictableSize++;
+        evictable[i] = record;
+        heapIndex[record] = i;
+        siftUp(i);
+    }
+
+    /**
+     * Keeps the record while it is in the hand, if it was one that could be given up.
+     */
+    private void remove(int record) {
+        int i = heapIndex[record];
+        if (i < 0) {
+            return;
+        }
+        heapIndex[record] = -1;
+        int last = evictable[--evictableSize];
+        if (i == evictableSize) {
+            return;
+        }
+        evictable[i] = last;
+        heapIndex[last] = i;
+        siftDown(i);
+        siftUp(heapIndex[last]);
+    }
+
+    private void siftUp(int i) {
+        int record = evictable[i];
+        int hands = counter(record, HANDS);
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counter(evictable[parent], HANDS) <= hands) {
+                break;
+            }
+            place(evictable[parent], i);
+            i = parent;
+        }
+        place(record, i);
+    }
+
+    private void siftDown(int i) {
+        int record = evictable[i];
+        int hands = counter(record, HANDS);
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= evictableSize) {
+                break;
+            }
+            if (child + 1 < evictableSize && counter(evictable[child + 1], HANDS) < counter(evictable[child], HANDS)) {
+                child++;
+            }
+            if (hands <= counter(evictable[child], HANDS)) {
+                break;
+            }
+            place(evictable[child], i);
+            i = child;
+        }
+        place(record, i);
+    }
+
+    private void place(int record, int i) {
+        evictable[i] = record;
+        heapIndex[record] = i;
+    }
+
+    private void increment(int record, int counter) {
+        int offset = offset(record, counter);
+        data.putInt(offset, data.getInt(offset) + 1);
+    }
+
+    private int counter(int record, int counter) {
+        return data.getInt(offset(record, counter));
+    }
+
+    private static int offset(int record, int counter) {
+        return HEADER_BYTES + record * RECORD_BYTES + NAME_BYTES + counter * 4;
+    }
+
+    /**
+     * Long names are cut to what fits in a record, which in the worst case
+     * merges two players.
+     */
+    private static String key(String name) {
+        return name.length() > NAME_CHARS ? name.substring(0, NAME_CHARS) : name;
+    }
+
+    private String readName(int record) {
+        int offset = HEADER_BYTES + record * RECORD_BYTES;
+        char[] name = new char[data.getShort(offset)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = data.getChar(offset + 2 + 2 * i);
+        }
+        return new String(name);
+    }
+
+    private void writeName(int record, String name) {
+        int offset = HEADER_BYTES + record * RECORD_BYTES;
+        data.putShort(offset, (short) name.length());
+        for (int i = 0; i < name.length(); i++) {
+            data.putChar(offset + 2 + 2 * i, name.charAt(i));
+        }
+    }
+}
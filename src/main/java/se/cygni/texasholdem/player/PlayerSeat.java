@@ -0,0 +1,37 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.client.ClientEventDispatcher;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+
+/**
+ * A Player called directly at a HoldemTable in the same JVM, without any
+ * socket in between: events go through a ClientEventDispatcher to its
+ * callbacks and action requests straight to actionRequired.
+ */
+final class PlayerSeat implements TableSeat {
+
+    private final Player player;
+    private final ClientEventDispatcher dispatcher;
+
+    PlayerSeat(Player player) {
+        this.player = player;
+        this.dispatcher = new ClientEventDispatcher(player);
+    }
+
+    @Override
+    public String getName() {
+        return player.getName();
+    }
+
+    @Override
+    public void onEvent(TexasEvent event) {
+        dispatcher.onEvent(event);
+    }
+
+    @Override
+    public Action actionRequired(ActionRequest request) {
+        return player.actionRequired(request);
+    }
+}
@@ -0,0 +1,287 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import se.cygni.texasholdem.game.Card;
+import se.cygni.texasholdem.game.definitions.Rank;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+
+/**
+ * Win probabilities for all 169 starting hand classes, one row per
+ * number of players around the table.
+ * <p/>
+ * A hand class is addressed by an index 0..168 on a 13x13 rank grid:
+ * pairs on the diagonal, suited hands above it and offsuit hands below.
+ * The index is computed straight from the two cards so a lookup neither
+ * allocates nor hashes.
+ * <p/>
+ * The table is stored either as the text files Nplayers.stat or as the
+ * binary file preflop.bin, both written by PreflopTableGenerator. The
+ * binary layout, all big-endian, is:
+ * <pre>
+ * int   magic 'DTPF'
+ * short version
+ * byte  min players
+ * byte  max players
+ * short hand classes
+ * float win probability [players][handClass], for min..max players
+ * int   CRC32 of everything above
+ * </pre>
+ */
+final class PreflopTable {
+
+    static final int HAND_CLASSES = 169;
+    static final int MIN_PLAYERS = 2;
+    static final int MAX_PLAYERS = 10;
+
+    static final String BINARY_FILE = "preflop.bin";
+
+    private static final int RANKS = 13;
+    private static final int MAGIC = 0x44545046;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 10;
+    private static final int CHECKSUM_BYTES = 4;
+
+    private final float[][] winProbability; //Indexed by [players][handClass], slot 0,1 is overhead.
+
+    PreflopTable(float[][] winProbability) {
+        this.winProbability = winProbability;
+    }
+
+    /**
+     * @return the hand class index 0..168 of the two cards
+     */
+    static int handClass(Card first, Card second) {
+        return handClass(first.getRank().ordinal(), second.getRank().ordinal(), first.getSuit() == second.getSuit());
+    }
+
+    static int handClass(int firstRank, int secondRank, boolean suited) {
+        int high = firstRank > secondRank ? firstRank : secondRank;
+        int low = firstRank > secondRank ? secondRank : firstRank;
+        return suited ? high * RANKS + low : low * RANKS + high;
+    }
+
+    /**
+     * @param players number of players at the table, clamped to the 2-10 players in the statistics
+     * @return the win probability in percent
+     */
+    float winProbability(int players, int handClass) {
+        if (players < MIN_PLAYERS) {
+            players = MIN_PLAYERS;
+        } else if (players > MAX_PLAYERS) {
+            players = MAX_PLAYERS;
+        }
+        return winProbability[players][handClass];
+    }
+
+    /**
+     * Reads preflop.bin from the given directory, or the text statistics if
+     * there is no binary file.
+     *
+     * @throws IllegalStateException if the statistics are missing, corrupt or lack a hand class
+     */
+    static PreflopTable load(File directory) {
+        File binary = new File(directory, BINARY_FILE);
+        return binary.isFile() ? loadBinary(binary) : loadText(directory);
+    }
+
+    /**
+     * Reads preflop.bin from the root of the classpath in one go, or the
+     * text statistics if there is no binary table, so the statistics are
+     * found in a packaged jar regardless of the working directory.
+     *
+     * @throws IllegalStateException if the statistics are missing, corrupt or lack a hand class
+     */
+    static PreflopTable loadResources() {
+        byte[] binary = readResource(BINARY_FILE);
+        if (binary != null) {
+            return fromBinary(ByteBuffer.wrap(binary), BINARY_FILE);
+        }
+
+        Map<String, Integer> handClasses = handClassesByName();
+        float[][] table = new float[MAX_PLAYERS + 1][];
+        for (int players = MIN_PLAYERS; players <= MAX_PLAYERS; players++) {
+            String name = players + "players.stat";
+            byte[] text = readResource(name);
+            if (text == null) {
+                throw new IllegalStateException("Missing starting hand statistics " + name + " on the classpath");
+            }
+            Scanner scanner = new Scanner(new String(text, Charsets.UTF_8));
+            try {
+                table[players] = parse(scanner, handClasses, name);
+            } finally {
+                scanner.close();
+            }
+        }
+        return new PreflopTable(table);
+    }
+
+    /**
+     * @return the whole resource at the root of the classpath, or null if there is none
+     * @throws IllegalStateException if it can not be read
+     */
+    static byte[] readResource(String name) {
+        InputStream input = PreflopTable.class.getResourceAsStream("/" + name);
+        if (input == null) {
+            return null;
+        }
+        try {
+            try {
+                return ByteStreams.toByteArray(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + name + " from the classpath", e);
+        }
+    }
+
+    /**
+     * Memory maps and verifies a binary table.
+     */
+    static PreflopTable loadBinary(File file) {
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                return fromBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.getName());
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read starting hand statistics " + file, e);
+        }
+    }
+
+    static PreflopTable fromBinary(ByteBuffer buffer, String source) {
+        int expectedSize = HEADER_BYTES + (MAX_PLAYERS - MIN_PLAYERS + 1) * HAND_CLASSES * 4 + CHECKSUM_BYTES;
+        if (buffer.remaining() != expectedSize) {
+            throw new IllegalStateException(source + " is " + buffer.remaining() + " bytes, expected " + expectedSize);
+        }
+        byte[] bytes = new byte[expectedSize];
+        buffer.get(bytes);
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, expectedSize - CHECKSUM_BYTES);
+        if ((int) crc.getValue() != data.getInt(expectedSize - CHECKSUM_BYTES)) {
+            throw new IllegalStateException("Checksum mismatch in " + source);
+        }
+        if (data.getInt() != MAGIC || data.getShort() != VERSION
+                || data.get() != MIN_PLAYERS || data.get() != MAX_PLAYERS || data.getShort() != HAND_CLASSES) {
+            throw new IllegalStateException("Unsupported header in " + source);
+        }
+
+        float[][] table = new float[MAX_PLAYERS + 1][];
+        for (int players = MIN_PLAYERS; players <= MAX_PLAYERS; players++) {
+            table[players] = new float[HAND_CLASSES];
+            data.asFloatBuffer().get(table[players]);
+            data.position(data.position() + HAND_CLASSES * 4);
+        }
+        return new PreflopTable(table);
+    }
+
+    void writeBinary(OutputStream out) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(HEADER_BYTES + (MAX_PLAYERS - MIN_PLAYERS + 1) * HAND_CLASSES * 4 + CHECKSUM_BYTES);
+        data.putInt(MAGIC);
+        data.putShort(VERSION);
+        data.put((byte) MIN_PLAYERS);
+        data.put((byte) MAX_PLAYERS);
+        data.putShort((short) HAND_CLASSES);
+        for (int players = MIN_PLAYERS; players <= MAX_PLAYERS; players++) {
+            for (int handClass = 0; handClass < HAND_CLASSES; handClass++) {
+                data.putFloat(winProbability[players][handClass]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, data.position());
+        data.putInt((int) crc.getValue());
+        out.write(data.array());
+    }
+
+    /**
+     * Reads the text statistics, one "hand winProbability" line per hand class,
+     * from the files Nplayers.stat in the given directory.
+     */
+    static PreflopTable loadText(File directory) {
+        Map<String, Integer> handClasses = handClassesByName();
+        float[][] table = new float[MAX_PLAYERS + 1][];
+
+        for (int players = MIN_PLAYERS; players <= MAX_PLAYERS; players++) {
+            File file = new File(directory, players + "players.stat");
+            Scanner scanner;
+            try {
+                scanner = new Scanner(new FileInputStream(file));
+            } catch (FileNotFoundException e) {
+                throw new IllegalStateException("Missing starting hand statistics " + file, e);
+            }
+            try {
+                table[players] = parse(scanner, handClasses, file.getName());
+            } finally {
+                scanner.close();
+            }
+        }
+        return new PreflopTable(table);
+    }
+
+    private static float[] parse(Scanner scanner, Map<String, Integer> handClasses, String source) {
+        float[] row = new float[HAND_CLASSES];
+        boolean[] seen = new boolean[HAND_CLASSES];
+
+        while (scanner.hasNextLine()) {
+            String input = scanner.nextLine().trim();
+            if (input.length() == 0) {
+                continue;
+            }
+            String[] keyValue = input.split("\\s+");
+            Integer handClass = handClasses.get(keyValue[0]);
+            if (handClass == null || keyValue.length != 2) {
+                throw new IllegalStateException("Unparsable line '" + input + "' in " + source);
+            }
+            row[handClass] = Float.parseFloat(keyValue[1]);
+            seen[handClass] = true;
+        }
+
+        for (Map.Entry<String, Integer> entry : handClasses.entrySet()) {
+            if (!seen[entry.getValue()]) {
+                throw new IllegalStateException("Hand " + entry.getKey() + " is missing in " + source);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @return the statistics notation of every hand class, see Translator
+     */
+    static Map<String, Integer> handClassesByName() {
+        Rank[] ranks = Rank.values();
+        Map<String, Integer> handClasses = new HashMap<String, Integer>();
+        for (Rank first : ranks) {
+            for (Rank second : ranks) {
+                if (first.compareTo(second) < 0) {
+                    continue;
+                }
+                handClasses.put(Translator.translate(first, second, false),
+                        handClass(first.ordinal(), second.ordinal(), false));
+                if (first != second) {
+                    handClasses.put(Translator.translate(first, second, true),
+                            handClass(first.ordinal(), second.ordinal(), true));
+                }
+            }
+        }
+        return handClasses;
+    }
+}
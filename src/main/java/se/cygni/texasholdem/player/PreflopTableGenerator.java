@@ -0,0 +1,158 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line tool that computes the starting hand statistics for 2-10
+ * players and writes them as Nplayers.stat, masterStats and preflop.bin.
+ * <p/>
+ * Usage:
+ * <pre>
+ * simulate &lt;outputDirectory&gt; [samplesPerHand]
+ *     Simulates every hand class against random hands on all cores. If the
+ *     directory already holds statistics the largest deviation from them
+ *     is reported before they are overwritten.
+ * convert &lt;statisticsDirectory&gt;
+ *     Writes preflop.bin from the Nplayers.stat files in the directory.
+ * </pre>
+ */
+public class PreflopTableGenerator {
+
+    private static Logger log = LoggerFactory
+            .getLogger(PreflopTableGenerator.class);
+
+    private static final int DEFAULT_SAMPLES_PER_HAND = 500000;
+
+    public static void main(String... args) throws IOException {
+        if (args.length >= 2 && "simulate".equals(args[0])) {
+            int samples = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SAMPLES_PER_HAND;
+            File directory = new File(args[1]);
+            PreflopTable table = simulate(samples);
+            check(directory, table);
+            writeText(directory, table);
+            writeBinary(directory, table);
+        } else if (args.length == 2 && "convert".equals(args[0])) {
+            File directory = new File(args[1]);
+            writeBinary(directory, PreflopTable.loadText(directory));
+        } else {
+            System.err.println("Usage: PreflopTableGenerator simulate <outputDirectory> [samplesPerHand]");
+            System.err.println("       PreflopTableGenerator convert <statisticsDirectory>");
+            System.exit(1);
+        }
+    }
+
+    static PreflopTable simulate(int samplesPerHand) {
+        EquityCalculator calculator = new EquityCalculator(new ForkJoinPool(), TimeUnit.DAYS.toNanos(1), samplesPerHand);
+        float[][] table = new float[PreflopTable.MAX_PLAYERS + 1][];
+
+        for (int players = PreflopTable.MIN_PLAYERS; players <= PreflopTable.MAX_PLAYERS; players++) {
+            long start = System.nanoTime();
+            table[players] = new float[PreflopTable.HAND_CLASSES];
+            for (int high = 0; high < CardMask.RANKS; high++) {
+                for (int low = 0; low <= high; low++) {
+                    table[players][PreflopTable.handClass(high, low, false)] =
+                            winProbability(calculator, high, 0, low, 1, players);
+                    if (low != high) {
+                        table[players][PreflopTable.handClass(high, low, true)] =
+                                winProbability(calculator, high, 0, low, 0, players);
+                    }
+                }
+            }
+            log.info("Simulated {} players in {} s", players, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        }
+        return new PreflopTable(table);
+    }
+
+    private static float winProbability(EquityCalculator calculator, int firstRank, int firstSuit, int secondRank, int secondSuit, int players) {
+        long myCards = (1L << CardMask.index(firstRank, firstSuit)) | (1L << CardMask.index(secondRank, secondSuit));
+        return (float) (100 * calculator.calculate(myCards, 0L, players - 1).getEquity());
+    }
+
+    /**
+     * Logs the largest difference between the table and the statistics already in the directory.
+     */
+    private static void check(File directory, PreflopTable table) {
+        if (!new File(directory, PreflopTable.MIN_PLAYERS + "players.stat").isFile()) {
+            return;
+        }
+        PreflopTable existing = PreflopTable.loadText(directory);
+        for (int players = PreflopTable.MIN_PLAYERS; players <= PreflopTable.MAX_PLAYERS; players++) {
+            float maxDifference = 0;
+            for (int handClass = 0; handClass < PreflopTable.HAND_CLASSES; handClass++) {
+                maxDifference = Math.max(maxDifference,
+                        Math.abs(table.winProbability(players, handClass) - existing.winProbability(players, handClass)));
+            }
+            log.info("{} players differ at most {}% from the existing statistics", players, maxDifference);
+        }
+    }
+
+    private static void writeText(File directory, PreflopTable table) throws IOException {
+        String[] names = namesByHandClass();
+        PrintWriter master = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, "masterStats")), "UTF-8"));
+        try {
+            for (int players = PreflopTable.MAX_PLAYERS; players >= PreflopTable.MIN_PLAYERS; players--) {
+                PrintWriter stat = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, players + "players.stat")), "UTF-8"));
+                try {
+                    master.println("------------" + players + " players --------------------");
+                    for (Integer handClass : byDescendingWinProbability(table, players)) {
+                        String line = String.format(Locale.ROOT, "%s %.2f", names[handClass], table.winProbability(players, handClass));
+                        stat.println(line);
+                        master.println(line);
+                    }
+                } finally {
+                    stat.close();
+                }
+            }
+        } finally {
+            master.close();
+        }
+    }
+
+    private static void writeBinary(File directory, PreflopTable table) throws IOException {
+        File file = new File(directory, PreflopTable.BINARY_FILE);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            table.writeBinary(out);
+        } finally {
+            out.close();
+        }
+        log.info("Wrote {}", file);
+    }
+
+    private static Integer[] byDescendingWinProbability(final PreflopTable table, final int players) {
+        Integer[] handClasses = new Integer[PreflopTable.HAND_CLASSES];
+        for (int i = 0; i < handClasses.length; i++) {
+            handClasses[i] = i;
+        }
+        Arrays.sort(handClasses, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Float.compare(table.winProbability(players, second), table.winProbability(players, first));
+            }
+        });
+        return handClasses;
+    }
+
+    private static String[] namesByHandClass() {
+        String[] names = new String[PreflopTable.HAND_CLASSES];
+        for (Map.Entry<String, Integer> entry : PreflopTable.handClassesByName().entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        return names;
+    }
+}
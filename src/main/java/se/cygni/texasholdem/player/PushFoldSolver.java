@@ -0,0 +1,318 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line tool that solves heads-up push/fold for every effective
+ * stack in PushFoldTable and writes pushfold.bin.
+ * <p/>
+ * First the all-in equity of every hand class against every other is
+ * simulated, together with the number of ways the two classes can be dealt
+ * without sharing a card. Each stack is then solved on its own thread with
+ * CFR+: regret matching on regrets floored at zero, alternating updates of
+ * the two players and averages weighted by iteration. With the blinds at
+ * 0.5 and 1 the payoffs of the small blind are -0.5 for folding, +1 when
+ * the big blind folds and equity * 2 * stack - stack when called. The
+ * exploitability of the averaged strategies is logged per stack.
+ * <p/>
+ * Usage: PushFoldSolver &lt;outputDirectory&gt; [iterations] [samplesPerMatchup]
+ */
+public class PushFoldSolver {
+
+    private static Logger log = LoggerFactory
+            .getLogger(PushFoldSolver.class);
+
+    private static final int DEFAULT_ITERATIONS = 20000;
+    private static final int DEFAULT_SAMPLES_PER_MATCHUP = 20000;
+
+    private static final int CLASSES = PreflopTable.HAND_CLASSES;
+    private static final double SMALL_BLIND = 0.5;
+    private static final double BIG_BLIND = 1;
+
+    public static void main(String... args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: PushFoldSolver <outputDirectory> [iterations] [samplesPerMatchup]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+        int samples = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SAMPLES_PER_MATCHUP;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setNameFormat("solver-%d").setDaemon(true).build());
+        try {
+            PushFoldTable table = solve(executor, iterations, samples);
+            File file = new File(directory, PushFoldTable.BINARY_FILE);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                table.writeBinary(out);
+            } finally {
+                out.close();
+            }
+            log.info("Wrote {}", file);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static PushFoldTable solve(ExecutorService executor, final int iterations, int samplesPerMatchup)
+            throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        final Matchups matchups = Matchups.simulate(executor, samplesPerMatchup);
+        log.info("Simulated {} matchups in {} s", CLASSES * CLASSES, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+
+        start = System.nanoTime();
+        List<Future<double[][]>> solutions = new ArrayList<Future<double[][]>>();
+        for (int stack = PushFoldTable.MIN_STACK; stack <= PushFoldTable.MAX_STACK; stack++) {
+            final int solvedStack = stack;
+            solutions.add(executor.submit(new Callable<double[][]>() {
+                @Override
+                public double[][] call() {
+                    return solveStack(matchups, solvedStack, iterations);
+                }
+            }));
+        }
+
+        byte[][] allIn = new byte[PushFoldTable.MAX_STACK + 1][];
+        byte[][] call = new byte[PushFoldTable.MAX_STACK + 1][];
+        for (int stack = PushFoldTable.MIN_STACK; stack <= PushFoldTable.MAX_STACK; stack++) {
+            double[][] strategies = solutions.get(stack - PushFoldTable.MIN_STACK).get();
+            allIn[stack] = new byte[CLASSES];
+            call[stack] = new byte[CLASSES];
+            for (int handClass = 0; handClass < CLASSES; handClass++) {
+                allIn[stack][handClass] = PushFoldTable.quantize(strategies[0][handClass]);
+                call[stack][handClass] = PushFoldTable.quantize(strategies[1][handClass]);
+            }
+        }
+        log.info("Solved {} stacks with {} iterations in {} s", PushFoldTable.MAX_STACK - PushFoldTable.MIN_STACK + 1,
+                iterations, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        return new PushFoldTable(allIn, call);
+    }
+
+    /**
+     * @return the averaged probability of going all in and of calling per hand class
+     */
+    static double[][] solveStack(Matchups matchups, double stack, int iterations) {
+        double[] ways = matchups.ways;
+        double[] equities = matchups.equities;
+
+        // Small blind payoff per matchup when the big blind calls or folds
+        double[] calledPayoff = new double[CLASSES * CLASSES];
+        for (int matchup = 0; matchup < calledPayoff.length; matchup++) {
+            calledPayoff[matchup] = equities[matchup] * 2 * stack - stack;
+        }
+        double foldedPayoff = BIG_BLIND;
+        double stolenPayoff = -SMALL_BLIND;
+
+        double[] allInRegret = new double[CLASSES];
+        double[] foldRegret = new double[CLASSES];
+        double[] callRegret = new double[CLASSES];
+        double[] passRegret = new double[CLASSES];
+        double[] allIn = new double[CLASSES];
+        double[] call = new double[CLASSES];
+        double[] allInSum = new double[CLASSES];
+        double[] callSum = new double[CLASSES];
+        double weightSum = 0;
+
+        for (int iteration = 1; iteration <= iterations; iteration++) {
+            regretMatching(allInRegret, foldRegret, allIn);
+            regretMatching(callRegret, passRegret, call);
+
+            // Small blind against the current big blind
+            for (int sb = 0; sb < CLASSES; sb++) {
+                double allInValue = 0;
+                double foldValue = 0;
+                int row = sb * CLASSES;
+                for (int bb = 0; bb < CLASSES; bb++) {
+                    double w = ways[row + bb];
+                    allInValue += w * (call[bb] * calledPayoff[row + bb] + (1 - call[bb]) * foldedPayoff);
+                    foldValue += w * stolenPayoff;
+                }
+                double value = allIn[sb] * allInValue + (1 - allIn[sb]) * foldValue;
+                allInRegret[sb] = Math.max(0, allInRegret[sb] + allInValue - value);
+                foldRegret[sb] = Math.max(0, foldRegret[sb] + foldValue - value);
+            }
+            regretMatching(allInRegret, foldRegret, allIn);
+
+            // Big blind against the updated small blind, only the all ins reach it
+            for (int bb = 0; bb < CLASSES; bb++) {
+                double callValue = 0;
+                double foldValue = 0;
+                for (int sb = 0; sb < CLASSES; sb++) {
+                    double reach = ways[sb * CLASSES + bb] * allIn[sb];
+                    callValue -= reach * calledPayoff[sb * CLASSES + bb];
+                    foldValue -= reach * foldedPayoff;
+                }
+                double value = call[bb] * callValue + (1 - call[bb]) * foldValue;
+                callRegret[bb] = Math.max(0, callRegret[bb] + callValue - value);
+                passRegret[bb] = Math.max(0, passRegret[bb] + foldValue - value);
+            }
+
+            for (int handClass = 0; handClass < CLASSES; handClass++) {
+                allInSum[handClass] += iteration * allIn[handClass];
+                callSum[handClass] += iteration * call[handClass];
+            }
+            weightSum += iteration;
+        }
+
+        for (int handClass = 0; handClass < CLASSES; handClass++) {
+            allIn[handClass] = allInSum[handClass] / weightSum;
+            call[handClass] = callSum[handClass] / weightSum;
+        }
+        if (log.isInfoEnabled()) {
+            log.info("{} bb: exploitability {} bb per hand",
+                    (int) stack, String.format("%.5f", exploitability(matchups, calledPayoff, allIn, call)));
+        }
+        return new double[][]{allIn, call};
+    }
+
+    private static void regretMatching(double[] positive, double[] negative, double[] strategy) {
+        for (int handClass = 0; handClass < CLASSES; handClass++) {
+            double sum = positive[handClass] + negative[handClass];
+            strategy[handClass] = sum > 0 ? positive[handClass] / sum : 0.5;
+        }
+    }
+
+    /**
+     * @return the average of what each player would win with a best response to the other
+     */
+    private static double exploitability(Matchups matchups, double[] calledPayoff, double[] allIn, double[] call) {
+        double[] ways = matchups.ways;
+        double total = 0;
+        double smallBlindBest = 0;
+        double bigBlindBest = 0;
+        double[] bigBlindCall = new double[CLASSES];
+        double[] bigBlindFold = new double[CLASSES];
+
+        for (int sb = 0; sb < CLASSES; sb++) {
+            double allInValue = 0;
+            double foldValue = 0;
+            for (int bb = 0; bb < CLASSES; bb++) {
+                int matchup = sb * CLASSES + bb;
+                double w = ways[matchup];
+                total += w;
+                allInValue += w * (call[bb] * calledPayoff[matchup] + (1 - call[bb]) * BIG_BLIND);
+                foldValue -= w * SMALL_BLIND;
+                bigBlindBest += w * (1 - allIn[sb]) * SMALL_BLIND;
+                bigBlindCall[bb] -= w * allIn[sb] * calledPayoff[matchup];
+                bigBlindFold[bb] -= w * allIn[sb] * BIG_BLIND;
+            }
+            smallBlindBest += Math.max(allInValue, foldValue);
+        }
+        for (int bb = 0; bb < CLASSES; bb++) {
+            bigBlindBest += Math.max(bigBlindCall[bb], bigBlindFold[bb]);
+        }
+        return (smallBlindBest + bigBlindBest) / total / 2;
+    }
+
+    /**
+     * All-in equities and the number of ways to deal each pair of hand
+     * classes, flattened to [smallBlind * 169 + bigBlind].
+     */
+    static final class Matchups {
+
+        final double[] ways = new double[CLASSES * CLASSES];
+        final double[] equities = new double[CLASSES * CLASSES];
+
+        static Matchups simulate(ExecutorService executor, final int samplesPerMatchup)
+                throws InterruptedException, ExecutionException {
+            final int[][] combos = combosByHandClass();
+            final Matchups matchups = new Matchups();
+            List<Future<?>> rows = new ArrayList<Future<?>>();
+            for (int first = 0; first < CLASSES; first++) {
+                final int row = first;
+                rows.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int second = row; second < CLASSES; second++) {
+                            matchups.simulate(combos[row], combos[second], row, second, samplesPerMatchup);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> row : rows) {
+                row.get();
+            }
+            return matchups;
+        }
+
+        private void simulate(int[] firstCombos, int[] secondCombos, int first, int second, int samples) {
+            long[] pairs = new long[firstCombos.length * secondCombos.length * 2];
+            int count = 0;
+            for (int firstCombo : firstCombos) {
+                for (int secondCombo : secondCombos) {
+                    if ((Combos.MASK[firstCombo] & Combos.MASK[secondCombo]) == 0) {
+                        pairs[2 * count] = Combos.MASK[firstCombo];
+                        pairs[2 * count + 1] = Combos.MASK[secondCombo];
+                        count++;
+                    }
+                }
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double share = 0;
+            for (int sample = 0; sample < samples; sample++) {
+                int pair = random.nextInt(count);
+                long firstCards = pairs[2 * pair];
+                long secondCards = pairs[2 * pair + 1];
+                long used = firstCards | secondCards;
+                long board = 0;
+                while (Long.bitCount(board) < 5) {
+                    long card = 1L << random.nextInt(CardMask.CARDS);
+                    if ((card & used) == 0) {
+                        used |= card;
+                        board |= card;
+                    }
+                }
+                int firstValue = HandEvaluator.evaluate(firstCards | board);
+                int secondValue = HandEvaluator.evaluate(secondCards | board);
+                share += firstValue > secondValue ? 1 : firstValue == secondValue ? 0.5 : 0;
+            }
+
+            // A hand class against itself is even by symmetry
+            double equity = first == second ? 0.5 : share / samples;
+            ways[first * CLASSES + second] = count;
+            ways[second * CLASSES + first] = count;
+            equities[first * CLASSES + second] = equity;
+            equities[second * CLASSES + first] = 1 - equity;
+        }
+
+        private static int[][] combosByHandClass() {
+            int[] counts = new int[CLASSES];
+            int[] handClasses = new int[Combos.COUNT];
+            for (int combo = 0; combo < Combos.COUNT; combo++) {
+                int first = Combos.FIRST[combo];
+                int second = Combos.SECOND[combo];
+                handClasses[combo] = PreflopTable.handClass(first % CardMask.RANKS, second % CardMask.RANKS,
+                        first / CardMask.RANKS == second / CardMask.RANKS);
+                counts[handClasses[combo]]++;
+            }
+            int[][] combos = new int[CLASSES][];
+            for (int handClass = 0; handClass < CLASSES; handClass++) {
+                combos[handClass] = new int[counts[handClass]];
+                counts[handClass] = 0;
+            }
+            for (int combo = 0; combo < Combos.COUNT; combo++) {
+                combos[handClasses[combo]][counts[handClasses[combo]]++] = combo;
+            }
+            return combos;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package se.cygni.texasholdem.player;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Heads-up push/fold strategy for every starting hand class at effective
+ * stacks of 1 to 20 big blinds, solved offline by PushFoldSolver.
+ * <p/>
+ * The small blind either goes all in or folds, the big blind facing the
+ * all-in either calls or folds. Both are mixed strategies, stored as the
+ * probability of going all in and of calling quantized to a byte. A lookup
+ * is two array reads.
+ * <p/>
+ * The table is stored as pushfold.bin, all big-endian:
+ * <pre>
+ * int   magic 'DTPS'
+ * short version
+ * byte  min stack in big blinds
+ * byte  max stack in big blinds
+ * short hand classes
+ * byte  all-in probability * 255 [stack][handClass], for min..max stack
+ * byte  call probability * 255 [stack][handClass], for min..max stack
+ * int   CRC32 of everything above
+ * </pre>
+ */
+final class PushFoldTable {
+
+    static final int MIN_STACK = 1;
+    static final int MAX_STACK = 20;
+
+    static final String BINARY_FILE = "pushfold.bin";
+
+    private static final int MAGIC = 0x44545053;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 10;
+    private static final int CHECKSUM_BYTES = 4;
+    private static final int SIZE = HEADER_BYTES + 2 * (MAX_STACK - MIN_STACK + 1) * PreflopTable.HAND_CLASSES + CHECKSUM_BYTES;
+    private static final float QUANTUM = 255f;
+
+    private final byte[][] allIn; //Indexed by [stack][handClass], slot 0 is overhead
+    private final byte[][] call;
+
+    PushFoldTable(byte[][] allIn, byte[][] call) {
+        this.allIn = allIn;
+        this.call = call;
+    }
+
+    /**
+     * @return true if push/fold is how hands are played at this effective stack
+     */
+    static boolean isShortStacked(double stackBigBlinds) {
+        return stackBigBlinds < MAX_STACK + 0.5;
+    }
+
+    /**
+     * @param stackBigBlinds the smaller of the two stacks at the start of the hand, in big blinds
+     * @return the probability that the small blind goes all in with the hand class
+     */
+    float allInProbability(double stackBigBlinds, int handClass) {
+        return (allIn[stack(stackBigBlinds)][handClass] & 0xFF) / QUANTUM;
+    }
+
+    /**
+     * @param stackBigBlinds the smaller of the two stacks at the start of the hand, in big blinds
+     * @return the probability that the big blind calls an all in with the hand class
+     */
+    float callProbability(double stackBigBlinds, int handClass) {
+        return (call[stack(stackBigBlinds)][handClass] & 0xFF) / QUANTUM;
+    }
+
+    private static int stack(double stackBigBlinds) {
+        long stack = Math.round(stackBigBlinds);
+        return (int) Math.max(MIN_STACK, Math.min(MAX_STACK, stack));
+    }
+
+    static byte quantize(double probability) {
+        return (byte) Math.round(probability * QUANTUM);
+    }
+
+    /**
+     * Reads and verifies pushfold.bin from the root of the classpath.
+     *
+     * @throws IllegalStateException if the table is missing or corrupt
+     */
+    static PushFoldTable loadResource() {
+        byte[] binary = PreflopTable.readResource(BINARY_FILE);
+        if (binary == null) {
+            throw new IllegalStateException("Missing push/fold strategy " + BINARY_FILE + " on the classpath");
+        }
+        return fromBinary(ByteBuffer.wrap(binary), BINARY_FILE);
+    }
+
+    static PushFoldTable fromBinary(ByteBuffer buffer, String source) {
+        if (buffer.remaining() != SIZE) {
+            throw new IllegalStateException(source + " is " + buffer.remaining() + " bytes, expected " + SIZE);
+        }
+        byte[] bytes = new byte[SIZE];
+        buffer.get(bytes);
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, SIZE - CHECKSUM_BYTES);
+        if ((int) crc.getValue() != data.getInt(SIZE - CHECKSUM_BYTES)) {
+            throw new IllegalStateException("Checksum mismatch in " + source);
+        }
+        if (data.getInt() != MAGIC || data.getShort() != VERSION
+                || data.get() != MIN_STACK || data.get() != MAX_STACK || data.getShort() != PreflopTable.HAND_CLASSES) {
+            throw new IllegalStateException("Unsupported header in " + source);
+        }
+
+        byte[][] allIn = new byte[MAX_STACK + 1][];
+        byte[][] call = new byte[MAX_STACK + 1][];
+        for (int stack = MIN_STACK; stack <= MAX_STACK; stack++) {
+            allIn[stack] = new byte[PreflopTable.HAND_CLASSES];
+            data.get(allIn[stack]);
+        }
+        for (int stack = MIN_STACK; stack <= MAX_STACK; stack++) {
+            call[stack] = new byte[PreflopTable.HAND_CLASSES];
+            data.get(call[stack]);
+        }
+        return new PushFoldTable(allIn, call);
+    }
+
+    void writeBinary(OutputStream out) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(SIZE);
+        data.putInt(MAGIC);
+        data.putShort(VERSION);
+        data.put((byte) MIN_STACK);
+        data.put((byte) MAX_STACK);
+        data.putShort((short) PreflopTable.HAND_CLASSES);
+        for (int stack = MIN_STACK; stack <= MAX_STACK; stack++) {
+            data.put(allIn[stack]);
+        }
+        for (int stack = MIN_STACK; stack <= MAX_STACK; stack++) {
+            data.put(call[stack]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, data.position());
+        data.putInt((int) crc.getValue());
+        out.write(data.array());
+    }
+}
@@ -0,0 +1,202 @@
+package se.cygni.texasholdem.player;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Equity of our hole cards against opponents holding weighted ranges of
+ * combos.
+ * <p/>
+ * Combos colliding with our cards or the board are dropped with one AND
+ * per combo. Heads-up on the turn and river every remaining combo, and on
+ * the turn every river card, is enumerated with its weight. Otherwise each
+ * sample draws a combo per opponent from the cumulative weights, rejecting
+ * collisions between opponents, and completes the board from the unseen
+ * cards, until the sample limit or the budget is reached. Ranges that
+ * overlap so much that fewer than MIN_SAMPLES hands can be dealt give no
+ * equity at all, rather than one from a handful of samples.
+ * <p/>
+ * The budget is shared with EquityCalculator through the system property
+ * deepthought.equity.budgetMillis, the sample limit is set with
+ * deepthought.equity.rangeSamples.
+ */
+final class RangeEquity {
+
+    private static final long DEFAULT_BUDGET_MILLIS = 100;
+    private static final int DEFAULT_MAX_SAMPLES = 50000;
+
+    private static final int SAMPLES_BETWEEN_CLOCK_CHECKS = 64;
+    private static final int MAX_ATTEMPTS = 100;
+    private static final int MIN_SAMPLES = 100;
+
+    private final long budgetNanos;
+    private final int maxSamples;
+
+    RangeEquity() {
+        this(TimeUnit.MILLISECONDS.toNanos(Long.getLong("deepthought.equity.budgetMillis", DEFAULT_BUDGET_MILLIS)),
+                Integer.getInteger("deepthought.equity.rangeSamples", DEFAULT_MAX_SAMPLES));
+    }
+
+    RangeEquity(long budgetNanos, int maxSamples) {
+        this.budgetNanos = budgetNanos;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * @param myCards CardMask of our two hole cards
+     * @param board   CardMask of the community cards dealt so far
+     * @param ranges  weight per combo for each opponent
+     * @return the equity, or null if too few hands could be dealt from the ranges to tell
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    Equity calculate(long myCards, long board, float[][] ranges) {
+        long dead = myCards | board;
+        float[][] cumulative = new float[ranges.length][];
+        for (int opponent = 0; opponent < ranges.length; opponent++) {
+            cumulative[opponent] = cumulativeWeights(ranges[opponent], dead);
+            if (cumulative[opponent][Combos.COUNT - 1] <= 0) {
+                // Nothing left that fits the board, fall back to any cards
+                cumulative[opponent] = cumulativeWeights(null, dead);
+            }
+        }
+
+        if (ranges.length == 1 && Long.bitCount(board) >= 4) {
+            return enumerate(myCards, board, cumulative[0]);
+        }
+        return sample(myCards, board, cumulative, System.nanoTime() + budgetNanos);
+    }
+
+    /**
+     * @param range weight per combo, null for every combo weighing one
+     * @return running sums of the weights, combos colliding with the dead cards weigh nothing
+     */
+    static float[] cumulativeWeights(float[] range, long dead) {
+        float[] cumulative = new float[Combos.COUNT];
+        long[] masks = Combos.MASK;
+        float sum = 0f;
+        for (int combo = 0; combo < Combos.COUNT; combo++) {
+            float weight = range == null ? 1f : range[combo];
+            sum += (masks[combo] & dead) == 0 ? weight : 0f;
+            cumulative[combo] = sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Weighted exact equity against a single range on the turn or river.
+     */
+    private Equity enumerate(long myCards, long board, float[] cumulative) {
+        long[] fullBoards;
+        if (Long.bitCount(board) == 5) {
+            fullBoards = new long[]{board};
+        } else {
+            int[] rivers = EquityCalculator.unseenCards(myCards | board);
+            fullBoards = new long[rivers.length];
+            for (int i = 0; i < rivers.length; i++) {
+                fullBoards[i] = board | (1L << rivers[i]);
+            }
+        }
+
+        double shares = 0;
+        double weights = 0;
+        long showdowns = 0;
+        for (long fullBoard : fullBoards) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Range enumeration was interrupted");
+            }
+            int mine = HandEvaluator.evaluate(myCards | fullBoard);
+            float previous = 0f;
+            for (int combo = 0; combo < Combos.COUNT; combo++) {
+                float weight = cumulative[combo] - previous;
+                previous = cumulative[combo];
+                if (weight <= 0 || (Combos.MASK[combo] & fullBoard) != 0) {
+                    continue;
+                }
+                int theirs = HandEvaluator.evaluate(Combos.MASK[combo] | fullBoard);
+                shares += weight * (mine > theirs ? 1 : mine == theirs ? 0.5 : 0);
+                weights += weight;
+                showdowns++;
+            }
+        }
+        return new Equity(weights == 0 ? 0 : shares / weights, 0, showdowns);
+    }
+
+    private Equity sample(long myCards, long board, float[][] cumulative, long deadlineNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int missingBoard = 5 - Long.bitCount(board);
+        int opponents = cumulative.length;
+        long[] holdings = new long[opponents];
+        EquityCalculator.Tally tally = new EquityCalculator.Tally();
+        int rejected = 0;
+
+        while (tally.samples < maxSamples) {
+            if (tally.samples % SAMPLES_BETWEEN_CLOCK_CHECKS == 0) {
+                if (System.nanoTime() - deadlineNanos > 0) {
+                    break;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException("Range equity was interrupted");
+                }
+            }
+
+            long used = myCards | board;
+            boolean dealt = true;
+            for (int opponent = 0; opponent < opponents && dealt; opponent++) {
+                long combo = Combos.MASK[draw(cumulative[opponent], random)];
+                dealt = (combo & used) == 0;
+                used |= combo;
+                holdings[opponent] = combo;
+            }
+            if (!dealt) {
+                // Opponent ranges overlapping too much to deal, give up rather than spin
+                if (++rejected > MAX_ATTEMPTS * (tally.samples + 1)) {
+                    break;
+                }
+                continue;
+            }
+
+            long fullBoard = board;
+            for (int i = 0; i < missingBoard; i++) {
+                long card;
+                do {
+                    card = 1L << random.nextInt(CardMask.CARDS);
+                } while ((card & used) != 0);
+                used |= card;
+                fullBoard |= card;
+            }
+            tally.add(showdownShare(myCards, fullBoard, holdings));
+        }
+        return tally.samples < Math.min(MIN_SAMPLES, maxSamples) ? null : tally.toEquity();
+    }
+
+    private static int draw(float[] cumulative, ThreadLocalRandom random) {
+        float target = random.nextFloat() * cumulative[Combos.COUNT - 1];
+        int low = 0;
+        int high = Combos.COUNT - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulative[middle] <= target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static double showdownShare(long myCards, long fullBoard, long[] holdings) {
+        int mine = HandEvaluator.evaluate(myCards | fullBoard);
+        int tied = 1;
+        for (long holding : holdings) {
+            int theirs = HandEvaluator.evaluate(fullBoard | holding);
+            if (theirs > mine) {
+                return 0;
+            }
+            if (theirs == mine) {
+                tied++;
+            }
+        }
+        return 1.0 / tied;
+    }
+}
@@ -0,0 +1,200 @@
+package se.cygni.texasholdem.player;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands log events to the attached appenders on a background thread
+ * through a bounded ring buffer, without ever blocking the logging thread.
+ * <p/>
+ * The AsyncAppender of the Logback version we get from the parent pom blocks
+ * when its queue is full, which would stall actionRequired behind a slow
+ * console. This one drops instead: when fewer than discardingThreshold slots
+ * are free, events below WARN are dropped, and when the buffer is full every
+ * event is. The number dropped is reported as a warning once the buffer
+ * has room again.
+ * <p/>
+ * Configured in logback.xml:
+ * <pre>
+ * &lt;appender name="ASYNC" class="se.cygni.texasholdem.player.RingBufferAppender"&gt;
+ *     &lt;queueSize&gt;1024&lt;/queueSize&gt;
+ *     &lt;discardingThreshold&gt;256&lt;/discardingThreshold&gt;
+ *     &lt;appender-ref ref="STDOUT"/&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent>
+        implements AppenderAttachable<ILoggingEvent> {
+
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final long MAX_FLUSH_MILLIS = 1000;
+
+    private final AppenderAttachableImpl<ILoggingEvent> appenders = new AppenderAttachableImpl<ILoggingEvent>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private int discardingThreshold = -1;
+    private boolean includeCallerData;
+
+    private BlockingQueue<ILoggingEvent> queue;
+    private Thread worker;
+
+    @Override
+    public void start() {
+        if (queueSize < 1) {
+            addError("Invalid queueSize " + queueSize);
+            return;
+        }
+        if (discardingThreshold < 0) {
+            discardingThreshold = queueSize / 4;
+        }
+        queue = new ArrayBlockingQueue<ILoggingEvent>(queueSize);
+        super.start();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "logback-" + getName());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        worker.interrupt();
+        try {
+            worker.join(MAX_FLUSH_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        int free = queue.remainingCapacity();
+        if (free < discardingThreshold && !event.getLevel().isGreaterOrEqual(Level.WARN)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        // Everything the attached appenders need must be captured on this thread
+        event.prepareForDeferredProcessing();
+        if (includeCallerData) {
+            event.getCallerData();
+        }
+        if (!queue.offer(event)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (isStarted() || !queue.isEmpty()) {
+                ILoggingEvent event = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    appenders.appendLoopOnAppenders(event);
+                }
+                reportDropped();
+            }
+        } catch (InterruptedException e) {
+            // Stopping, flush what is left
+            for (ILoggingEvent event = queue.poll(); event != null; event = queue.poll()) {
+                appenders.appendLoopOnAppenders(event);
+            }
+            reportDropped();
+        }
+    }
+
+    private void reportDropped() {
+        long count = dropped.get();
+        if (count > 0 && queue.remainingCapacity() >= discardingThreshold) {
+            dropped.addAndGet(-count);
+            addWarn("Dropped " + count + " log events, the buffer of " + queueSize + " was too full");
+        }
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @param discardingThreshold free slots below which events under WARN are dropped, a quarter of the buffer by default
+     */
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    public int getDiscardingThreshold() {
+        return discardingThreshold;
+    }
+
+    public boolean isIncludeCallerData() {
+        return includeCallerData;
+    }
+
+    public void setIncludeCallerData(boolean includeCallerData) {
+        this.includeCallerData = includeCallerData;
+    }
+
+    /**
+     * @return events dropped since the last report
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        addInfo("Attaching appender " + appender.getName() + " to " + getName());
+        appenders.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return appenders.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String name) {
+        return appenders.getAppender(name);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return appenders.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        appenders.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return appenders.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String name) {
+        return appenders.detachAppender(name);
+    }
+}
@@ -0,0 +1,212 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts calculating the strength of our hand as soon as a card is dealt,
+ * so the answer is usually ready by the time we are asked to act.
+ * <p/>
+ * Only the latest speculation is kept. A new card, an action that narrows
+ * the opponents' ranges or the end of the hand replaces the one in
+ * progress so it stops using the equity pool. When the decision asks for a
+ * situation the speculation did not guess the strength is calculated on
+ * the spot.
+ * <p/>
+ * All equities are calculated on the shared equity pool, see
+ * EquityCalculator, the speculation and decision threads only wait for
+ * them. Against opponents who may hold anything equity is enumerated
+ * exactly when affordable, otherwise simulated; once their ranges have
+ * been narrowed it is calculated against the ranges, unless they overlap
+ * too much to deal and it is estimated against any cards. Either way it is
+ * remembered in the EquityCache for the next time the same situation, with
+ * the same ranges, comes up.
+ */
+final class SpeculativeHandStrength {
+
+    private static Logger log = LoggerFactory
+            .getLogger(SpeculativeHandStrength.class);
+
+    private final EquityCalculator equityCalculator;
+    private final ExactEquity exactEquity;
+    private final RangeEquity rangeEquity;
+    private final EquityCache equityCache;
+    private final ExecutorService executor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // Guarded by this
+    private Speculation pending;
+
+    /**
+     * @param executor runs the speculations, may be shared with other bots
+     */
+    SpeculativeHandStrength(EquityCalculator equityCalculator, ExactEquity exactEquity, RangeEquity rangeEquity,
+                            EquityCache equityCache, ExecutorService executor) {
+        this.equityCalculator = equityCalculator;
+        this.exactEquity = exactEquity;
+        this.rangeEquity = rangeEquity;
+        this.equityCache = equityCache;
+        this.executor = executor;
+    }
+
+    /**
+     * Replaces any speculation in progress with one for these cards, unless
+     * it is for the same situation. Nothing is started before the flop is
+     * complete.
+     *
+     * @param myCards CardMask of our hole cards
+     * @param board   CardMask of the community cards dealt so far
+     * @param ranges  the opponents still in the hand
+     */
+    void speculate(final long myCards, final long board, final OpponentRanges.Snapshot ranges) {
+        if (Long.bitCount(myCards) != 2 || Long.bitCount(board) < 3) {
+            cancel();
+            return;
+        }
+        synchronized (this) {
+            if (pending != null && pending.isFor(myCards, board, ranges)) {
+                return;
+            }
+        }
+        Future<HandStrength> future = executor.submit(new Callable<HandStrength>() {
+            @Override
+            public HandStrength call() {
+                return calculate(myCards, board, ranges);
+            }
+        });
+        replace(new Speculation(myCards, board, ranges, future));
+    }
+
+    /**
+     * Stops the speculation in progress, if any.
+     */
+    void cancel() {
+        replace(null);
+    }
+
+    /**
+     * @return the speculated strength if it matches, waiting for it if still in progress, otherwise a fresh one
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    HandStrength get(long myCards, long board, OpponentRanges.Snapshot ranges) {
+        Speculation speculation;
+        synchronized (this) {
+            speculation = pending;
+        }
+        if (speculation != null && speculation.isFor(myCards, board, ranges)) {
+            try {
+                HandStrength strength = speculation.future.get();
+                hits.incrementAndGet();
+                return strength;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for the speculation");
+            } catch (CancellationException e) {
+                log.debug("Speculation was cancelled, calculating hand strength again");
+            } catch (ExecutionException e) {
+                log.warn("Speculation failed, calculating hand strength again", e.getCause());
+            }
+        } else {
+            // Wrong guess, free the equity pool for the real question
+            cancel();
+        }
+        misses.incrementAndGet();
+        return calculate(myCards, board, ranges);
+    }
+
+    /**
+     * Calculates the strength on the equity pool shared by the bots of the
+     * JVM, the calling thread only waits for it.
+     *
+     * @throws CancellationException if the calling thread is interrupted
+     */
+    HandStrength calculate(final long myCards, final long board, OpponentRanges.Snapshot ranges) {
+        Equity equity;
+        if (ranges.getRanges() != null) {
+            equity = equityCache.get(myCards, board, ranges);
+            if (equity == null) {
+                final float[][] weights = ranges.getRanges();
+                equity = equityCalculator.calculateOnPool(new Callable<Equity>() {
+                    @Override
+                    public Equity call() {
+                        return rangeEquity.calculate(myCards, board, weights);
+                    }
+                });
+                if (equity == null) {
+                    // The ranges overlap too much to deal them together, better any cards than no estimate
+                    equity = againstAnyCards(myCards, board, ranges.getOpponents());
+                }
+                equityCache.put(myCards, board, ranges, equity);
+            }
+        } else {
+            equity = againstAnyCards(myCards, board, ranges.getOpponents());
+        }
+        return new HandStrength(equity, HandEvaluator.pokerHand(HandEvaluator.evaluate(myCards | board)));
+    }
+
+    private Equity againstAnyCards(final long myCards, final long board, final int opponents) {
+        Equity equity = equityCache.get(myCards, board, opponents);
+        if (equity == null) {
+            if (exactEquity.isFeasible(myCards, board, opponents)) {
+                equity = equityCalculator.calculateOnPool(new Callable<Equity>() {
+                    @Override
+                    public Equity call() {
+                        return exactEquity.calculate(myCards, board, opponents);
+                    }
+                });
+            } else {
+                equity = equityCalculator.calculate(myCards, board, opponents);
+            }
+            equityCache.put(myCards, board, opponents, equity);
+        }
+        return equity;
+    }
+
+    private void replace(Speculation speculation) {
+        Speculation stale;
+        synchronized (this) {
+            stale = pending;
+            pending = speculation;
+        }
+        if (stale != null) {
+            stale.future.cancel(true);
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return hits.get() + " speculation hits, " + misses.get() + " misses, " + equityCache;
+    }
+
+    private static final class Speculation {
+
+        private final long myCards;
+        private final long board;
+        private final OpponentRanges.Snapshot ranges;
+        private final Future<HandStrength> future;
+
+        Speculation(long myCards, long board, OpponentRanges.Snapshot ranges, Future<HandStrength> future) {
+            this.myCards = myCards;
+            this.board = board;
+            this.ranges = ranges;
+            this.future = future;
+        }
+
+        boolean isFor(long myCards, long board, OpponentRanges.Snapshot ranges) {
+            return this.myCards == myCards && this.board == board && this.ranges.isSameAs(ranges);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The decision thresholds of the bot, compiled from a strategy definition
+ * (see strategy.properties) into flat tables so that a decision only reads
+ * array slots.
+ * <p/>
+ * Preflop every combination of players at the table, dealer or not and
+ * starting hand class has a cell holding whether to raise, whether the
+ * hand is premium and the largest amount it calls. After the flop the
+ * thresholds are kept per street, a street without its own value uses the
+ * postflop one.
+ * <p/>
+ * A Strategy never changes, StrategySource swaps in a new one when the
+ * definition is edited.
+ */
+final class Strategy {
+
+    private static final byte RAISE = 1;
+    private static final byte PREMIUM = 2;
+    private static final int STREETS = PlayState.values().length;
+
+    private final String source;
+    private final byte[] preflopFlags;
+    private final long[] preflopMaxCall;
+    private final double[] maxRaiseEquity = new double[STREETS];
+    private final double[] raiseFairShareMultiple = new double[STREETS];
+    private final double[] drawPotOdds = new double[STREETS];
+
+    private Strategy(String source) {
+        this.source = source;
+        int cells = preflopCell(PreflopTable.MAX_PLAYERS, true, PreflopTable.HAND_CLASSES - 1) + 1;
+        preflopFlags = new byte[cells];
+        preflopMaxCall = new long[cells];
+    }
+
+    /**
+     * @param definition the strategy definition, see strategy.properties
+     * @param source     where the definition was read from, for messages
+     * @throws IllegalArgumentException if a value is missing or can not be parsed
+     */
+    static Strategy compile(Properties definition, String source, PreflopTable preflopTable) {
+        Strategy strategy = new Strategy(source);
+
+        float raiseWinProbability = (float) number(definition, "preflop.raise.winProbability", source);
+        float dealerBonus = (float) number(definition, "preflop.dealer.bonus", source);
+        boolean[] premium = handClasses(value(definition, "preflop.premium", source), source);
+        String[] ladder = value(definition, "preflop.call", source).trim().split("\\s+");
+        float[] callWinProbability = new float[ladder.length];
+        long[] callAmount = new long[ladder.length];
+        for (int rung = 0; rung < ladder.length; rung++) {
+            String[] winProbabilityAmount = ladder[rung].split(":");
+            try {
+                callWinProbability[rung] = Float.parseFloat(winProbabilityAmount[0]);
+                callAmount[rung] = Long.parseLong(winProbabilityAmount[1]);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("preflop.call in " + source
+                        + " must be winProbability:amount pairs, not " + ladder[rung], e);
+            }
+        }
+
+        for (int players = PreflopTable.MIN_PLAYERS; players <= PreflopTable.MAX_PLAYERS; players++) {
+            for (int dealer = 0; dealer < 2; dealer++) {
+                for (int handClass = 0; handClass < PreflopTable.HAND_CLASSES; handClass++) {
+                    int cell = preflopCell(players, dealer == 1, handClass);
+                    float winProbability = preflopTable.winProbability(players, handClass) + (dealer == 1 ? dealerBonus : 0);
+                    byte flags = 0;
+                    if (winProbability > raiseWinProbability) {
+                        flags |= RAISE;
+                    }
+                    if (premium[handClass]) {
+                        flags |= PREMIUM;
+                    }
+                    long maxCall = -1;
+                    for (int rung = 0; rung < ladder.length; rung++) {
+                        if (winProbability > callWinProbability[rung]) {
+                            maxCall = Math.max(maxCall, callAmount[rung]);
+                        }
+                    }
+                    strategy.preflopFlags[cell] = flags;
+                    strategy.preflopMaxCall[cell] = maxCall;
+                }
+            }
+        }
+
+        for (PlayState street : PlayState.values()) {
+            if (street == PlayState.PRE_FLOP) {
+                continue;
+            }
+            int index = street.ordinal();
+            strategy.maxRaiseEquity[index] = streetNumber(definition, street, "raise.maxEquity", source);
+            strategy.raiseFairShareMultiple[index] = streetNumber(definition, street, "raise.fairShareMultiple", source);
+            strategy.drawPotOdds[index] = streetNumber(definition, street, "draw.potOdds", source);
+        }
+        return strategy;
+    }
+
+    /**
+     * @param players number of players at the table, clamped to the 2-10 players in the statistics
+     * @return the index of the preflop cell to pass to the preflop lookups
+     */
+    static int preflopCell(int players, boolean dealer, int handClass) {
+        if (players < PreflopTable.MIN_PLAYERS) {
+            players = PreflopTable.MIN_PLAYERS;
+        } else if (players > PreflopTable.MAX_PLAYERS) {
+            players = PreflopTable.MAX_PLAYERS;
+        }
+        return ((players - PreflopTable.MIN_PLAYERS) * 2 + (dealer ? 1 : 0)) * PreflopTable.HAND_CLASSES + handClass;
+    }
+
+    boolean isPreflopRaise(int cell) {
+        return (preflopFlags[cell] & RAISE) != 0;
+    }
+
+    /**
+     * @return true for the hands that are always played, raising if possible
+     */
+    boolean isPremium(int cell) {
+        return (preflopFlags[cell] & PREMIUM) != 0;
+    }
+
+    /**
+     * @return the largest amount to call, -1 if the hand is not worth any call
+     */
+    long getPreflopMaxCall(int cell) {
+        return preflopMaxCall[cell];
+    }
+
+    /**
+     * @return the equity above which we always raise, if the fair share multiple demands more
+     */
+    double getMaxRaiseEquity(PlayState street) {
+        return maxRaiseEquity[street.ordinal()];
+    }
+
+    /**
+     * @return how many times our share of the field our equity must be to raise
+     */
+    double getRaiseFairShareMultiple(PlayState street) {
+        return raiseFairShareMultiple[street.ordinal()];
+    }
+
+    /**
+     * @return the share of the pot odds a strong draw must beat to call
+     */
+    double getDrawPotOdds(PlayState street) {
+        return drawPotOdds[street.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return "strategy from " + source;
+    }
+
+    private static double streetNumber(Properties definition, PlayState street, String name, String source) {
+        String key = street.name().toLowerCase() + "." + name;
+        return definition.getProperty(key) != null
+                ? number(definition, key, source)
+                : number(definition, "postflop." + name, source);
+    }
+
+    private static double number(Properties definition, String key, String source) {
+        String value = value(definition, key, source);
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " in " + source + " is not a number: " + value, e);
+        }
+    }
+
+    private static String value(Properties definition, String key, String source) {
+        String value = definition.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + key + " in " + source);
+        }
+        return value;
+    }
+
+    /**
+     * @param names hand classes in the notation of the statistics, e.g. "AA KA KAs"
+     */
+    private static boolean[] handClasses(String names, String source) {
+        Map<String, Integer> handClasses = PreflopTable.handClassesByName();
+        boolean[] included = new boolean[PreflopTable.HAND_CLASSES];
+        for (String name : names.trim().split("\\s+")) {
+            if (name.length() == 0) {
+                continue;
+            }
+            Integer handClass = handClasses.get(name);
+            if (handClass == null) {
+                throw new IllegalArgumentException("Unknown hand " + name + " in " + source);
+            }
+            included[handClass] = true;
+        }
+        return included;
+    }
+}
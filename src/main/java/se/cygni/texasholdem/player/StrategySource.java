@@ -0,0 +1,174 @@
+package se.cygni.texasholdem.player;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the bots get their current Strategy from.
+ * <p/>
+ * The strategy definition is strategy.properties on the classpath, or the
+ * file named by the system property deepthought.strategy.file. A file is
+ * watched by a daemon thread and compiled again whenever it changes, so
+ * the thresholds can be tuned while the bots play. A new Strategy is
+ * swapped in with a single volatile write: a decision sees either the old
+ * tables or the new ones, never a mix. A definition that does not compile
+ * is logged and the previous Strategy stays in play.
+ */
+final class StrategySource {
+
+    private static Logger log = LoggerFactory
+            .getLogger(StrategySource.class);
+
+    static final String RESOURCE = "strategy.properties";
+
+    private static final long SETTLE_MILLIS = 100; //Editors often write a file in several steps
+
+    private final PreflopTable preflopTable;
+    private final File file; //null when read from the classpath
+    private volatile Strategy current;
+
+    private StrategySource(PreflopTable preflopTable, File file, Strategy initial) {
+        this.preflopTable = preflopTable;
+        this.file = file;
+        this.current = initial;
+    }
+
+    /**
+     * @param file the strategy definition to play and watch, or null for the one on the classpath
+     * @throws IllegalStateException if the definition is missing or does not compile
+     */
+    static StrategySource open(PreflopTable preflopTable, File file) {
+        Strategy initial = compile(readDefinition(file), file == null ? RESOURCE : file.getName(), preflopTable);
+        StrategySource source = new StrategySource(preflopTable, file, initial);
+        if (file != null) {
+            source.watch();
+            log.info("Playing {}, changes to it are played from the next decision", file);
+        }
+        return source;
+    }
+
+    /**
+     * @return a source that always plays the same strategy, such as a variant in StrategyTuner
+     */
+    static StrategySource fixed(Strategy strategy) {
+        return new StrategySource(null, null, strategy);
+    }
+
+    /**
+     * @return the strategy to use for the decision at hand
+     */
+    Strategy get() {
+        return current;
+    }
+
+    /**
+     * Compiles the file again and plays it if it compiles.
+     *
+     * @return true if the new definition is in play
+     */
+    boolean reload() {
+        try {
+            current = compile(readDefinition(file), file.getName(), preflopTable);
+            log.info("Reloaded {}", file);
+            return true;
+        } catch (IllegalStateException e) {
+            log.warn("Keeping the {}, {}", current, e.getMessage());
+            return false;
+        }
+    }
+
+    private void watch() {
+        final WatchService watcher;
+        final Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.warn("Can not watch {} for changes, playing it as it is", file, e);
+            return;
+        }
+
+        final Path name = file.toPath().getFileName();
+        new ThreadFactoryBuilder().setNameFormat("strategy-watcher").setDaemon(true).build().newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        WatchKey key = watcher.take();
+                        boolean changed = false;
+                        do {
+                            for (WatchEvent<?> event : key.pollEvents()) {
+                                changed |= name.equals(event.context());
+                            }
+                            key.reset();
+                            // Let the rest of a save arrive before compiling
+                            key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                        } while (key != null);
+                        if (changed) {
+                            reload();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ClosedWatchServiceException e) {
+                    // Nothing more to watch
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * @param file the strategy definition, or null for the one on the classpath
+     * @throws IllegalStateException if the definition can not be read
+     */
+    static Properties readDefinition(File file) {
+        byte[] definition;
+        if (file == null) {
+            definition = PreflopTable.readResource(RESOURCE);
+            if (definition == null) {
+                throw new IllegalStateException("Missing strategy " + RESOURCE + " on the classpath");
+            }
+        } else {
+            try {
+                definition = Files.readAllBytes(file.toPath());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read " + file, e);
+            }
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(new ByteArrayInputStream(definition));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not parse " + (file == null ? RESOURCE : file), e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Could not parse " + (file == null ? RESOURCE : file), e);
+        }
+        return properties;
+    }
+
+    /**
+     * @throws IllegalStateException if the definition does not compile
+     */
+    static Strategy compile(Properties definition, String source, PreflopTable preflopTable) {
+        try {
+            return Strategy.compile(definition, source, preflopTable);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
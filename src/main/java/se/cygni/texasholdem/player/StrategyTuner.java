@@ -0,0 +1,210 @@
+package se.cygni.texasholdem.player;
+
+import ch.qos.logback.classic.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps strategy.properties values and reports how every combination does
+ * in bb/100 against the unchanged strategy, on the HeadlessEngine.
+ * <p/>
+ * Each variant plays the same tables: one bot playing the variant against
+ * five playing the base strategy, the variant moving one seat on from
+ * table to table. All variants are dealt the same cards, so the
+ * differences between them are not down to the cards. The base strategy
+ * itself is played as the first variant, its result shows how far from
+ * zero an equal strategy comes out.
+ * <p/>
+ * bb/100 is the big blinds the variant won over all tables per hundred
+ * hands, reported with a 95% confidence interval from the spread between
+ * the tables.
+ * <p/>
+ * Usage: StrategyTuner tables handsPerTable seed [key=value,value... ...]
+ * <p/>
+ * e.g. StrategyTuner 2000 200 42 preflop.raise.winProbability=55,60,65 postflop.raise.fairShareMultiple=1.3,1.5
+ * <p/>
+ * The base strategy is the one the bot plays, see StrategySource. Unless
+ * they are set, the equity sample limits are lowered and decisions run
+ * without a deadline, for throughput.
+ */
+public class StrategyTuner {
+
+    private static Logger log = LoggerFactory
+            .getLogger(StrategyTuner.class);
+
+    private static final int SEATS = 6;
+    private static final long STARTING_CHIPS = 2000;
+    private static final long SMALL_BLIND = 10;
+    private static final double Z_95 = 1.96;
+
+    public static void main(String... args) {
+        if (args.length < 3) {
+            System.err.println("Usage: StrategyTuner tables handsPerTable seed [key=value,value... ...]");
+            System.exit(1);
+        }
+        int tables = Integer.parseInt(args[0]);
+        long hands = Long.parseLong(args[1]);
+        long seed = Long.parseLong(args[2]);
+        Map<String, String[]> sweeps = new LinkedHashMap<String, String[]>();
+        for (int i = 3; i < args.length; i++) {
+            String[] keyValues = args[i].split("=", 2);
+            if (keyValues.length != 2) {
+                System.err.println("Expected key=value,value... but got " + args[i]);
+                System.exit(1);
+            }
+            sweeps.put(keyValues[0], keyValues[1].split(","));
+        }
+
+        defaultProperty("deepthought.equity.maxSamples", "5000");
+        defaultProperty("deepthought.equity.rangeSamples", "2000");
+        defaultProperty("deepthought.decision.budgetMillis", "0");
+        // Thousands of tables would drown the log in decisions and showdowns
+        Logger botLog = LoggerFactory.getLogger(FullyImplementedBot.class);
+        if (botLog instanceof ch.qos.logback.classic.Logger) {
+            ((ch.qos.logback.classic.Logger) botLog).setLevel(Level.WARN);
+        }
+
+        BotResources resources = BotResources.shared();
+        String strategyFile = System.getProperty("deepthought.strategy.file");
+        Properties base = StrategySource.readDefinition(strategyFile == null ? null : new File(strategyFile));
+        List<Map<String, String>> variants = variants(sweeps);
+
+        HeadlessEngine engine = new HeadlessEngine(Runtime.getRuntime().availableProcessors(),
+                STARTING_CHIPS, SMALL_BLIND, hands);
+        StrategySource baseline = StrategySource.fixed(
+                StrategySource.compile(base, "base strategy", resources.getPreflopTable()));
+        List<Result> results = new ArrayList<Result>();
+        try {
+            for (Map<String, String> overrides : variants) {
+                Properties definition = new Properties();
+                definition.putAll(base);
+                definition.putAll(overrides);
+                String name = overrides.isEmpty() ? "base strategy" : overrides.toString();
+                StrategySource variant = StrategySource.fixed(
+                        StrategySource.compile(definition, name, resources.getPreflopTable()));
+
+                long start = System.nanoTime();
+                List<HeadlessEngine.TableResult> tableResults = engine.play(tables, seed, lineup(resources, variant, baseline));
+                Result result = new Result(name, tableResults);
+                results.add(result);
+                log.info("{} in {} s", result, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+            }
+        } finally {
+            engine.shutdown();
+        }
+
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                return Double.compare(b.bigBlindsPer100, a.bigBlindsPer100);
+            }
+        });
+        StringBuilder sb = new StringBuilder("Variants by bb/100:");
+        for (Result result : results) {
+            sb.append("\n  ").append(result);
+        }
+        log.info(sb.toString());
+        System.exit(0);
+    }
+
+    private static HeadlessEngine.Lineup lineup(final BotResources resources, final StrategySource variant,
+                                                final StrategySource baseline) {
+        return new HeadlessEngine.Lineup() {
+            @Override
+            public List<TableSeat> seats(int table) {
+                List<TableSeat> seats = new ArrayList<TableSeat>(SEATS);
+                for (int seat = 0; seat < SEATS; seat++) {
+                    seats.add(new PlayerSeat(seat == variantSeat(table)
+                            ? new FullyImplementedBot("Variant", resources, variant)
+                            : new FullyImplementedBot("Base_" + seat, resources, baseline)));
+                }
+                return seats;
+            }
+        };
+    }
+
+    private static int variantSeat(int table) {
+        return table % SEATS;
+    }
+
+    /**
+     * @return every combination of the swept values, after the empty one for the base strategy
+     */
+    static List<Map<String, String>> variants(Map<String, String[]> sweeps) {
+        List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+        combinations.add(new LinkedHashMap<String, String>());
+        for (Map.Entry<String, String[]> sweep : sweeps.entrySet()) {
+            List<Map<String, String>> extended = new ArrayList<Map<String, String>>();
+            for (Map<String, String> combination : combinations) {
+                for (String value : sweep.getValue()) {
+                    Map<String, String> variant = new LinkedHashMap<String, String>(combination);
+                    variant.put(sweep.getKey(), value.trim());
+                    extended.add(variant);
+                }
+            }
+            combinations = extended;
+        }
+        if (!sweeps.isEmpty()) {
+            combinations.add(0, new LinkedHashMap<String, String>());
+        }
+        return combinations;
+    }
+
+    /**
+     * bb/100 of the variant as the ratio of big blinds won to hands over all
+     * tables, with the standard error of a ratio estimate.
+     */
+    private static final class Result {
+
+        private final String name;
+        private final long hands;
+        private final double bigBlindsPer100;
+        private final double confidence;
+
+        Result(String name, List<HeadlessEngine.TableResult> tables) {
+            this.name = name;
+            int n = tables.size();
+            double won = 0;
+            long totalHands = 0;
+            for (int table = 0; table < n; table++) {
+                won += tables.get(table).getBigBlindsWon(variantSeat(table));
+                totalHands += tables.get(table).getHands();
+            }
+            this.hands = totalHands;
+            double perHand = totalHands == 0 ? 0 : won / totalHands;
+
+            double squares = 0;
+            for (int table = 0; table < n; table++) {
+                HeadlessEngine.TableResult result = tables.get(table);
+                double residual = result.getBigBlindsWon(variantSeat(table)) - perHand * result.getHands();
+                squares += residual * residual;
+            }
+            double meanHands = n == 0 ? 0 : (double) totalHands / n;
+            double standardError = n < 2 || meanHands == 0 ? 0 : Math.sqrt(squares / (n * (n - 1.0))) / meanHands;
+
+            this.bigBlindsPer100 = 100 * perHand;
+            this.confidence = 100 * Z_95 * standardError;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%+8.2f bb/100 +- %.2f over %d hands: %s", bigBlindsPer100, confidence, hands, name);
+        }
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+}
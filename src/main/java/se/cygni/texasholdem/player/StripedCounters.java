@@ -0,0 +1,52 @@
+package se.cygni.texasholdem.player;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of counters that many threads can add to without contending, for
+ * the metrics updated from every table.
+ * <p/>
+ * The counts are spread over a power of two of stripes, at least twice the
+ * number of cores. A thread adds to the stripe its id hashes to with one
+ * atomic add, and the stripes are padded apart by a cache line, so two
+ * threads rarely touch the same line. The counters of a stripe sit next to
+ * each other, they are mostly updated by the same thread. Reading sums all
+ * stripes and is not a snapshot: adds made while summing may or may not be
+ * included.
+ */
+final class StripedCounters {
+
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1);
+    private static final int PADDING = 8; //Longs per 64 byte cache line
+
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    StripedCounters(int counters) {
+        stride = counters + PADDING;
+        cells = new AtomicLongArray(STRIPES * stride + PADDING);
+    }
+
+    void increment(int counter) {
+        add(counter, 1);
+    }
+
+    void add(int counter, long amount) {
+        cells.getAndAdd(stripe() + counter, amount);
+    }
+
+    long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(PADDING + stripe * stride + counter);
+        }
+        return sum;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id * 0x9E3779B97F4A7C15L >>> 32); //Spreads the consecutive ids of pool threads
+        return PADDING + (hash & (STRIPES - 1)) * stride;
+    }
+}
@@ -0,0 +1,93 @@
+package se.cygni.texasholdem.player;
+
+/**
+ * Maps a situation to a key shared by every situation that only differs
+ * by a renaming of the suits, e.g. AhKh on 2h7c9d and AsKs on 2s7d9c.
+ * <p/>
+ * Each suit gets a signature from the ranks it holds in our hand and on
+ * the board. Ordering the suits by signature gives every suit a canonical
+ * position regardless of what it was called; suits with equal signatures
+ * are interchangeable so their order does not matter. The cards are then
+ * renamed to their canonical suit and packed with the number of opponents:
+ * <pre>
+ * bits  0..3   opponents
+ * bits  4..15  hole cards, 6 bits each
+ * bits 16..45  community cards, 6 bits each
+ * </pre>
+ * A card is stored as its index + 1 so that empty slots stay zero. No
+ * allocation is made.
+ */
+final class SuitIsomorphism {
+
+    private static final int CARD_BITS = 6;
+    private static final int OPPONENT_BITS = 4;
+    private static final int HOLE_CARDS = 2;
+
+    private SuitIsomorphism() {
+    }
+
+    /**
+     * @param myCards   CardMask of our two hole cards
+     * @param board     CardMask of the community cards dealt so far
+     * @param opponents the number of opponents, at most 15
+     * @return the same key for every suit renaming of the situation
+     */
+    static long key(long myCards, long board, int opponents) {
+        long s0 = signature(myCards, board, 0);
+        long s1 = signature(myCards, board, 1);
+        long s2 = signature(myCards, board, 2);
+        long s3 = signature(myCards, board, 3);
+
+        // Sorting network, descending
+        long high01 = Math.max(s0, s1);
+        long low01 = Math.min(s0, s1);
+        long high23 = Math.max(s2, s3);
+        long low23 = Math.min(s2, s3);
+        long middleHigh = Math.min(high01, high23);
+        long middleLow = Math.max(low01, low23);
+        long first = Math.max(high01, high23);
+        long second = Math.max(middleHigh, middleLow);
+        long third = Math.min(middleHigh, middleLow);
+        long fourth = Math.min(low01, low23);
+
+        long hole = rename(myCards, first, 0) | rename(myCards, second, 1)
+                | rename(myCards, third, 2) | rename(myCards, fourth, 3);
+        long community = rename(board, first, 0) | rename(board, second, 1)
+                | rename(board, third, 2) | rename(board, fourth, 3);
+
+        return opponents
+                | pack(hole) << OPPONENT_BITS
+                | pack(community) << (OPPONENT_BITS + HOLE_CARDS * CARD_BITS);
+    }
+
+    /**
+     * @return the hole ranks of the suit above its board ranks, above the suit itself in the lowest two bits
+     */
+    private static long signature(long myCards, long board, int suit) {
+        int shift = suit * CardMask.RANKS;
+        long holeRanks = (myCards >>> shift) & CardMask.RANK_BITS;
+        long boardRanks = (board >>> shift) & CardMask.RANK_BITS;
+        return holeRanks << (CardMask.RANKS + 2) | boardRanks << 2 | suit;
+    }
+
+    /**
+     * @return the cards of the suit in the signature moved to the canonical position of that suit
+     */
+    private static long rename(long cards, long signature, int position) {
+        int suit = (int) (signature & 3);
+        return ((cards >>> (suit * CardMask.RANKS)) & CardMask.RANK_BITS) << (position * CardMask.RANKS);
+    }
+
+    /**
+     * @return the cards as indexes + 1, lowest card in the lowest bits
+     */
+    private static long pack(long cards) {
+        long packed = 0;
+        int shift = 0;
+        for (long remaining = cards; remaining != 0; remaining &= remaining - 1) {
+            packed |= (long) (Long.numberOfTrailingZeros(remaining) + 1) << shift;
+            shift += CARD_BITS;
+        }
+        return packed;
+    }
+}
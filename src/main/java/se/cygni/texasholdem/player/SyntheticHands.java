@@ -0,0 +1,90 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.communication.message.event.*;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.GamePlayer;
+import se.cygni.texasholdem.game.definitions.ActionType;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Made-up hands as the poker server would announce them to one player,
+ * for driving a bot without a server: WarmUp warms the JIT compiler up
+ * with them, and the tests and benchmarks use them too.
+ */
+final class SyntheticHands {
+
+    static final long SMALL_BLIND = 5;
+    static final long BIG_BLIND = 10;
+    static final long STARTING_CHIPS = 10000;
+
+    private SyntheticHands() {
+    }
+
+    /**
+     * @param playerName the player the hand is told to, seated first and dealt two cards
+     * @param players    number of players at the table, 2-10
+     * @param street     the hand is dealt up to and including this street
+     * @return the events from the start of the hand up to the first action request on the street
+     */
+    static List<TexasEvent> deal(String playerName, int players, PlayState street, Random random) {
+        List<GamePlayer> table = new ArrayList<GamePlayer>();
+        table.add(new GamePlayer(playerName, STARTING_CHIPS));
+        for (int i = 1; i < players; i++) {
+            table.add(new GamePlayer("Opponent_" + i, STARTING_CHIPS));
+        }
+        GamePlayer dealer = table.get(players - 1);
+        GamePlayer smallBlind = table.get(players == 2 ? 1 : 0);
+        GamePlayer bigBlind = table.get(players == 2 ? 0 : 1);
+
+        int[] deck = EquityCalculator.unseenCards(0L);
+        for (int i = 0; i < 7; i++) {
+            int j = i + random.nextInt(deck.length - i);
+            int card = deck[j];
+            deck[j] = deck[i];
+            deck[i] = card;
+        }
+
+        List<TexasEvent> events = new ArrayList<TexasEvent>();
+        events.add(new PlayIsStartedEvent(table, SMALL_BLIND, BIG_BLIND, dealer, smallBlind, bigBlind, 1L));
+        events.add(new PlayerBetSmallBlindEvent(smallBlind, SMALL_BLIND));
+        events.add(new PlayerBetBigBlindEvent(bigBlind, BIG_BLIND));
+        events.add(new YouHaveBeenDealtACardEvent(CardMask.card(deck[0])));
+        events.add(new YouHaveBeenDealtACardEvent(CardMask.card(deck[1])));
+        events.add(new TableChangedStateEvent(PlayState.PRE_FLOP));
+
+        PlayState[] streets = {PlayState.FLOP, PlayState.TURN, PlayState.RIVER};
+        int[] cardsOnStreet = {3, 1, 1};
+        int nextCard = 2;
+        for (int i = 0; i < streets.length && street.ordinal() >= streets[i].ordinal(); i++) {
+            events.add(new TableChangedStateEvent(streets[i]));
+            for (int j = 0; j < cardsOnStreet[i]; j++) {
+                events.add(new CommunityHasBeenDealtACardEvent(CardMask.card(deck[nextCard++])));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * @param facingBet true if there is a big blind to call, otherwise it is possible to check
+     */
+    static ActionRequest actionRequest(boolean facingBet) {
+        List<Action> actions = new ArrayList<Action>();
+        actions.add(new Action(ActionType.FOLD, 0));
+        if (facingBet) {
+            actions.add(new Action(ActionType.CALL, BIG_BLIND));
+        } else {
+            actions.add(new Action(ActionType.CHECK, 0));
+        }
+        actions.add(new Action(ActionType.RAISE, (facingBet ? BIG_BLIND : 0) + BIG_BLIND));
+        actions.add(new Action(ActionType.ALL_IN, STARTING_CHIPS));
+
+        ActionRequest request = new ActionRequest();
+        request.setPossibleActions(actions);
+        return request;
+    }
+}
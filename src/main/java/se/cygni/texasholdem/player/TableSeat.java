@@ -0,0 +1,24 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+
+/**
+ * A player seated at a HoldemTable, either a bot behind a socket or a
+ * Player called directly in the same JVM.
+ */
+interface TableSeat {
+
+    String getName();
+
+    /**
+     * Tells the seat what happens at the table, in the order it happens.
+     */
+    void onEvent(TexasEvent event);
+
+    /**
+     * @return the chosen action, or null if the seat failed to answer in time
+     */
+    Action actionRequired(ActionRequest request);
+}
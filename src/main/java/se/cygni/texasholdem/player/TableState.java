@@ -0,0 +1,399 @@
+package se.cygni.texasholdem.player;
+
+import se.cygni.texasholdem.communication.message.event.*;
+import se.cygni.texasholdem.game.GamePlayer;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The hand in progress at the table of one bot, as far as its decisions
+ * need to know it: seats, blinds, the street, cards and the draws they
+ * make, chips, what each seat has put in the pot and who has folded or
+ * gone all in.
+ * <p/>
+ * It listens to the events of its bot through the EventRouter, and every
+ * update publishes a new immutable Snapshot with a single volatile write.
+ * A decision reads one Snapshot from start to end, so it sees the table
+ * as it was after some event and never half an update, without locking
+ * and from whatever thread it runs on.
+ * <p/>
+ * Seats are numbered in the order of the players of PlayIsStartedEvent.
+ * The names and starting chips only change with a new hand, so snapshots
+ * of the same hand share them; only the investments are copied.
+ * <p/>
+ * The update methods must be called from a single thread, the event thread.
+ */
+final class TableState implements EventRouter.Listener {
+
+    /**
+     * The events that change the table
+     */
+    static final Set<EventType> EVENTS = Collections.unmodifiableSet(EnumSet.of(
+            EventType.PLAY_IS_STARTED, EventType.TABLE_CHANGED_STATE,
+            EventType.YOU_HAVE_BEEN_DEALT_A_CARD, EventType.COMMUNITY_HAS_BEEN_DEALT_A_CARD,
+            EventType.PLAYER_BET_SMALL_BLIND, EventType.PLAYER_BET_BIG_BLIND,
+            EventType.PLAYER_CALLED, EventType.PLAYER_RAISED, EventType.PLAYER_WENT_ALL_IN,
+            EventType.PLAYER_FOLDED, EventType.PLAYER_FORCED_FOLDED, EventType.PLAYER_QUIT,
+            EventType.YOU_WON_AMOUNT));
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final long[] NO_CHIPS = new long[0];
+
+    private final String myName;
+
+    // Only touched by the event thread
+    private String[] names = NO_NAMES;
+    private long[] startChips = NO_CHIPS;
+    private long[] invested = NO_CHIPS;
+    private int me = -1;
+    private int dealer = -1;
+    private int smallBlindSeat = -1;
+    private int bigBlindSeat = -1;
+    private long smallBlind;
+    private long bigBlind;
+    private long tableId;
+    private PlayState street;
+    private long myCards;
+    private long board;
+    private BoardAnalyzer draws = BoardAnalyzer.NONE;
+    private long pot;
+    private int folded; //Bit per seat
+    private int allIn;
+    private long myChips;
+
+    private volatile Snapshot snapshot;
+
+    TableState(String myName) {
+        this.myName = myName;
+        publish();
+    }
+
+    /**
+     * @return the table after the latest event
+     */
+    Snapshot get() {
+        return snapshot;
+    }
+
+    @Override
+    public void onEvent(EventType type, TexasEvent event) {
+        switch (type) {
+            case PLAY_IS_STARTED:
+                PlayIsStartedEvent started = (PlayIsStartedEvent) event;
+                onPlayIsStarted(started.getPlayers(), started.getDealer(), started.getSmallBlindPlayer(),
+                        started.getBigBlindPlayer(), started.getSmallBlind(), started.getBigBlind(), started.getTableId());
+                break;
+            case TABLE_CHANGED_STATE:
+                onStreet(((TableChangedStateEvent) event).getState());
+                break;
+            case YOU_HAVE_BEEN_DEALT_A_CARD:
+                onMyCard(CardMask.index(((YouHaveBeenDealtACardEvent) event).getCard()));
+                break;
+            case COMMUNITY_HAS_BEEN_DEALT_A_CARD:
+                onCommunityCard(CardMask.index(((CommunityHasBeenDealtACardEvent) event).getCard()));
+                break;
+            case PLAYER_BET_SMALL_BLIND:
+                PlayerBetSmallBlindEvent smallBlind = (PlayerBetSmallBlindEvent) event;
+                onBet(smallBlind.getPlayer(), smallBlind.getSmallBlind());
+                break;
+            case PLAYER_BET_BIG_BLIND:
+                PlayerBetBigBlindEvent bigBlind = (PlayerBetBigBlindEvent) event;
+                onBet(bigBlind.getPlayer(), bigBlind.getBigBlind());
+                break;
+            case PLAYER_CALLED:
+                PlayerCalledEvent called = (PlayerCalledEvent) event;
+                onBet(called.getPlayer(), called.getCallBet());
+                break;
+            case PLAYER_RAISED:
+                PlayerRaisedEvent raised = (PlayerRaisedEvent) event;
+                onBet(raised.getPlayer(), raised.getRaiseBet());
+                break;
+            case PLAYER_WENT_ALL_IN:
+                PlayerWentAllInEvent allIn = (PlayerWentAllInEvent) event;
+                onAllIn(allIn.getPlayer(), allIn.getAllInAmount());
+                break;
+            case PLAYER_FOLDED:
+                onFolded(((PlayerFoldedEvent) event).getPlayer());
+                break;
+            case PLAYER_FORCED_FOLDED:
+                onFolded(((PlayerForcedFoldedEvent) event).getPlayer());
+                break;
+            case PLAYER_QUIT:
+                onFolded(((PlayerQuitEvent) event).getPlayer());
+                break;
+            case YOU_WON_AMOUNT:
+                onMyChips(((YouWonAmountEvent) event).getYourChipAmount());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onPlayIsStarted(List<GamePlayer> players, GamePlayer dealerPlayer, GamePlayer smallBlindPlayer,
+                         GamePlayer bigBlindPlayer, long smallBlind, long bigBlind, long tableId) {
+        int seats = players.size();
+        names = new String[seats];
+        startChips = new long[seats];
+        invested = new long[seats];
+        me = -1;
+        for (int seat = 0; seat < seats; seat++) {
+            GamePlayer player = players.get(seat);
+            names[seat] = player.getName();
+            startChips[seat] = player.getChipCount();
+            if (myName.equals(names[seat])) {
+                me = seat;
+                myChips = startChips[seat];
+            }
+        }
+        dealer = seat(dealerPlayer);
+        smallBlindSeat = seat(smallBlindPlayer);
+        bigBlindSeat = seat(bigBlindPlayer);
+        this.smallBlind = smallBlind;
+        this.bigBlind = bigBlind;
+        this.tableId = tableId;
+        street = PlayState.PRE_FLOP;
+        myCards = 0;
+        board = 0;
+        draws = BoardAnalyzer.NONE;
+        pot = 0;
+        folded = 0;
+        allIn = 0;
+        publish();
+    }
+
+    private void onStreet(PlayState street) {
+        this.street = street;
+        publish();
+    }
+
+    private void onMyCard(int card) {
+        myCards |= 1L << card;
+        draws = new BoardAnalyzer(myCards, board);
+        publish();
+    }
+
+    private void onCommunityCard(int card) {
+        board |= 1L << card;
+        draws = new BoardAnalyzer(myCards, board);
+        publish();
+    }
+
+    /**
+     * A blind, call or raise.
+     */
+    private void onBet(GamePlayer player, long amount) {
+        int seat = seat(player);
+        if (seat >= 0) {
+            invested = invested.clone();
+            invested[seat] += amount;
+        }
+        pot += amount;
+        publish();
+    }
+
+    private void onAllIn(GamePlayer player, long amount) {
+        int seat = seat(player);
+        if (seat >= 0) {
+            allIn |= 1 << seat;
+        }
+        onBet(player, amount);
+    }
+
+    /**
+     * A fold, forced or not, or a player quitting.
+     */
+    private void onFolded(GamePlayer player) {
+        int seat = seat(player);
+        if (seat >= 0) {
+            folded |= 1 << seat;
+        }
+        publish();
+    }
+
+    private void onMyChips(long chips) {
+        myChips = chips;
+        publish();
+    }
+
+    private int seat(GamePlayer player) {
+        if (player == null) {
+            return -1;
+        }
+        String name = player.getName();
+        for (int seat = 0; seat < names.length; seat++) {
+            if (names[seat].equals(name)) {
+                return seat;
+            }
+        }
+        return -1;
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(this);
+    }
+
+    /**
+     * The table after one event. Never changes.
+     */
+    static final class Snapshot {
+
+        private final String[] names; //Shared with the other snapshots of the hand, never written
+        private final long[] startChips;
+        private final long[] invested;
+        private final int me;
+        private final int dealer;
+        private final int smallBlindSeat;
+        private final int bigBlindSeat;
+        private final long smallBlind;
+        private final long bigBlind;
+        private final long tableId;
+        private final PlayState street;
+        private final long myCards;
+        private final long board;
+        private final BoardAnalyzer draws;
+        private final long pot;
+        private final int folded;
+        private final int allIn;
+        private final long myChips;
+
+        private Snapshot(TableState state) {
+            names = state.names;
+            startChips = state.startChips;
+            invested = state.invested; //Copied by onBet before it is written
+            me = state.me;
+            dealer = state.dealer;
+            smallBlindSeat = state.smallBlindSeat;
+            bigBlindSeat = state.bigBlindSeat;
+            smallBlind = state.smallBlind;
+            bigBlind = state.bigBlind;
+            tableId = state.tableId;
+            street = state.street;
+            myCards = state.myCards;
+            board = state.board;
+            draws = state.draws;
+            pot = state.pot;
+            folded = state.folded;
+            allIn = state.allIn;
+            myChips = state.myChips;
+        }
+
+        /**
+         * @return the street being played, null before the first hand
+         */
+        PlayState getStreet() {
+            return street;
+        }
+
+        long getSmallBlind() {
+            return smallBlind;
+        }
+
+        long getBigBlind() {
+            return bigBlind;
+        }
+
+        long getTableId() {
+            return tableId;
+        }
+
+        /**
+         * @return CardMask of the cards dealt to us
+         */
+        long getMyCards() {
+            return myCards;
+        }
+
+        /**
+         * @return CardMask of the community cards
+         */
+        long getBoard() {
+            return board;
+        }
+
+        /**
+         * @return our draws and the texture of the board with the cards dealt so far
+         */
+        BoardAnalyzer getDraws() {
+            return draws;
+        }
+
+        /**
+         * @return the number of players dealt into the hand
+         */
+        int getNumberOfPlayers() {
+            return names.length;
+        }
+
+        int getNumberOfFoldedPlayers() {
+            return Integer.bitCount(folded);
+        }
+
+        /**
+         * @return our seat, -1 if we are not in the hand
+         */
+        int getMySeat() {
+            return me;
+        }
+
+        String getName(int seat) {
+            return names[seat];
+        }
+
+        boolean amIDealer() {
+            return me >= 0 && me == dealer;
+        }
+
+        boolean amISmallBlind() {
+            return me >= 0 && me == smallBlindSeat;
+        }
+
+        boolean amIBigBlind() {
+            return me >= 0 && me == bigBlindSeat;
+        }
+
+        /**
+         * @return the chips of the seat when the hand started
+         */
+        long getChips(int seat) {
+            return startChips[seat];
+        }
+
+        /**
+         * @return the chips the seat has left, not counting what it has put in the pot
+         */
+        long getStack(int seat) {
+            return Math.max(0, startChips[seat] - invested[seat]);
+        }
+
+        long getInvestment(int seat) {
+            return invested[seat];
+        }
+
+        long getMyInvestment() {
+            return me >= 0 ? invested[me] : 0;
+        }
+
+        long getPotTotal() {
+            return pot;
+        }
+
+        boolean hasFolded(int seat) {
+            return (folded & 1 << seat) != 0;
+        }
+
+        boolean hasGoneAllIn(int seat) {
+            return (allIn & 1 << seat) != 0;
+        }
+
+        /**
+         * @return our chips as last told by the server, at the start of the hand or when winning
+         */
+        long getMyChips() {
+            return myChips;
+        }
+    }
+}
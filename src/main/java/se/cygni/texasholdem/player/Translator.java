@@ -3,7 +3,6 @@ package se.cygni.texasholdem.player;
 import se.cygni.texasholdem.game.Card;
 import se.cygni.texasholdem.game.definitions.Rank;
 
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -19,8 +18,14 @@ class Translator {
         Card first = cards.get(0);
         Card second = cards.get(1);
 
-        Rank firstRank = first.getRank();
-        Rank secondRank = second.getRank();
+        return translate(first.getRank(), second.getRank(), first.getSuit().equals(second.getSuit()));
+    }
+
+    /**
+     * Same notation as translateFromShortString but from ranks, used when
+     * enumerating all hand classes without having any cards at hand.
+     */
+    public static String translate(Rank firstRank, Rank secondRank, boolean suited){
 
         StringBuilder sb = new StringBuilder();
 
@@ -32,7 +37,7 @@ class Translator {
             sb.append(secondRank.getName());
         }
 
-        if(first.getSuit().equals(second.getSuit())){
+        if(suited){
             sb.append("s");
         }
 
@@ -0,0 +1,93 @@
+package se.cygni.texasholdem.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.game.definitions.PlayState;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the decision code through synthetic hands until it has been
+ * compiled, before a bot registers for play.
+ * <p/>
+ * An offline bot is dealt one hand per street and asked to decide, round
+ * after round, for the duration of the warm-up. The tables and pools are
+ * the ones the real bots share, so the equity pool threads are warm too.
+ * Afterwards the time of the first round, the steady-state round time (the
+ * median of the last quarter of the rounds) and when the rounds first came
+ * within STEADY_MARGIN of it are logged.
+ * <p/>
+ * It runs once per JVM, for as long as the system property
+ * deepthought.warmup.millis says, 0 skips it.
+ */
+final class WarmUp {
+
+    private static Logger log = LoggerFactory
+            .getLogger(WarmUp.class);
+
+    private static final long DEFAULT_MILLIS = 5000;
+    private static final int PLAYERS = 6;
+    private static final double STEADY_MARGIN = 1.2;
+    private static final PlayState[] STREETS = {PlayState.PRE_FLOP, PlayState.FLOP, PlayState.TURN, PlayState.RIVER};
+
+    private static boolean done;
+
+    private WarmUp() {
+    }
+
+    static synchronized void runOnce() {
+        if (done) {
+            return;
+        }
+        done = true;
+        long millis = Long.getLong("deepthought.warmup.millis", DEFAULT_MILLIS);
+        if (millis > 0) {
+            run(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+
+    static void run(long budgetNanos) {
+        long start = System.nanoTime();
+        FullyImplementedBot bot = new FullyImplementedBot();
+        Random random = new Random(42);
+
+        long[] roundNanos = new long[256];
+        long[] roundEnds = new long[256];
+        int rounds = 0;
+        while (System.nanoTime() - start < budgetNanos) {
+            long roundStart = System.nanoTime();
+            for (PlayState street : STREETS) {
+                for (TexasEvent event : SyntheticHands.deal(bot.getName(), PLAYERS, street, random)) {
+                    bot.dispatchEvent(event);
+                }
+                bot.decide(SyntheticHands.actionRequest(random.nextBoolean()));
+            }
+            if (rounds == roundNanos.length) {
+                roundNanos = Arrays.copyOf(roundNanos, 2 * rounds);
+                roundEnds = Arrays.copyOf(roundEnds, 2 * rounds);
+            }
+            long end = System.nanoTime();
+            roundEnds[rounds] = end - start;
+            roundNanos[rounds] = end - roundStart;
+            rounds++;
+        }
+        if (rounds == 0) {
+            return;
+        }
+
+        long[] lastQuarter = Arrays.copyOfRange(roundNanos, rounds - Math.max(1, rounds / 4), rounds);
+        Arrays.sort(lastQuarter);
+        long steady = lastQuarter[lastQuarter.length / 2];
+        int reached = 0;
+        while (reached < rounds - 1 && roundNanos[reached] > steady * STEADY_MARGIN) {
+            reached++;
+        }
+        log.info("Warmed up with {} hands in {} ms, a round of {} decisions took {} ms at first and {} ms steady, reached after {} ms",
+                rounds * STREETS.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), STREETS.length,
+                String.format("%.2f", roundNanos[0] / 1e6), String.format("%.2f", steady / 1e6),
+                TimeUnit.NANOSECONDS.toMillis(roundEnds[reached]));
+    }
+}
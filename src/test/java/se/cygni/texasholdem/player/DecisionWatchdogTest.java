@@ -0,0 +1,61 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.Test;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.definitions.ActionType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class DecisionWatchdogTest {
+
+    private static final Callable<Action> FAILING = new Callable<Action>() {
+        @Override
+        public Action call() {
+            throw new IllegalStateException("no decision");
+        }
+    };
+
+    private final BotMetrics metrics = new BotMetrics();
+    // Without a budget the strategy runs inline, a failure still falls back
+    private final DecisionWatchdog watchdog = new DecisionWatchdog(0, null, metrics);
+
+    @Test
+    public void checksBeforeFolding() {
+        Action check = new Action(ActionType.CHECK, 0);
+        assertSame(check, watchdog.decide(null, request(
+                new Action(ActionType.FOLD, 0), check, new Action(ActionType.RAISE, 20)), FAILING));
+    }
+
+    @Test
+    public void foldsWhenItCannotCheck() {
+        Action fold = new Action(ActionType.FOLD, 0);
+        assertSame(fold, watchdog.decide(null, request(
+                new Action(ActionType.CALL, 10), fold, new Action(ActionType.RAISE, 20)), FAILING));
+    }
+
+    @Test
+    public void takesTheFirstActionWithoutCheckOrFold() {
+        Action call = new Action(ActionType.CALL, 10);
+        assertSame(call, watchdog.decide(null, request(call, new Action(ActionType.ALL_IN, 990)), FAILING));
+        assertEquals(1, metrics.getFallbacks());
+    }
+
+    @Test
+    public void callsWhenNothingIsOffered() {
+        Action action = watchdog.decide(null, request(), FAILING);
+        assertEquals(ActionType.CALL, action.getActionType());
+        assertEquals(0, action.getAmount());
+    }
+
+    private static ActionRequest request(Action... actions) {
+        ActionRequest request = new ActionRequest();
+        request.setPossibleActions(new ArrayList<Action>(Arrays.asList(actions)));
+        return request;
+    }
+}
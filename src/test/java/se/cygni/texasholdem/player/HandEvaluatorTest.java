@@ -0,0 +1,210 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.Test;
+import se.cygni.texasholdem.game.Card;
+import se.cygni.texasholdem.game.util.PokerHandUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HandEvaluatorTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void sameCategoryAsBruteForce() {
+        int[] seen = new int[HandEvaluator.ROYAL_FLUSH + 1];
+        for (int i = 0; i < 100000; i++) {
+            int[] cards = deal(5 + random.nextInt(3));
+            int category = HandEvaluator.category(HandEvaluator.evaluate(mask(cards)));
+            assertEquals(describe(cards), category(bestOfFive(cards)), category);
+            seen[category]++;
+        }
+        // Random hands reach every category up to four of a kind
+        for (int category = HandEvaluator.HIGH_HAND; category <= HandEvaluator.FOUR_OF_A_KIND; category++) {
+            assertTrue("category " + category, seen[category] > 0);
+        }
+    }
+
+    @Test
+    public void ordersHandsOnTheSameBoardLikeBruteForce() {
+        int ties = 0;
+        for (int i = 0; i < 100000; i++) {
+            int[] cards = deal(9);
+            int[] mine = {cards[0], cards[1], cards[4], cards[5], cards[6], cards[7], cards[8]};
+            int[] theirs = {cards[2], cards[3], cards[4], cards[5], cards[6], cards[7], cards[8]};
+            int expected = Long.signum(bestOfFive(mine) - bestOfFive(theirs));
+            int actual = Integer.signum(HandEvaluator.evaluate(mask(mine)) - HandEvaluator.evaluate(mask(theirs)));
+            assertEquals(describe(mine) + " against " + describe(theirs), expected, actual);
+            if (expected == 0) {
+                ties++;
+            }
+        }
+        // Split pots must have been compared too
+        assertTrue(ties > 100);
+    }
+
+    @Test
+    public void ranksEveryStraightFlushAndTheWheel() {
+        for (int suit = 0; suit < CardMask.SUITS; suit++) {
+            for (int high = 3; high < CardMask.RANKS; high++) {
+                int[] cards = new int[5];
+                for (int i = 0; i < 5; i++) {
+                    cards[i] = CardMask.index((high - i + CardMask.RANKS) % CardMask.RANKS, suit);
+                }
+                int value = HandEvaluator.evaluate(mask(cards));
+                assertEquals(describe(cards), category(bestOfFive(cards)), HandEvaluator.category(value));
+            }
+        }
+        // The wheel is the lowest straight
+        int[] wheel = {CardMask.index(12, 0), CardMask.index(0, 1), CardMask.index(1, 2),
+                CardMask.index(2, 3), CardMask.index(3, 0)};
+        int[] sixHigh = {CardMask.index(4, 0), CardMask.index(0, 1), CardMask.index(1, 2),
+                CardMask.index(2, 3), CardMask.index(3, 0)};
+        assertEquals(HandEvaluator.STRAIGHT, HandEvaluator.category(HandEvaluator.evaluate(mask(wheel))));
+        assertTrue(HandEvaluator.evaluate(mask(wheel)) < HandEvaluator.evaluate(mask(sixHigh)));
+    }
+
+    @Test
+    public void sameCategoryAsPokerHandUtil() {
+        for (int i = 0; i < 20000; i++) {
+            int[] cards = deal(7);
+            List<Card> mine = new ArrayList<Card>();
+            List<Card> community = new ArrayList<Card>();
+            for (int j = 0; j < cards.length; j++) {
+                (j < 2 ? mine : community).add(CardMask.card(cards[j]));
+            }
+            assertEquals(describe(cards), new PokerHandUtil(community, mine).getBestHand().getPokerHand(),
+                    HandEvaluator.pokerHand(HandEvaluator.evaluate(mask(cards))));
+        }
+    }
+
+    private int[] deal(int count) {
+        int[] cards = new int[count];
+        long used = 0;
+        for (int i = 0; i < count; i++) {
+            int card;
+            do {
+                card = random.nextInt(CardMask.CARDS);
+            } while ((used & 1L << card) != 0);
+            used |= 1L << card;
+            cards[i] = card;
+        }
+        return cards;
+    }
+
+    private static long mask(int[] cards) {
+        long mask = 0;
+        for (int card : cards) {
+            mask |= 1L << card;
+        }
+        return mask;
+    }
+
+    /**
+     * @return the best value of fiveCards over every five of the cards
+     */
+    private static long bestOfFive(int[] cards) {
+        long best = -1;
+        int[] five = new int[5];
+        for (int a = 0; a < cards.length; a++) {
+            for (int b = a + 1; b < cards.length; b++) {
+                for (int c = b + 1; c < cards.length; c++) {
+                    for (int d = c + 1; d < cards.length; d++) {
+                        for (int e = d + 1; e < cards.length; e++) {
+                            five[0] = cards[a];
+                            five[1] = cards[b];
+                            five[2] = cards[c];
+                            five[3] = cards[d];
+                            five[4] = cards[e];
+                            best = Math.max(best, fiveCards(five));
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Scores five cards the way the rules describe it, without any of the
+     * tricks of HandEvaluator: the category, then the ranks that break ties
+     * as base 13 digits, groups of more cards and higher ranks first.
+     */
+    private static long fiveCards(int[] five) {
+        int[] counts = new int[CardMask.RANKS];
+        boolean flush = true;
+        for (int card : five) {
+            counts[CardMask.rank(card)]++;
+            flush &= CardMask.suit(card) == CardMask.suit(five[0]);
+        }
+
+        // The ranks by how many cards share them, then by rank
+        int[] order = new int[5];
+        int groups = 0;
+        for (int size = 4; size >= 1; size--) {
+            for (int rank = CardMask.RANKS - 1; rank >= 0; rank--) {
+                if (counts[rank] == size) {
+                    order[groups++] = rank;
+                }
+            }
+        }
+
+        int straightHigh = -1;
+        if (groups == 5) {
+            if (order[0] - order[4] == 4) {
+                straightHigh = order[0];
+            } else if (order[0] == 12 && order[1] == 3) {
+                straightHigh = 3; // A 5 4 3 2
+            }
+        }
+
+        int category;
+        if (straightHigh >= 0 && flush) {
+            category = straightHigh == 12 ? HandEvaluator.ROYAL_FLUSH : HandEvaluator.STRAIGHT_FLUSH;
+        } else if (counts[order[0]] == 4) {
+            category = HandEvaluator.FOUR_OF_A_KIND;
+        } else if (counts[order[0]] == 3 && counts[order[1]] == 2) {
+            category = HandEvaluator.FULL_HOUSE;
+        } else if (flush) {
+            category = HandEvaluator.FLUSH;
+        } else if (straightHigh >= 0) {
+            category = HandEvaluator.STRAIGHT;
+        } else if (counts[order[0]] == 3) {
+            category = HandEvaluator.THREE_OF_A_KIND;
+        } else if (counts[order[0]] == 2 && counts[order[1]] == 2) {
+            category = HandEvaluator.TWO_PAIRS;
+        } else if (counts[order[0]] == 2) {
+            category = HandEvaluator.ONE_PAIR;
+        } else {
+            category = HandEvaluator.HIGH_HAND;
+        }
+
+        long value = category;
+        for (int i = 0; i < 5; i++) {
+            int rank = straightHigh >= 0 ? (i == 0 ? straightHigh : 0) : (i < groups ? order[i] : 0);
+            value = value * CardMask.RANKS + rank;
+        }
+        return value;
+    }
+
+    private static int category(long fiveCardsValue) {
+        long digits = 1;
+        for (int i = 0; i < 5; i++) {
+            digits *= CardMask.RANKS;
+        }
+        return (int) (fiveCardsValue / digits);
+    }
+
+    private static String describe(int[] cards) {
+        List<Card> described = new ArrayList<Card>();
+        for (int card : cards) {
+            described.add(CardMask.card(card));
+        }
+        return described.toString();
+    }
+}
@@ -0,0 +1,238 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.Test;
+import se.cygni.texasholdem.communication.message.event.TexasEvent;
+import se.cygni.texasholdem.communication.message.event.YouWonAmountEvent;
+import se.cygni.texasholdem.communication.message.request.ActionRequest;
+import se.cygni.texasholdem.game.Action;
+import se.cygni.texasholdem.game.definitions.ActionType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HoldemTableTest {
+
+    private static final long STARTING_CHIPS = 1000;
+
+    @Test
+    public void chipsAreConservedAcrossHands() {
+        Random random = new Random(42);
+        long wins = 0;
+        for (int table = 0; table < 200; table++) {
+            int players = 2 + random.nextInt(9);
+            List<RandomSeat> seats = new ArrayList<RandomSeat>();
+            for (int i = 0; i < players; i++) {
+                seats.add(new RandomSeat("P" + i, new Random(random.nextLong())));
+            }
+            HoldemTable holdemTable = new HoldemTable(seats, STARTING_CHIPS, 5, table, new Random(random.nextLong()));
+            boolean more = true;
+            for (int hand = 0; hand < 200 && more; hand++) {
+                more = holdemTable.playHand();
+                long total = 0;
+                for (int seat = 0; seat < players; seat++) {
+                    assertTrue(holdemTable.getChips(seat) >= 0);
+                    total += holdemTable.getChips(seat);
+                }
+                assertEquals("table " + table + " hand " + hand, players * STARTING_CHIPS, total);
+            }
+            for (RandomSeat seat : seats) {
+                wins += seat.wins;
+            }
+        }
+        assertTrue(wins > 1000);
+    }
+
+    /**
+     * Four all-ins of 990, 1000, 1000 and 1010 chips: the shortest stack
+     * wins the main pot, the next best hand the side pot of the three
+     * deeper stacks, and the deepest gets back what nobody could match.
+     */
+    @Test
+    public void sidePotsOfSeveralAllIns() {
+        // Hand one: everybody folds to the big blind, leaving 1000, 990, 1010 and 1000
+        ScriptedSeat seat0 = new ScriptedSeat("P0", ActionType.FOLD, ActionType.ALL_IN);
+        ScriptedSeat seat1 = new ScriptedSeat("P1", ActionType.FOLD, ActionType.ALL_IN);
+        ScriptedSeat seat2 = new ScriptedSeat("P2", ActionType.ALL_IN);
+        ScriptedSeat seat3 = new ScriptedSeat("P3", ActionType.FOLD, ActionType.ALL_IN);
+        // Hand two: seat 1 deals, hole cards go to seats 2, 3, 0, 1 twice, then the board
+        int[] hand2 = {
+                card(12, 2), card(1, 3), card(9, 2), card(11, 3),
+                card(10, 1), card(2, 3), card(9, 1), card(11, 1),
+                card(0, 0), card(5, 1), card(7, 2), card(9, 3), card(11, 0)};
+        HoldemTable table = new HoldemTable(Arrays.asList(seat0, seat1, seat2, seat3), STARTING_CHIPS, 10, 1,
+                new StackedDeck(null, hand2));
+
+        table.playHand();
+        assertChips(table, 1000, 990, 1010, 1000);
+
+        table.playHand();
+        // Kings for seat 1 take 4 x 990, jacks for seat 0 take 3 x 10, seat 2 gets its last 10 back
+        assertChips(table, 30, 3960, 10, 0);
+        assertEquals(Arrays.asList(3960L), seat1.won);
+        assertEquals(Arrays.asList(30L), seat0.won);
+        assertEquals(Arrays.asList(30L, 10L), seat2.won);
+    }
+
+    /**
+     * Two all-ins play a straight on the board against a folded small
+     * blind: 2005 chips split, the odd chip to the first winner after the
+     * dealer.
+     */
+    @Test
+    public void splitPotGivesTheOddChipAfterTheDealer() {
+        ScriptedSeat seat0 = new ScriptedSeat("P0", ActionType.ALL_IN);
+        ScriptedSeat seat1 = new ScriptedSeat("P1", ActionType.FOLD);
+        ScriptedSeat seat2 = new ScriptedSeat("P2", ActionType.ALL_IN);
+        // Seat 0 deals, hole cards go to seats 1, 2, 0 twice, then A K Q J T on the board
+        int[] hand = {
+                card(4, 2), card(2, 0), card(0, 0),
+                card(5, 2), card(3, 1), card(1, 1),
+                card(12, 0), card(11, 1), card(10, 2), card(9, 3), card(8, 0)};
+        HoldemTable table = new HoldemTable(Arrays.asList(seat0, seat1, seat2), STARTING_CHIPS, 5, 1,
+                new StackedDeck(hand));
+
+        table.playHand();
+        assertChips(table, 1002, 995, 1003);
+        assertEquals(Arrays.asList(1002L), seat0.won);
+        assertEquals(Arrays.asList(1003L), seat2.won);
+    }
+
+    private static int card(int rank, int suit) {
+        return CardMask.index(rank, suit);
+    }
+
+    private static void assertChips(HoldemTable table, long... expected) {
+        long[] actual = new long[expected.length];
+        for (int seat = 0; seat < expected.length; seat++) {
+            actual[seat] = table.getChips(seat);
+        }
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    /**
+     * Answers with the action types it was given, in order, and folds when
+     * they run out.
+     */
+    private static final class ScriptedSeat implements TableSeat {
+
+        private final String name;
+        private final Deque<ActionType> script;
+        private final List<Long> won = new ArrayList<Long>();
+
+        ScriptedSeat(String name, ActionType... script) {
+            this.name = name;
+            this.script = new ArrayDeque<ActionType>(Arrays.asList(script));
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onEvent(TexasEvent event) {
+            if (event instanceof YouWonAmountEvent) {
+                won.add(((YouWonAmountEvent) event).getWonAmount());
+            }
+        }
+
+        @Override
+        public Action actionRequired(ActionRequest request) {
+            ActionType type = script.isEmpty() ? ActionType.FOLD : script.poll();
+            for (Action action : request.getPossibleActions()) {
+                if (action.getActionType() == type) {
+                    return action;
+                }
+            }
+            throw new AssertionError(name + " may not " + type + ", only " + request.getPossibleActions());
+        }
+    }
+
+    /**
+     * Mostly calls and checks, so that many hands reach a showdown.
+     */
+    private static final class RandomSeat implements TableSeat {
+
+        private final String name;
+        private final Random random;
+        private int wins;
+
+        RandomSeat(String name, Random random) {
+            this.name = name;
+            this.random = random;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void onEvent(TexasEvent event) {
+            if (event instanceof YouWonAmountEvent) {
+                wins++;
+            }
+        }
+
+        @Override
+        public Action actionRequired(ActionRequest request) {
+            List<Action> actions = request.getPossibleActions();
+            int roll = random.nextInt(20);
+            ActionType wanted = roll == 0 ? ActionType.ALL_IN : roll < 3 ? ActionType.RAISE
+                    : roll < 5 ? ActionType.FOLD : roll < 18 ? ActionType.CALL : ActionType.CHECK;
+            for (Action action : actions) {
+                if (action.getActionType() == wanted
+                        || wanted == ActionType.CALL && action.getActionType() == ActionType.CHECK) {
+                    return action;
+                }
+            }
+            return actions.get(random.nextInt(actions.size()));
+        }
+    }
+
+    /**
+     * Shuffles so that each hand is dealt the cards given for it, by
+     * answering the partial Fisher-Yates shuffle of HoldemTable with the
+     * positions those cards are at. Hands without cards given, null or
+     * after the last, are dealt from the deck as the previous hand left it.
+     */
+    private static final class StackedDeck extends Random {
+
+        private final int[] deck = new int[CardMask.CARDS];
+        private final int[][] hands;
+        private int hand = -1;
+
+        StackedDeck(int[]... hands) {
+            this.hands = hands;
+            for (int card = 0; card < CardMask.CARDS; card++) {
+                deck[card] = card;
+            }
+        }
+
+        @Override
+        public int nextInt(int bound) {
+            int position = CardMask.CARDS - bound;
+            if (position == 0) {
+                hand++;
+            }
+            int[] cards = hand < hands.length ? hands[hand] : null;
+            int from = position;
+            if (cards != null && position < cards.length) {
+                while (deck[from] != cards[position]) {
+                    from++;
+                }
+            }
+            int card = deck[from];
+            deck[from] = deck[position];
+            deck[position] = card;
+            return from - position;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IcmCalculatorTest {
+
+    private static final double[] PAYOUTS = IcmCalculator.parsePayouts(IcmCalculator.DEFAULT_PAYOUTS);
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void exactEqualsEveryFinishingOrderOnSmallFields() {
+        for (int players = 1; players <= 7; players++) {
+            for (int i = 0; i < 20; i++) {
+                long[] stacks = randomStacks(players);
+                // Every place paid, so every full finishing order counts
+                double[] payouts = randomPayouts(players);
+                assertClose(enumerated(stacks, payouts), new IcmCalculator(payouts, 1).equities(stacks), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void exactEqualsEveryOrderOfThePaidPlaces() {
+        for (int players = 2; players <= IcmCalculator.EXACT_PLAYERS; players++) {
+            for (int i = 0; i < 5; i++) {
+                long[] stacks = randomStacks(players);
+                assertClose(enumerated(stacks, PAYOUTS), new IcmCalculator(PAYOUTS, 1).equities(stacks), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void playersWithoutChipsGetNothing() {
+        long[] stacks = {3000, 0, 1000, 0, 2000};
+        double[] equities = new IcmCalculator(PAYOUTS, 1).equities(stacks);
+        assertEquals(0, equities[1], 0);
+        assertEquals(0, equities[3], 0);
+        assertClose(enumerated(new long[]{3000, 1000, 2000}, PAYOUTS),
+                new double[]{equities[0], equities[2], equities[4]}, 1e-12);
+    }
+
+    /**
+     * Just above EXACT_PLAYERS the equities are sampled, they must stay
+     * within a few standard errors of the exact ones: a payout is at most
+     * 0.5, so the standard error of a player is at most 0.5 / sqrt(samples).
+     */
+    @Test
+    public void sampledStaysCloseToExactAtTheCrossover() {
+        int players = IcmCalculator.EXACT_PLAYERS + 1;
+        for (int i = 0; i < 5; i++) {
+            long[] stacks = randomStacks(players);
+            double[] exact = enumerated(stacks, PAYOUTS);
+            // As many samples as the bot draws
+            assertClose(exact, new IcmCalculator().equities(stacks), 6 * 0.5 / Math.sqrt(2000));
+            // And enough to tell a biased sampler from noise
+            assertClose(exact, new IcmCalculator(PAYOUTS, 200000).equities(stacks), 6 * 0.5 / Math.sqrt(200000));
+        }
+    }
+
+    private long[] randomStacks(int players) {
+        long[] stacks = new long[players];
+        for (int i = 0; i < players; i++) {
+            // Short and deep stacks alike
+            stacks[i] = 1 + random.nextInt(random.nextBoolean() ? 200 : 20000);
+        }
+        return stacks;
+    }
+
+    private double[] randomPayouts(int places) {
+        double[] payouts = new double[places];
+        double left = 1;
+        for (int place = 0; place < places; place++) {
+            payouts[place] = place == places - 1 ? left : left * (0.3 + 0.5 * random.nextDouble());
+            left -= payouts[place];
+        }
+        return payouts;
+    }
+
+    /**
+     * Sums the payouts over every order the paid places can be taken in, an
+     * order as likely as each place going to a player in proportion to the
+     * chips of those left. The places after them pay nothing, so their
+     * order does not matter.
+     */
+    private static double[] enumerated(long[] stacks, double[] payouts) {
+        double[] equities = new double[stacks.length];
+        double total = 0;
+        for (long stack : stacks) {
+            total += stack;
+        }
+        enumerate(stacks, payouts, new boolean[stacks.length], 0, 1, total, equities);
+        return equities;
+    }
+
+    private static void enumerate(long[] stacks, double[] payouts, boolean[] placed, int place,
+                                  double probability, double chipsLeft, double[] equities) {
+        if (place == Math.min(payouts.length, stacks.length)) {
+            return;
+        }
+        for (int player = 0; player < stacks.length; player++) {
+            if (placed[player]) {
+                continue;
+            }
+            double next = probability * stacks[player] / chipsLeft;
+            equities[player] += next * payouts[place];
+            placed[player] = true;
+            enumerate(stacks, payouts, placed, place + 1, next, chipsLeft - stacks[player], equities);
+            placed[player] = false;
+        }
+    }
+
+    private static void assertClose(double[] expected, double[] actual, double tolerance) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Arrays.toString(expected) + " but was " + Arrays.toString(actual),
+                    expected[i], actual[i], tolerance);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RangeEquityTest {
+
+    // Ah Kh on Qh Jd 2c
+    private static final long MY_CARDS = card(12, 0) | card(11, 0);
+    private static final long FLOP = card(10, 0) | card(9, 1) | card(0, 2);
+
+    private final RangeEquity rangeEquity = new RangeEquity(TimeUnit.SECONDS.toNanos(1), 2000);
+
+    /**
+     * Two opponents narrowed down to the same pair of aces can never be
+     * dealt together, so sampling gives up without an equity.
+     */
+    @Test
+    public void givesUpOnRangesThatCanNotBeDealtTogether() {
+        float[] aces = range(combo(card(12, 1) | card(12, 2)));
+        assertNull(rangeEquity.calculate(MY_CARDS, FLOP, new float[][]{aces, aces}));
+    }
+
+    /**
+     * Aces and kings for two opponents can only be dealt one to each, so
+     * the samples must agree with every board against those two holdings.
+     */
+    @Test
+    public void samplesRangesThatOverlapInPart() {
+        long aces = card(12, 1) | card(12, 2);
+        long kings = card(11, 1) | card(11, 2);
+        float[] acesOrKings = range(combo(aces), combo(kings));
+        Equity equity = rangeEquity.calculate(MY_CARDS, FLOP, new float[][]{acesOrKings, acesOrKings});
+        assertNotNull(equity);
+        assertEquals(2000, equity.getSamples());
+        assertEquals(equity.toString(), againstEveryBoard(aces, kings), equity.getEquity(),
+                4 * equity.getStandardError());
+    }
+
+    private static double againstEveryBoard(long first, long second) {
+        int[] deck = EquityCalculator.unseenCards(MY_CARDS | FLOP | first | second);
+        double shares = 0;
+        int boards = 0;
+        for (int i = 0; i < deck.length; i++) {
+            for (int j = i + 1; j < deck.length; j++) {
+                long board = FLOP | 1L << deck[i] | 1L << deck[j];
+                int mine = HandEvaluator.evaluate(MY_CARDS | board);
+                int theirs = HandEvaluator.evaluate(first | board);
+                int others = HandEvaluator.evaluate(second | board);
+                int tied = 1 + (theirs == mine ? 1 : 0) + (others == mine ? 1 : 0);
+                shares += mine < Math.max(theirs, others) ? 0 : 1.0 / tied;
+                boards++;
+            }
+        }
+        return shares / boards;
+    }
+
+    private static float[] range(int... combos) {
+        float[] range = new float[Combos.COUNT];
+        for (int combo : combos) {
+            range[combo] = 1f;
+        }
+        return range;
+    }
+
+    private static int combo(long cards) {
+        for (int combo = 0; combo < Combos.COUNT; combo++) {
+            if (Combos.MASK[combo] == cards) {
+                return combo;
+            }
+        }
+        throw new IllegalArgumentException("Not two cards: " + cards);
+    }
+
+    private static long card(int rank, int suit) {
+        return 1L << CardMask.index(rank, suit);
+    }
+}
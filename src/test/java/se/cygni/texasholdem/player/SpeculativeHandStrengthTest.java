@@ -0,0 +1,131 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import se.cygni.texasholdem.game.GamePlayer;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SpeculativeHandStrengthTest {
+
+    private static final String ME = "Me";
+    private static final String OPPONENT = "Opponent";
+    private static final PreflopTable PREFLOP_TABLE = PreflopTable.loadResources();
+    private static final ForkJoinPool POOL = new ForkJoinPool(1);
+    private static final ExecutorService SPECULATION = Executors.newSingleThreadExecutor();
+
+    // Ah Kh against Qh Jd 2c, renamed Ad Kd against Qd Jh 2c
+    private static final long MY_CARDS = card(12, 0) | card(11, 0);
+    private static final long FLOP = card(10, 0) | card(9, 1) | card(0, 2);
+    private static final long RENAMED_MY_CARDS = card(12, 1) | card(11, 1);
+    private static final long RENAMED_FLOP = card(10, 1) | card(9, 0) | card(0, 2);
+
+    private final EquityCache equityCache = new EquityCache();
+    private final SpeculativeHandStrength handStrength = new SpeculativeHandStrength(
+            new EquityCalculator(POOL, TimeUnit.MILLISECONDS.toNanos(100), 2000), new ExactEquity(),
+            new RangeEquity(TimeUnit.MILLISECONDS.toNanos(100), 2000), equityCache, SPECULATION);
+
+    @AfterClass
+    public static void shutDown() {
+        SPECULATION.shutdownNow();
+        POOL.shutdownNow();
+    }
+
+    @Test
+    public void repeatedNarrowedSpotHitsTheCache() {
+        OpponentRanges.Snapshot first = raisedThenCalledOnTheFlop(FLOP);
+        assertNotNull(first.getRanges());
+        HandStrength calculated = handStrength.calculate(MY_CARDS, FLOP, first);
+        assertEquals(0, equityCache.getStats().hitCount());
+
+        // The same actions in another hand give new ranges with the same weights
+        OpponentRanges.Snapshot second = raisedThenCalledOnTheFlop(FLOP);
+        assertTrue(first.getRanges()[0] != second.getRanges()[0]);
+        assertTrue(Arrays.equals(first.getRanges()[0], second.getRanges()[0]));
+        HandStrength remembered = handStrength.calculate(MY_CARDS, FLOP, second);
+        assertEquals(1, equityCache.getStats().hitCount());
+        assertSame(calculated.getEquity(), remembered.getEquity());
+    }
+
+    @Test
+    public void rangesNarrowedBeforeTheFlopAreSharedWithRenamedSuits() {
+        handStrength.calculate(MY_CARDS, FLOP, raisedBeforeTheFlop(FLOP));
+        handStrength.calculate(RENAMED_MY_CARDS, RENAMED_FLOP, raisedBeforeTheFlop(RENAMED_FLOP));
+        assertEquals(1, equityCache.getStats().hitCount());
+    }
+
+    @Test
+    public void rangesNarrowedOnTheBoardAreOnlySharedOnTheSameCards() {
+        handStrength.calculate(MY_CARDS, FLOP, raisedThenCalledOnTheFlop(FLOP));
+        handStrength.calculate(RENAMED_MY_CARDS, RENAMED_FLOP, raisedThenCalledOnTheFlop(RENAMED_FLOP));
+        assertEquals(0, equityCache.getStats().hitCount());
+    }
+
+    @Test
+    public void otherActionsMissTheCache() {
+        handStrength.calculate(MY_CARDS, FLOP, raisedThenCalledOnTheFlop(FLOP));
+        handStrength.calculate(MY_CARDS, FLOP, raisedBeforeTheFlop(FLOP));
+        OpponentRanges ranges = newHand();
+        ranges.onPlayerCalled(OPPONENT);
+        ranges.onCommunityCards(FLOP);
+        ranges.onPlayerCalled(OPPONENT);
+        handStrength.calculate(MY_CARDS, FLOP, ranges.snapshot(1));
+        assertEquals(0, equityCache.getStats().hitCount());
+        assertEquals(3, equityCache.getStats().missCount());
+    }
+
+    /**
+     * Ranges narrowed so far that RangeEquity can not deal them together
+     * fall back to the equity against any cards, not to none at all.
+     */
+    @Test
+    public void rangesThatCanNotBeDealtFallBackToAnyCards() {
+        long river = FLOP | card(5, 3) | card(3, 3);
+        float[] aces = new float[Combos.COUNT];
+        for (int combo = 0; combo < Combos.COUNT; combo++) {
+            if (Combos.MASK[combo] == (card(12, 1) | card(12, 2))) {
+                aces[combo] = 1f;
+            }
+        }
+        OpponentRanges.Snapshot ranges = new OpponentRanges.Snapshot(1, 2, new float[][]{aces, aces}, 42L, false);
+
+        Equity equity = handStrength.calculate(MY_CARDS, river, ranges).getEquity();
+        // Two opponents on the river are few enough to enumerate
+        assertEquals(new ExactEquity().calculate(MY_CARDS, river, 2).getEquity(), equity.getEquity(), 0);
+        assertTrue(equity.getEquity() > 0);
+    }
+
+    private static OpponentRanges.Snapshot raisedBeforeTheFlop(long flop) {
+        OpponentRanges ranges = newHand();
+        ranges.onPlayerRaised(OPPONENT);
+        ranges.onCommunityCards(flop);
+        return ranges.snapshot(1);
+    }
+
+    private static OpponentRanges.Snapshot raisedThenCalledOnTheFlop(long flop) {
+        OpponentRanges ranges = newHand();
+        ranges.onPlayerRaised(OPPONENT);
+        ranges.onCommunityCards(flop);
+        ranges.onPlayerCalled(OPPONENT);
+        return ranges.snapshot(1);
+    }
+
+    private static OpponentRanges newHand() {
+        OpponentRanges ranges = new OpponentRanges(ME, PREFLOP_TABLE, OpponentStats.inMemory());
+        ranges.onPlayIsStarted(Arrays.asList(new GamePlayer(ME, 1000), new GamePlayer(OPPONENT, 1000)));
+        return ranges;
+    }
+
+    private static long card(int rank, int suit) {
+        return 1L << CardMask.index(rank, suit);
+    }
+}
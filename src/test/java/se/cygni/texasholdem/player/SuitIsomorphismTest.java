@@ -0,0 +1,146 @@
+package se.cygni.texasholdem.player;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SuitIsomorphismTest {
+
+    private static final int[] BOARD_SIZES = {0, 3, 4, 5};
+
+    /**
+     * All 24 orderings of the four suits
+     */
+    private static final int[][] PERMUTATIONS = permutations();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void sameKeyForEverySuitRenaming() {
+        for (int i = 0; i < 2000; i++) {
+            long[] situation = randomSituation();
+            long key = SuitIsomorphism.key(situation[0], situation[1], 3);
+            for (int[] permutation : PERMUTATIONS) {
+                assertEquals(key, SuitIsomorphism.key(
+                        permute(situation[0], permutation), permute(situation[1], permutation), 3));
+            }
+        }
+    }
+
+    @Test
+    public void sameKeyOnlyForSuitRenamings() {
+        int isomorphic = 0;
+        int different = 0;
+        for (int i = 0; i < 20000; i++) {
+            long[] a = randomSituation();
+            // A renaming of a with one card swapped for another, often still isomorphic
+            int[] permutation = PERMUTATIONS[random.nextInt(PERMUTATIONS.length)];
+            long myCards = permute(a[0], permutation);
+            long board = permute(a[1], permutation);
+            if (board != 0) {
+                long used = myCards | board;
+                int removed = nthCard(board, random.nextInt(Long.bitCount(board)));
+                int added;
+                do {
+                    added = random.nextInt(CardMask.CARDS);
+                } while ((used & 1L << added) != 0);
+                board = board & ~(1L << removed) | 1L << added;
+            }
+
+            boolean expected = isRenaming(a[0], a[1], myCards, board);
+            assertEquals(expected, SuitIsomorphism.key(a[0], a[1], 2) == SuitIsomorphism.key(myCards, board, 2));
+            if (expected) {
+                isomorphic++;
+            } else {
+                different++;
+            }
+        }
+        // Both outcomes must have been tried
+        assertTrue(isomorphic > 100);
+        assertTrue(different > 100);
+    }
+
+    @Test
+    public void keyTellsTheNumberOfOpponentsApart() {
+        long[] situation = randomSituation();
+        assertFalse(SuitIsomorphism.key(situation[0], situation[1], 1)
+                == SuitIsomorphism.key(situation[0], situation[1], 2));
+    }
+
+    @Test
+    public void keyTellsHoleCardsFromBoardCards() {
+        // Ah Kh on Qh Jh Th against Ah Qh on Kh Jh Th
+        long ah = 1L << CardMask.index(12, 0);
+        long kh = 1L << CardMask.index(11, 0);
+        long qh = 1L << CardMask.index(10, 0);
+        long jh = 1L << CardMask.index(9, 0);
+        long th = 1L << CardMask.index(8, 0);
+        assertFalse(SuitIsomorphism.key(ah | kh, qh | jh | th, 1) == SuitIsomorphism.key(ah | qh, kh | jh | th, 1));
+    }
+
+    private long[] randomSituation() {
+        int boardSize = BOARD_SIZES[random.nextInt(BOARD_SIZES.length)];
+        long used = 0;
+        long myCards = 0;
+        long board = 0;
+        for (int i = 0; i < 2 + boardSize; i++) {
+            int card;
+            do {
+                card = random.nextInt(CardMask.CARDS);
+            } while ((used & 1L << card) != 0);
+            used |= 1L << card;
+            if (i < 2) {
+                myCards |= 1L << card;
+            } else {
+                board |= 1L << card;
+            }
+        }
+        return new long[]{myCards, board};
+    }
+
+    private static boolean isRenaming(long myCards, long board, long otherMyCards, long otherBoard) {
+        for (int[] permutation : PERMUTATIONS) {
+            if (permute(myCards, permutation) == otherMyCards && permute(board, permutation) == otherBoard) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long permute(long cards, int[] permutation) {
+        long permuted = 0;
+        for (int suit = 0; suit < CardMask.SUITS; suit++) {
+            long ranks = (cards >>> (suit * CardMask.RANKS)) & CardMask.RANK_BITS;
+            permuted |= ranks << (permutation[suit] * CardMask.RANKS);
+        }
+        return permuted;
+    }
+
+    private static int nthCard(long cards, int n) {
+        long remaining = cards;
+        for (int i = 0; i < n; i++) {
+            remaining &= remaining - 1;
+        }
+        return Long.numberOfTrailingZeros(remaining);
+    }
+
+    private static int[][] permutations() {
+        int[][] permutations = new int[24][];
+        int next = 0;
+        for (int a = 0; a < 4; a++) {
+            for (int b = 0; b < 4; b++) {
+                for (int c = 0; c < 4; c++) {
+                    int d = 6 - a - b - c;
+                    if (a != b && a != c && b != c && d != a && d != b && d != c) {
+                        permutations[next++] = new int[]{a, b, c, d};
+                    }
+                }
+            }
+        }
+        return permutations;
+    }
+}